@@ -0,0 +1,152 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.ptolemy.moml.MomlFactory;
+import org.ptolemy.moml.PropertyType;
+
+import com.google.common.collect.Lists;
+import com.google.inject.Guice;
+
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.klighd.kgraph.util.KGraphUtil;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.AnnotationExtensions;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.AnnotationList;
+
+/**
+ * Benchmarks looking up annotations by their names on actors with many parameters. Lookups through
+ * the annotation extensions, which use an index for long lists, are compared to the linear search
+ * that was used before. Each invocation looks up every annotation once, plus one that does not
+ * exist, on both a KGraph node and a Ptolemy model object.
+ *
+ * @author cds
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class AnnotationLookupBenchmark {
+
+    /**
+     * An actor with the given number of parameters, both as a KGraph node and as a Ptolemy model
+     * object.
+     */
+    @State(Scope.Thread)
+    public static class Actor {
+        /** Number of parameters of the actor. */
+        @Param({ "4", "16", "64" })
+        public int parameters;
+
+        /** The extensions to look annotations up with. */
+        private AnnotationExtensions annotationExtensions;
+        /** The KGraph node. */
+        private KNode node;
+        /** The Ptolemy model object. */
+        private PropertyType modelObject;
+        /** The names to look up. */
+        private final List<String> names = Lists.newArrayList();
+
+        /**
+         * Creates the actor.
+         */
+        @Setup(Level.Trial)
+        public void createActor() {
+            annotationExtensions = Guice.createInjector().getInstance(AnnotationExtensions.class);
+            node = KGraphUtil.createInitializedNode();
+            modelObject = MomlFactory.eINSTANCE.createPropertyType();
+
+            names.clear();
+            for (int i = 0; i < parameters; i++) {
+                final String name = "parameter" + i; //$NON-NLS-1$
+                annotationExtensions.addAnnotation(node, name, Integer.toString(i));
+                annotationExtensions.addAnnotation(modelObject, name, Integer.toString(i));
+                names.add(name);
+            }
+            names.add("_missing"); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Looks up annotations of the KGraph node through the annotation extensions.
+     *
+     * @param actor the actor.
+     * @param blackhole consumes the annotations.
+     */
+    @Benchmark
+    public void indexedNodeLookup(final Actor actor, final Blackhole blackhole) {
+        for (String name : actor.names) {
+            blackhole.consume(actor.annotationExtensions.getAnnotation(actor.node, name));
+        }
+    }
+
+    /**
+     * Looks up annotations of the KGraph node through a linear search.
+     *
+     * @param actor the actor.
+     * @param blackhole consumes the annotations.
+     */
+    @Benchmark
+    public void linearNodeLookup(final Actor actor, final Blackhole blackhole) {
+        final List<PropertyType> annotations =
+                actor.node.getProperty(PtolemyProperties.PT_PROPERTIES);
+        for (String name : actor.names) {
+            blackhole.consume(AnnotationList.findLinearly(annotations, name));
+        }
+    }
+
+    /**
+     * Looks up properties of the Ptolemy model object through the annotation extensions.
+     *
+     * @param actor the actor.
+     * @param blackhole consumes the annotations.
+     */
+    @Benchmark
+    public void indexedModelLookup(final Actor actor, final Blackhole blackhole) {
+        for (String name : actor.names) {
+            blackhole.consume(actor.annotationExtensions.getAnnotation(actor.modelObject, name));
+        }
+    }
+
+    /**
+     * Looks up properties of the Ptolemy model object through a linear search.
+     *
+     * @param actor the actor.
+     * @param blackhole consumes the annotations.
+     */
+    @Benchmark
+    public void linearModelLookup(final Actor actor, final Blackhole blackhole) {
+        for (String name : actor.names) {
+            blackhole.consume(AnnotationList.findLinearly(actor.modelObject.getProperty(), name));
+        }
+    }
+
+}
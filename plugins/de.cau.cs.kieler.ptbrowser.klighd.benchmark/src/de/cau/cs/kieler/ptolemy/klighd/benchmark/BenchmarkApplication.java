@@ -0,0 +1,62 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+
+/**
+ * Headless application that runs the JMH benchmarks contained in this bundle. Run it with
+ * {@code -application de.cau.cs.kieler.ptbrowser.klighd.benchmark.benchmark}; all further arguments
+ * are regular JMH command line arguments, such as {@code -prof gc} or
+ * {@code -p model=/path/to/model.xml}.
+ *
+ * <p>The synthesis needs the bundles of a running OSGi framework, which JMH cannot recreate in a
+ * forked JVM. The benchmarks thus run inside this application's JVM, which is why they are
+ * annotated with {@code @Fork(0)}.</p>
+ *
+ * @author cds
+ */
+public class BenchmarkApplication implements IApplication {
+
+    /** Exit code returned if the benchmarks could not be run. */
+    private static final Integer EXIT_FAILURE = Integer.valueOf(1);
+
+
+    @Override
+    public Object start(final IApplicationContext context) throws Exception {
+        String[] args = (String[]) context.getArguments().get(
+                IApplicationContext.APPLICATION_ARGS);
+        if (args == null) {
+            args = new String[0];
+        }
+
+        try {
+            new Runner(new CommandLineOptions(args)).run();
+            return IApplication.EXIT_OK;
+        } catch (CommandLineOptionException e) {
+            System.err.println(e.getMessage());
+            return EXIT_FAILURE;
+        }
+    }
+
+    @Override
+    public void stop() {
+        // JMH runs to completion; there is nothing to stop
+    }
+
+}
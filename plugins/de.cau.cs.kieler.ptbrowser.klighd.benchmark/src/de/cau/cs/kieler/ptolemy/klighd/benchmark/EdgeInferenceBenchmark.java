@@ -0,0 +1,95 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.ptolemy.klighd.LabelDisplayStyle;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphOptimization;
+
+/**
+ * Benchmarks the inference of edge directions. The inference is the first step of the
+ * optimization and cannot be run on its own, so this benchmark runs the optimization with
+ * everything turned off that can be turned off: relations are kept and comments are neither
+ * extracted nor attached. The contents of collapsed composite actors are transformed right away
+ * to have their edges take part in the inference. What remains is dominated by the inference, in
+ * particular for the under-annotated models ({@code -p model=underannotated-3000}) whose edge
+ * directions mostly have to be fixed one after another.
+ *
+ * @author cds
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class EdgeInferenceBenchmark {
+
+    /**
+     * Input for the benchmark: a freshly transformed graph.
+     */
+    @State(Scope.Thread)
+    public static class InferenceInput {
+        /** The options to use. */
+        private Options options;
+        /** The graph whose edge directions to infer. */
+        private KNode graph;
+        /** The optimization instance. */
+        private Ptolemy2KGraphOptimization optimization;
+
+        /**
+         * Prepares the input.
+         *
+         * @param model the model state.
+         */
+        @Setup(Level.Invocation)
+        public void prepare(final ModelState model) {
+            options = new Options();
+            options.relations = true;
+            options.comments = LabelDisplayStyle.NONE;
+            options.commentsAttach = false;
+            options.synthesizeOnExpansion = false;
+            graph = model.transform(options);
+            optimization = model.create(Ptolemy2KGraphOptimization.class);
+        }
+    }
+
+    /**
+     * Benchmarks inferring the edge directions of a transformed graph.
+     *
+     * @param model the model state.
+     * @param input the transformed graph.
+     * @return the graph.
+     */
+    @Benchmark
+    public KNode inferEdgeDirections(final ModelState model, final InferenceInput input) {
+        input.optimization.optimize(input.graph, input.options, null, model.getSynthesis());
+        return input.graph;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.swt.graphics.ImageData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.GraphicsUtils;
+
+/**
+ * Benchmarks converting AWT images into SWT ones, which happens for every actor icon loaded through
+ * Ptolemy. The conversion that copies whole rows of pixels is compared to the one that converts one
+ * pixel at a time, which was used for all images before. Images of type
+ * {@link BufferedImage#TYPE_4BYTE_ABGR} are left out, since only the former can convert them.
+ *
+ * @author cds
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class ImageConversionBenchmark {
+
+    /**
+     * A square image filled with random pixels.
+     */
+    @State(Scope.Thread)
+    public static class Image {
+        /** Type of the image; either {@code rgb} or {@code argb}. */
+        @Param({ "rgb", "argb" })
+        public String type;
+
+        /** Width and height of the image. */
+        @Param({ "64", "512" })
+        public int size;
+
+        /** The image. */
+        private BufferedImage image;
+
+        /**
+         * Creates the image.
+         */
+        @Setup(Level.Trial)
+        public void createImage() {
+            final int imageType = "argb".equals(type) //$NON-NLS-1$
+                    ? BufferedImage.TYPE_INT_ARGB
+                    : BufferedImage.TYPE_INT_RGB;
+            image = new BufferedImage(size, size, imageType);
+
+            // A fixed seed makes all runs convert the same image
+            final Random random = new Random(size);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    image.setRGB(x, y, random.nextInt());
+                }
+            }
+        }
+    }
+
+    /**
+     * Converts the image a row at a time.
+     *
+     * @param image the image.
+     * @return the converted image.
+     */
+    @Benchmark
+    public ImageData bulkConversion(final Image image) {
+        return GraphicsUtils.convertToSwt(image.image);
+    }
+
+    /**
+     * Converts the image a pixel at a time.
+     *
+     * @param image the image.
+     * @return the converted image.
+     */
+    @Benchmark
+    public ImageData pixelwiseConversion(final Image image) {
+        return GraphicsUtils.convertToSwtPixelwise(image.image);
+    }
+
+}
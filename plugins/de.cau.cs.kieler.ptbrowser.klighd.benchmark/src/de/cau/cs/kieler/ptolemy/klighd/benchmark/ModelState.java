@@ -0,0 +1,201 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.ptolemy.moml.DocumentRoot;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.ptolemy.klighd.LabelDisplayStyle;
+import de.cau.cs.kieler.ptolemy.klighd.MomlResources;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphOptimization;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphTransformation;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphVisualization;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsExtractor;
+
+/**
+ * Benchmark state holding the loaded Ptolemy model. Models are either generated by the
+ * {@link MomlModelGenerator} (parameter values of the form {@code generated-<actors>} or
+ * {@code underannotated-<actors>}) or loaded from the file system (any other parameter value is
+ * interpreted as a path). Run with
+ * {@code -p model=/path/to/model.xml} to benchmark your own models.
+ *
+ * <p>Since the synthesis phases modify the graph they work on and since transformation instances
+ * cannot be reused, this class also provides methods to run the synthesis up to a given phase with
+ * freshly created phase instances.</p>
+ *
+ * @author cds
+ */
+@State(Scope.Benchmark)
+public class ModelState {
+
+    /** Prefix of parameter values that denote generated models. */
+    private static final String GENERATED_PREFIX = "generated-"; //$NON-NLS-1$
+    /** Prefix of parameter values that denote generated models with mostly unknown port types. */
+    private static final String UNDER_ANNOTATED_PREFIX = "underannotated-"; //$NON-NLS-1$
+
+    /** The model to benchmark. */
+    @Param({ "generated-100", "generated-1000", "generated-3000", "underannotated-1000",
+            "underannotated-3000" })
+    public String model;
+
+    /** The loaded model. */
+    private DocumentRoot documentRoot;
+    /** Resource the model was loaded into. */
+    private Resource resource;
+    /** Injector used to create instances of the synthesis phases. */
+    private Injector injector;
+    /** The synthesis instance that model elements are associated through. */
+    private PtolemyDiagramSynthesis synthesis;
+
+
+    /**
+     * Loads the model.
+     *
+     * @throws IOException if the model cannot be generated or loaded.
+     */
+    @Setup(Level.Trial)
+    public void loadModel() throws IOException {
+        File file;
+        if (model.startsWith(GENERATED_PREFIX)) {
+            final int actors = Integer.parseInt(model.substring(GENERATED_PREFIX.length()));
+            file = writeTemporaryModel(MomlModelGenerator.generate(actors));
+        } else if (model.startsWith(UNDER_ANNOTATED_PREFIX)) {
+            final int actors = Integer.parseInt(model.substring(UNDER_ANNOTATED_PREFIX.length()));
+            file = writeTemporaryModel(MomlModelGenerator.generateUnderAnnotated(actors));
+        } else {
+            file = new File(model);
+        }
+
+        resource = MomlResources.createResourceSet().getResource(
+                URI.createFileURI(file.getAbsolutePath()), true);
+        documentRoot = (DocumentRoot) resource.getContents().get(0);
+
+        injector = Guice.createInjector();
+        synthesis = injector.getInstance(PtolemyDiagramSynthesis.class);
+    }
+
+    /**
+     * Writes the given generated model to a temporary file that is deleted when the JVM exits.
+     *
+     * @param moml the model's MoML text.
+     * @return the file.
+     * @throws IOException if the file cannot be written.
+     */
+    private static File writeTemporaryModel(final String moml) throws IOException {
+        final File file =
+                File.createTempFile("ptbrowser-benchmark-", ".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+        file.deleteOnExit();
+        Files.write(file.toPath(), moml.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Unloads the model.
+     */
+    @TearDown(Level.Trial)
+    public void unloadModel() {
+        resource.unload();
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Accessors
+
+    /**
+     * @return the loaded model.
+     */
+    public DocumentRoot getDocumentRoot() {
+        return documentRoot;
+    }
+
+    /**
+     * @return the synthesis instance model elements are associated through.
+     */
+    public PtolemyDiagramSynthesis getSynthesis() {
+        return synthesis;
+    }
+
+    /**
+     * Creates a fresh, injected instance of the given class.
+     *
+     * @param <T> the type of the instance.
+     * @param clazz the class to instantiate.
+     * @return the new instance.
+     */
+    public <T> T create(final Class<T> clazz) {
+        return injector.getInstance(clazz);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Synthesis Phases
+
+    /**
+     * Runs the transformation phase.
+     *
+     * @param options the synthesis options to use.
+     * @return the transformed graph.
+     */
+    public KNode transform(final Options options) {
+        return create(Ptolemy2KGraphTransformation.class).transform(
+                documentRoot, synthesis, options);
+    }
+
+    /**
+     * Runs the transformation and optimization phases.
+     *
+     * @param options the synthesis options to use.
+     * @return the optimized graph.
+     */
+    public KNode optimize(final Options options) {
+        final KNode graph = transform(options);
+        create(Ptolemy2KGraphOptimization.class).optimize(graph, options,
+                options.comments != LabelDisplayStyle.NONE
+                    ? create(CommentsExtractor.class)
+                    : null,
+                synthesis);
+        return graph;
+    }
+
+    /**
+     * Runs the transformation, optimization and visualization phases.
+     *
+     * @param options the synthesis options to use.
+     * @return the visualized graph.
+     */
+    public KNode visualize(final Options options) {
+        final KNode graph = optimize(options);
+        create(Ptolemy2KGraphVisualization.class).visualize(graph, options);
+        return graph;
+    }
+
+}
@@ -0,0 +1,399 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import java.util.Locale;
+
+/**
+ * Generates synthetic Ptolemy models of a given size. The generated models are deterministic and
+ * exercise the interesting parts of the synthesis: hierarchy, relations with large fan-out, actors
+ * available in our Ptolemy library, actors that are not available (and thus have ports of unknown
+ * direction), directors, parameters and comments.
+ *
+ * <p>Actors are grouped into composite actors of {@link #GROUP_SIZE} actors each. Inside each
+ * group, a ramp feeds a chain of scales, adders and opaque actors, and a fan-out relation connects
+ * the ramp to every adder. The groups are chained together at the top level through their
+ * ports.</p>
+ *
+ * @author cds
+ */
+public final class MomlModelGenerator {
+
+    /** Number of actors in each composite actor. */
+    public static final int GROUP_SIZE = 25;
+    /** Class of actors that are not part of our Ptolemy library. */
+    private static final String OPAQUE_ACTOR_CLASS =
+            "org.example.ptolemy.OpaqueActor"; //$NON-NLS-1$
+    /** Horizontal distance between generated actors. */
+    private static final int SPACING = 100;
+
+
+    /**
+     * This class is not meant to be instantiated.
+     */
+    private MomlModelGenerator() {
+
+    }
+
+
+    /**
+     * Generates a model with (roughly) the given number of atomic actors.
+     *
+     * @param actors the number of atomic actors to generate. At least two actors are generated.
+     * @return the model's MoML text.
+     */
+    public static String generate(final int actors) {
+        final int groups = Math.max(1, (actors + GROUP_SIZE - 1) / GROUP_SIZE);
+        final StringBuilder moml = new StringBuilder(actors * 600);
+
+        moml.append("<?xml version=\"1.0\" standalone=\"no\"?>\n");
+        moml.append("<entity name=\"Generated").append(actors)
+            .append("\" class=\"ptolemy.actor.TypedCompositeActor\">\n");
+        appendDirector(moml, "    ");
+        appendParameter(moml, "    ", "iterations", "100", 0);
+        appendParameter(moml, "    ", "stepSize", "0.5", 1);
+        appendComment(moml, "    ", "Generated benchmark model with " + actors + " actors.", 0);
+
+        int remaining = actors;
+        for (int group = 0; group < groups; group++) {
+            final int size = Math.max(2, Math.min(GROUP_SIZE, remaining));
+            remaining -= size;
+            appendGroup(moml, group, size);
+        }
+
+        // Chain the groups together
+        final StringBuilder links = new StringBuilder();
+        for (int group = 0; group + 1 < groups; group++) {
+            final String relation = "chain" + group;
+            appendRelation(moml, "    ", relation);
+            appendLink(links, "    ", "Group" + group + ".out", relation);
+            appendLink(links, "    ", "Group" + (group + 1) + ".in", relation);
+        }
+        moml.append(links);
+
+        moml.append("</entity>\n");
+        return moml.toString();
+    }
+
+    /**
+     * Generates a model with (roughly) the given number of atomic actors whose port directions are
+     * mostly unknown. All actors are opaque, none of their ports are named like input or output
+     * ports, and they are connected through relations that link three ports each. Only the ramp
+     * that feeds the first group has ports of known direction, so most edge directions can only be
+     * inferred by fixing them more or less at random, one after another.
+     *
+     * @param actors the number of atomic actors to generate. At least two actors are generated.
+     * @return the model's MoML text.
+     */
+    public static String generateUnderAnnotated(final int actors) {
+        final int groups = Math.max(1, (actors + GROUP_SIZE - 1) / GROUP_SIZE);
+        final StringBuilder moml = new StringBuilder(actors * 600);
+
+        moml.append("<?xml version=\"1.0\" standalone=\"no\"?>\n");
+        moml.append("<entity name=\"UnderAnnotated").append(actors)
+            .append("\" class=\"ptolemy.actor.TypedCompositeActor\">\n");
+        appendDirector(moml, "    ");
+        appendActor(moml, "    ", "Ramp", "ptolemy.actor.lib.Ramp", 0);
+
+        int remaining = actors;
+        for (int group = 0; group < groups; group++) {
+            final int size = Math.max(2, Math.min(GROUP_SIZE, remaining));
+            remaining -= size;
+            appendUnderAnnotatedGroup(moml, group, size);
+        }
+
+        // The ramp feeds the first group, the groups are chained together
+        final StringBuilder links = new StringBuilder();
+        appendRelation(moml, "    ", "feed");
+        appendLink(links, "    ", "Ramp.output", "feed");
+        appendLink(links, "    ", "Group0.p", "feed");
+        for (int group = 0; group + 1 < groups; group++) {
+            final String relation = "chain" + group;
+            appendRelation(moml, "    ", relation);
+            appendLink(links, "    ", "Group" + group + ".q", relation);
+            appendLink(links, "    ", "Group" + (group + 1) + ".p", relation);
+        }
+        moml.append(links);
+
+        moml.append("</entity>\n");
+        return moml.toString();
+    }
+
+    /**
+     * Appends a composite actor with the given number of opaque actors whose ports are linked
+     * through relations of unknown direction.
+     *
+     * @param moml the builder to append to.
+     * @param group index of the group.
+     * @param size number of atomic actors in the group.
+     */
+    private static void appendUnderAnnotatedGroup(final StringBuilder moml, final int group,
+            final int size) {
+
+        final String indent = "        ";
+
+        moml.append("    <entity name=\"Group").append(group)
+            .append("\" class=\"ptolemy.actor.TypedCompositeActor\">\n");
+        appendLocation(moml, indent, group, 1);
+        appendPort(moml, indent, "p");
+        appendPort(moml, indent, "q");
+
+        final StringBuilder relations = new StringBuilder();
+        final StringBuilder links = new StringBuilder();
+
+        for (int i = 0; i < size; i++) {
+            appendActor(moml, indent, "Opaque" + i, OPAQUE_ACTOR_CLASS, i);
+        }
+
+        // The group's ports connect to the first and last actors
+        appendRelation(relations, indent, "first");
+        appendLink(links, indent, "p", "first");
+        appendLink(links, indent, "Opaque0.a", "first");
+        appendRelation(relations, indent, "last");
+        appendLink(links, indent, "Opaque" + (size - 1) + ".b", "last");
+        appendLink(links, indent, "q", "last");
+
+        // Each relation links an actor to its two successors
+        for (int i = 0; i + 1 < size; i++) {
+            final String relation = "r" + i;
+            appendRelation(relations, indent, relation);
+            appendLink(links, indent, "Opaque" + i + ".b", relation);
+            appendLink(links, indent, "Opaque" + (i + 1) + ".a", relation);
+            if (i + 2 < size) {
+                appendLink(links, indent, "Opaque" + (i + 2) + ".c", relation);
+            }
+        }
+
+        moml.append(relations).append(links);
+        moml.append("    </entity>\n");
+    }
+
+    /**
+     * Appends a composite actor with the given number of atomic actors.
+     *
+     * @param moml the builder to append to.
+     * @param group index of the group.
+     * @param size number of atomic actors in the group.
+     */
+    private static void appendGroup(final StringBuilder moml, final int group, final int size) {
+        final String indent = "        ";
+
+        moml.append("    <entity name=\"Group").append(group)
+            .append("\" class=\"ptolemy.actor.TypedCompositeActor\">\n");
+        appendLocation(moml, indent, group, 1);
+        appendDirector(moml, indent);
+        appendParameter(moml, indent, "gain", Integer.toString(group + 1), 0);
+        appendComment(moml, indent, "Group " + group + " scales and adds a ramp.", 1);
+        moml.append(indent).append("<port name=\"in\" class=\"ptolemy.actor.TypedIOPort\">\n")
+            .append(indent).append("    <property name=\"input\"/>\n")
+            .append(indent).append("</port>\n");
+        moml.append(indent).append("<port name=\"out\" class=\"ptolemy.actor.TypedIOPort\">\n")
+            .append(indent).append("    <property name=\"output\"/>\n")
+            .append(indent).append("</port>\n");
+
+        // Like Ptolemy, we write entities first, then relations, then links
+        final StringBuilder relations = new StringBuilder();
+        final StringBuilder links = new StringBuilder();
+
+        // The ramp starts the chain, the display ends it
+        appendActor(moml, indent, "Ramp", "ptolemy.actor.lib.Ramp", 0);
+        appendRelation(relations, indent, "trigger");
+        appendLink(links, indent, "in", "trigger");
+        appendLink(links, indent, "Ramp.trigger", "trigger");
+        appendRelation(relations, indent, "fanOut");
+        appendLink(links, indent, "Ramp.output", "fanOut");
+
+        String previousOutput = null;
+        String previousRelation = "fanOut";
+        for (int i = 1; i < size - 1; i++) {
+            final String name;
+            final String input;
+            final String output;
+            switch (i % 3) {
+            case 0:
+                name = "Add" + i;
+                appendActor(moml, indent, name, "ptolemy.actor.lib.AddSubtract", i);
+                input = name + ".plus";
+                output = name + ".output";
+                // Every adder also subtracts the ramp, making the fan-out relation wide
+                appendLink(links, indent, name + ".minus", "fanOut");
+                break;
+            case 1:
+                name = "Scale" + i;
+                appendActor(moml, indent, name, "ptolemy.actor.lib.Scale", i);
+                input = name + ".input";
+                output = name + ".output";
+                break;
+            default:
+                // Opaque actors can't be instantiated, so their port directions must be inferred
+                name = "Opaque" + i;
+                appendActor(moml, indent, name, OPAQUE_ACTOR_CLASS, i);
+                input = name + ".a";
+                output = name + ".b";
+                break;
+            }
+
+            if (previousOutput != null) {
+                previousRelation = "r" + i;
+                appendRelation(relations, indent, previousRelation);
+                appendLink(links, indent, previousOutput, previousRelation);
+            }
+            appendLink(links, indent, input, previousRelation);
+            previousOutput = output;
+        }
+
+        // The last actor's output goes both to a display and out of the group
+        appendActor(moml, indent, "Display", "ptolemy.actor.lib.gui.Display", size - 1);
+        appendRelation(relations, indent, "result");
+        appendLink(links, indent,
+                previousOutput == null ? "Ramp.output" : previousOutput, "result");
+        appendLink(links, indent, "Display.input", "result");
+        appendLink(links, indent, "out", "result");
+
+        moml.append(relations).append(links);
+        moml.append("    </entity>\n");
+    }
+
+    /**
+     * Appends an SDF director.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     */
+    private static void appendDirector(final StringBuilder moml, final String indent) {
+        moml.append(indent).append(
+            "<property name=\"SDF Director\" class=\"ptolemy.domains.sdf.kernel.SDFDirector\">\n");
+        appendLocation(moml, indent + "    ", 0, 0);
+        moml.append(indent).append("</property>\n");
+    }
+
+    /**
+     * Appends a parameter.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param name the parameter's name.
+     * @param value the parameter's value.
+     * @param row the row used to compute the parameter's location.
+     */
+    private static void appendParameter(final StringBuilder moml, final String indent,
+            final String name, final String value, final int row) {
+
+        moml.append(indent).append("<property name=\"").append(name)
+            .append("\" class=\"ptolemy.data.expr.Parameter\" value=\"").append(value)
+            .append("\">\n");
+        appendLocation(moml, indent + "    ", 2, row);
+        moml.append(indent).append("</property>\n");
+    }
+
+    /**
+     * Appends a comment.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param text the comment's text.
+     * @param column the column used to compute the comment's location.
+     */
+    private static void appendComment(final StringBuilder moml, final String indent,
+            final String text, final int column) {
+
+        moml.append(indent).append("<property name=\"Annotation").append(column)
+            .append("\" class=\"ptolemy.vergil.kernel.attributes.TextAttribute\">\n");
+        moml.append(indent).append("    <property name=\"text\" ")
+            .append("class=\"ptolemy.kernel.util.StringAttribute\" value=\"").append(text)
+            .append("\"/>\n");
+        appendLocation(moml, indent + "    ", column, 3);
+        moml.append(indent).append("</property>\n");
+    }
+
+    /**
+     * Appends an atomic actor.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param name the actor's name.
+     * @param className the actor's class.
+     * @param column the column used to compute the actor's location.
+     */
+    private static void appendActor(final StringBuilder moml, final String indent,
+            final String name, final String className, final int column) {
+
+        moml.append(indent).append("<entity name=\"").append(name).append("\" class=\"")
+            .append(className).append("\">\n");
+        appendLocation(moml, indent + "    ", column, 2);
+        moml.append(indent).append("</entity>\n");
+    }
+
+    /**
+     * Appends a port without any information on its direction.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param name the port's name.
+     */
+    private static void appendPort(final StringBuilder moml, final String indent,
+            final String name) {
+
+        moml.append(indent).append("<port name=\"").append(name)
+            .append("\" class=\"ptolemy.actor.TypedIOPort\"/>\n");
+    }
+
+    /**
+     * Appends a relation.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param name the relation's name.
+     */
+    private static void appendRelation(final StringBuilder moml, final String indent,
+            final String name) {
+
+        moml.append(indent).append("<relation name=\"").append(name)
+            .append("\" class=\"ptolemy.actor.TypedIORelation\"/>\n");
+    }
+
+    /**
+     * Appends a link between a port and a relation.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param port the port's name, qualified with its actor's name unless it is a port of the
+     *             containing composite actor.
+     * @param relation the relation's name.
+     */
+    private static void appendLink(final StringBuilder moml, final String indent,
+            final String port, final String relation) {
+
+        moml.append(indent).append("<link port=\"").append(port).append("\" relation=\"")
+            .append(relation).append("\"/>\n");
+    }
+
+    /**
+     * Appends a location property.
+     *
+     * @param moml the builder to append to.
+     * @param indent the indentation.
+     * @param column the column.
+     * @param row the row.
+     */
+    private static void appendLocation(final StringBuilder moml, final String indent,
+            final int column, final int row) {
+
+        moml.append(indent).append(String.format(Locale.ENGLISH,
+            "<property name=\"_location\" class=\"ptolemy.kernel.util.Location\" "
+                + "value=\"[%.1f, %.1f]\"/>\n",
+            (double) (column * SPACING), (double) (row * SPACING)));
+    }
+
+}
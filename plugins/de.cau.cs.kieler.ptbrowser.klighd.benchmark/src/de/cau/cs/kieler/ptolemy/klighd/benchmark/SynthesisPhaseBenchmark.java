@@ -0,0 +1,264 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.ptolemy.klighd.LabelDisplayStyle;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphOptimization;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphVisualization;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsAttachor;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsExtractor;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.HyperedgeGatherer;
+
+/**
+ * Benchmarks each phase of the Ptolemy diagram synthesis in isolation. The input of each phase is
+ * produced by running all previous phases during an invocation-level setup, which is not measured.
+ * Run with {@code -prof gc} to obtain allocation rates.
+ *
+ * @author cds
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(0)
+public class SynthesisPhaseBenchmark {
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Transformation
+
+    /**
+     * Benchmarks the transformation of the Ptolemy model into a KGraph.
+     *
+     * @param model the model state.
+     * @return the transformed graph.
+     */
+    @Benchmark
+    public KNode transform(final ModelState model) {
+        return model.transform(new Options());
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Optimization
+
+    /**
+     * Input for the optimization benchmark: a freshly transformed graph.
+     */
+    @State(Scope.Thread)
+    public static class OptimizationInput {
+        /** Whether to optimize the contents of composite actors in parallel. */
+        @Param({ "false", "true" })
+        public boolean parallel;
+
+        /** The options to use. */
+        private Options options;
+        /** The graph to optimize. */
+        private KNode graph;
+        /** The optimization instance. */
+        private Ptolemy2KGraphOptimization optimization;
+        /** The comments extractor instance. */
+        private CommentsExtractor commentsExtractor;
+
+        /**
+         * Prepares the input.
+         *
+         * @param model the model state.
+         */
+        @Setup(Level.Invocation)
+        public void prepare(final ModelState model) {
+            options = new Options();
+            graph = model.transform(options);
+            options.parallelTransformation = parallel;
+            optimization = model.create(Ptolemy2KGraphOptimization.class);
+            commentsExtractor = options.comments != LabelDisplayStyle.NONE
+                    ? model.create(CommentsExtractor.class)
+                    : null;
+        }
+    }
+
+    /**
+     * Benchmarks the optimization of a transformed graph.
+     *
+     * @param model the model state.
+     * @param input the transformed graph.
+     * @return the comment nodes created during the optimization.
+     */
+    @Benchmark
+    public Multimap<KNode, KNode> optimize(final ModelState model, final OptimizationInput input) {
+        return input.optimization.optimize(input.graph, input.options, input.commentsExtractor,
+                model.getSynthesis());
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Visualization
+
+    /**
+     * Input for the visualization benchmark: a freshly optimized graph.
+     */
+    @State(Scope.Thread)
+    public static class VisualizationInput {
+        /** The options to use. */
+        private Options options;
+        /** The graph to visualize. */
+        private KNode graph;
+        /** The visualization instance. */
+        private Ptolemy2KGraphVisualization visualization;
+
+        /**
+         * Prepares the input.
+         *
+         * @param model the model state.
+         */
+        @Setup(Level.Invocation)
+        public void prepare(final ModelState model) {
+            options = new Options();
+            graph = model.optimize(options);
+            visualization = model.create(Ptolemy2KGraphVisualization.class);
+        }
+    }
+
+    /**
+     * Benchmarks the visualization of an optimized graph.
+     *
+     * @param input the optimized graph.
+     * @return the visualized graph.
+     */
+    @Benchmark
+    public KNode visualize(final VisualizationInput input) {
+        input.visualization.visualize(input.graph, input.options);
+        return input.graph;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Comment Attachment
+
+    /**
+     * Input for the comment attachment benchmark: a freshly visualized graph.
+     */
+    @State(Scope.Thread)
+    public static class AttachmentInput {
+        /** The graph whose comments to attach. */
+        private KNode graph;
+        /** The comments attachor instance. */
+        private CommentsAttachor commentsAttachor;
+
+        /**
+         * Prepares the input.
+         *
+         * @param model the model state.
+         */
+        @Setup(Level.Invocation)
+        public void prepare(final ModelState model) {
+            graph = model.visualize(new Options());
+            commentsAttachor = model.create(CommentsAttachor.class);
+        }
+    }
+
+    /**
+     * Benchmarks attaching comments to the nodes they describe.
+     *
+     * @param input the visualized graph.
+     * @return the graph.
+     */
+    @Benchmark
+    public KNode attachComments(final AttachmentInput input) {
+        input.commentsAttachor.attachComments(input.graph);
+        return input.graph;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Hyperedge Gathering
+
+    /**
+     * Input for the hyperedge gathering benchmark: the compound nodes of a graph whose edge
+     * directions have been inferred, but whose relations with more than one incoming or outgoing
+     * edge have not been removed yet.
+     */
+    @State(Scope.Thread)
+    public static class HyperedgeInput {
+        /** The compound nodes whose hyperedges to gather. */
+        private final List<KNode> compoundNodes = Lists.newArrayList();
+
+        /**
+         * Prepares the input.
+         *
+         * @param model the model state.
+         */
+        @Setup(Level.Trial)
+        public void prepare(final ModelState model) {
+            final Options options = new Options();
+            options.relations = true;
+
+            compoundNodes.clear();
+            collectCompoundNodes(model.optimize(options), compoundNodes);
+        }
+
+        /**
+         * Collects the given node and all of its descendants that have children.
+         *
+         * @param node the node to start at.
+         * @param result list the compound nodes are added to.
+         */
+        private static void collectCompoundNodes(final KNode node, final List<KNode> result) {
+            if (!node.getChildren().isEmpty()) {
+                result.add(node);
+                for (KNode child : node.getChildren()) {
+                    collectCompoundNodes(child, result);
+                }
+            }
+        }
+    }
+
+    /**
+     * Benchmarks gathering hyperedges in all compound nodes. The gatherer does not modify the
+     * graph, so the input can be shared across invocations.
+     *
+     * @param input the compound nodes.
+     * @param blackhole consumes the gathered hyperedges.
+     */
+    @Benchmark
+    public void gatherHyperedges(final HyperedgeInput input, final Blackhole blackhole) {
+        for (KNode compoundNode : input.compoundNodes) {
+            final HyperedgeGatherer gatherer = new HyperedgeGatherer(compoundNode);
+            gatherer.gatherHyperedges();
+            blackhole.consume(gatherer.getHyperedges());
+        }
+    }
+
+}
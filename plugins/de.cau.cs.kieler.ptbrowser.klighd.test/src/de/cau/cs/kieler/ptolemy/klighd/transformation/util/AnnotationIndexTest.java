@@ -0,0 +1,101 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.ptolemy.moml.EntityType;
+import org.ptolemy.moml.MomlFactory;
+import org.ptolemy.moml.PropertyType;
+
+/**
+ * Checks that indexed annotation lookups find the same annotations a linear search would, even if
+ * annotations are renamed after the index has been built.
+ *
+ * @author cds
+ */
+public class AnnotationIndexTest {
+
+    /** Number of annotations in each list; enough for the lists to be indexed. */
+    private static final int SIZE = 2 * AnnotationList.INDEX_THRESHOLD;
+
+
+    /**
+     * An annotation renamed to the name being looked up is found in an {@link AnnotationList}.
+     */
+    @Test
+    public void annotationListFindsAnnotationRenamedToKey() {
+        final AnnotationList annotations = new AnnotationList();
+        fill(annotations);
+
+        final PropertyType renamed = annotations.get(SIZE / 2);
+        assertNull(annotations.findByName("renamed")); //$NON-NLS-1$
+
+        renamed.setName("renamed"); //$NON-NLS-1$
+        assertSame(renamed, annotations.findByName("renamed")); //$NON-NLS-1$
+    }
+
+    /**
+     * An annotation renamed away from the name being looked up is no longer found in an
+     * {@link AnnotationList}.
+     */
+    @Test
+    public void annotationListForgetsOldKeyOfRenamedAnnotation() {
+        final AnnotationList annotations = new AnnotationList();
+        fill(annotations);
+
+        final PropertyType renamed = annotations.get(SIZE / 2);
+        final String oldName = renamed.getName();
+        assertSame(renamed, annotations.findByName(oldName));
+
+        renamed.setName("renamed"); //$NON-NLS-1$
+        assertNull(annotations.findByName(oldName));
+    }
+
+    /**
+     * An annotation renamed to the name being looked up is found in a list owned by the Ptolemy
+     * model, which is indexed through an {@link AnnotationIndexAdapter}.
+     */
+    @Test
+    public void indexAdapterFindsAnnotationRenamedToKey() {
+        final EntityType owner = MomlFactory.eINSTANCE.createEntityType();
+        fill(owner.getProperty());
+
+        final PropertyType renamed = owner.getProperty().get(SIZE / 2);
+        assertNull(AnnotationIndexAdapter.find(
+                owner, owner.getProperty(), "renamed")); //$NON-NLS-1$
+
+        renamed.setName("renamed"); //$NON-NLS-1$
+        assertSame(renamed, AnnotationIndexAdapter.find(
+                owner, owner.getProperty(), "renamed")); //$NON-NLS-1$
+    }
+
+    /**
+     * Adds annotations with distinct names to the given list.
+     *
+     * @param annotations the list to fill.
+     */
+    private static void fill(final List<PropertyType> annotations) {
+        for (int i = 0; i < SIZE; i++) {
+            final PropertyType annotation = MomlFactory.eINSTANCE.createPropertyType();
+            annotation.setName("annotation" + i); //$NON-NLS-1$
+            annotations.add(annotation);
+        }
+    }
+
+}
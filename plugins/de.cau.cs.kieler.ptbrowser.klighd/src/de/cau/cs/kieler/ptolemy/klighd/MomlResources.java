@@ -0,0 +1,130 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd;
+
+import java.util.Collections;
+import java.util.Map;
+
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.ResourceSet;
+import org.eclipse.emf.ecore.resource.impl.ResourceSetImpl;
+import org.eclipse.emf.ecore.xmi.XMIResource;
+import org.eclipse.emf.ecore.xmi.XMLResource;
+import org.ptolemy.moml.util.MomlResourceFactoryImpl;
+
+import com.google.common.collect.Maps;
+
+/**
+ * Configures EMF resource sets for loading Ptolemy models. Used by the editor as well as by headless
+ * clients such as the batch exporter, which must not depend on any UI classes.
+ *
+ * @author cds
+ */
+public final class MomlResources {
+
+    /**
+     * System property that, if set to {@code true}, makes resource sets configured through
+     * {@link #configureResourceSet(ResourceSet)} load models through a {@link MomlStreamingResource}.
+     */
+    public static final String STREAMING_PROPERTY =
+            "de.cau.cs.kieler.ptolemy.klighd.streamingLoad"; //$NON-NLS-1$
+
+    /**
+     * Map containing a standard list of parser features used for loading EMF resources. These options
+     * avoid searching for DTDs online, which would require an internet connection to load models.
+     */
+    private static final Map<String, Boolean> PARSER_FEATURES;
+
+    static {
+        Map<String, Boolean> parserFeatures = Maps.newHashMap();
+        parserFeatures.put(
+                "http://xml.org/sax/features/validation", //$NON-NLS-1$
+                Boolean.FALSE);
+        parserFeatures.put(
+                "http://apache.org/xml/features/nonvalidating/load-dtd-grammar", //$NON-NLS-1$
+                Boolean.FALSE);
+        parserFeatures.put(
+                "http://apache.org/xml/features/nonvalidating/load-external-dtd", //$NON-NLS-1$
+                Boolean.FALSE);
+        PARSER_FEATURES = Collections.unmodifiableMap(parserFeatures);
+    }
+
+
+    /**
+     * This class is not meant to be instantiated.
+     */
+    private MomlResources() {
+
+    }
+
+
+    /**
+     * Configures the given resource set to be able to load Ptolemy models from {@code .xml} and
+     * {@code .moml} files without requiring an internet connection. Models are loaded through a
+     * {@link MomlStreamingResource} if the {@link #STREAMING_PROPERTY} system property is set.
+     *
+     * @param set the resource set to configure.
+     */
+    public static void configureResourceSet(final ResourceSet set) {
+        configureResourceSet(set, Boolean.getBoolean(STREAMING_PROPERTY));
+    }
+
+    /**
+     * Configures the given resource set to be able to load Ptolemy models from {@code .xml} and
+     * {@code .moml} files without requiring an internet connection.
+     *
+     * @param set the resource set to configure.
+     * @param streaming {@code true} if models should be loaded through a
+     *                  {@link MomlStreamingResource}, which requires less memory but drops any
+     *                  content the diagram synthesis does not need.
+     */
+    public static void configureResourceSet(final ResourceSet set, final boolean streaming) {
+        set.getLoadOptions().put(XMIResource.OPTION_RECORD_UNKNOWN_FEATURE, true);
+        set.getLoadOptions().put(XMLResource.OPTION_PARSER_FEATURES, PARSER_FEATURES);
+
+        Resource.Factory factory = streaming
+                ? new MomlStreamingResource.Factory()
+                : new MomlResourceFactoryImpl();
+        Map<String, Object> extensionToFactoryMap =
+                set.getResourceFactoryRegistry().getExtensionToFactoryMap();
+        extensionToFactoryMap.put("xml", factory); //$NON-NLS-1$
+        extensionToFactoryMap.put("moml", factory); //$NON-NLS-1$
+    }
+
+    /**
+     * Creates a new resource set configured through {@link #configureResourceSet(ResourceSet)}.
+     *
+     * @return the new resource set.
+     */
+    public static ResourceSet createResourceSet() {
+        ResourceSet set = new ResourceSetImpl();
+        configureResourceSet(set);
+        return set;
+    }
+
+    /**
+     * Creates a new resource set configured through
+     * {@link #configureResourceSet(ResourceSet, boolean)}.
+     *
+     * @param streaming {@code true} if models should be loaded through a
+     *                  {@link MomlStreamingResource}.
+     * @return the new resource set.
+     */
+    public static ResourceSet createResourceSet(final boolean streaming) {
+        ResourceSet set = new ResourceSetImpl();
+        configureResourceSet(set, streaming);
+        return set;
+    }
+
+}
@@ -0,0 +1,383 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EAttribute;
+import org.eclipse.emf.ecore.EClass;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.EReference;
+import org.eclipse.emf.ecore.EStructuralFeature;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.eclipse.emf.ecore.resource.impl.ResourceFactoryImpl;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.util.ExtendedMetaData;
+import org.eclipse.emf.ecore.util.FeatureMap;
+import org.eclipse.emf.ecore.util.FeatureMapUtil;
+import org.eclipse.emf.ecore.xmi.impl.XMLResourceImpl;
+import org.eclipse.emf.ecore.xml.type.AnyType;
+import org.eclipse.emf.ecore.xml.type.XMLTypeFactory;
+import org.ptolemy.moml.MomlPackage;
+import org.ptolemy.moml.PropertyType;
+
+/**
+ * Resource that loads Ptolemy models with a streaming XML parser instead of EMF's generic XML
+ * handler. Elements and attributes are mapped to the MoML model through its extended meta data, just
+ * as EMF does it, but content the MoML model does not know about is dropped right away instead of
+ * being recorded. The only exception is the SVG graphic of attributes that are displayed as comments,
+ * which is recorded the same way EMF would record it since the comment extraction needs it.
+ *
+ * <p>Unknown content mostly consists of actor icons and other {@code configure} blocks, which can
+ * make up most of a large model file. Whitespace between the elements of mixed content is dropped as
+ * well. Saving a resource of this kind would thus lose all of that content.</p>
+ *
+ * @author cds
+ * @see MomlResources#configureResourceSet(org.eclipse.emf.ecore.resource.ResourceSet, boolean)
+ */
+public class MomlStreamingResource extends XMLResourceImpl {
+
+    /** Name of the element whose unknown content is recorded for comments. */
+    private static final String CONFIGURE_ELEMENT = "configure"; //$NON-NLS-1$
+    /** Name of the property whose {@code configure} element may contain a comment's text. */
+    private static final String ICON_DESCRIPTION = "_iconDescription"; //$NON-NLS-1$
+
+    /** The meta data used to map XML to the MoML model. */
+    private final ExtendedMetaData metaData = ExtendedMetaData.INSTANCE;
+
+
+    /**
+     * Creates a new resource with the given URI.
+     *
+     * @param uri the resource's URI.
+     */
+    public MomlStreamingResource(final URI uri) {
+        super(uri);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Loading
+
+    @Override
+    protected void doLoad(final InputStream inputStream, final Map<?, ?> options)
+            throws IOException {
+
+        // Never try to load the MoML DTD, which would require an internet connection
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+
+        XMLStreamReader reader = null;
+        try {
+            reader = factory.createXMLStreamReader(inputStream);
+            getContents().add(readDocument(reader));
+        } catch (XMLStreamException e) {
+            throw new Resource.IOWrappedException(e);
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (XMLStreamException e) {
+                    // The stream itself is closed by our caller
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the whole document.
+     *
+     * @param reader the reader to read from.
+     * @return the document root.
+     * @throws XMLStreamException if the document cannot be read.
+     */
+    private EObject readDocument(final XMLStreamReader reader) throws XMLStreamException {
+        final EObject documentRoot =
+                EcoreUtil.create(metaData.getDocumentRoot(MomlPackage.eINSTANCE));
+
+        // The objects the elements currently open were turned into
+        final Deque<EObject> openObjects = new ArrayDeque<EObject>();
+        openObjects.push(documentRoot);
+
+        // Number of elements currently open inside an element that is being skipped
+        int skippedDepth = 0;
+
+        while (reader.hasNext()) {
+            switch (reader.next()) {
+            case XMLStreamConstants.START_ELEMENT:
+                if (skippedDepth > 0) {
+                    skippedDepth++;
+                } else {
+                    final EObject child = startElement(reader, openObjects.peek());
+                    if (child != null) {
+                        openObjects.push(child);
+                    } else if (reader.isStartElement()) {
+                        skippedDepth = 1;
+                    }
+                }
+                break;
+
+            case XMLStreamConstants.END_ELEMENT:
+                if (skippedDepth > 0) {
+                    skippedDepth--;
+                } else {
+                    openObjects.pop();
+                }
+                break;
+
+            case XMLStreamConstants.CHARACTERS:
+            case XMLStreamConstants.CDATA:
+                if (skippedDepth == 0) {
+                    addText(openObjects.peek(), reader.getText());
+                }
+                break;
+
+            default:
+                // Comments, processing instructions and the like are of no interest
+            }
+        }
+
+        return documentRoot;
+    }
+
+    /**
+     * Turns the element the reader is positioned at into a child of the given object. If the element
+     * maps to an attribute of the object, its text is read and the reader is positioned at the
+     * element's end.
+     *
+     * @param reader the reader, positioned at the start of an element.
+     * @param parent the object the element is a child of.
+     * @return the object the element was turned into, or {@code null} if the element is to be
+     *         skipped or if it has already been read completely.
+     * @throws XMLStreamException if the element's text cannot be read.
+     */
+    private EObject startElement(final XMLStreamReader reader, final EObject parent)
+            throws XMLStreamException {
+
+        final String namespace = emptyToNull(reader.getNamespaceURI());
+        final String name = reader.getLocalName();
+
+        // Content of unknown elements is recorded as unknown elements itself
+        if (parent instanceof AnyType) {
+            return startUnknownElement(reader, ((AnyType) parent).getAny(), namespace, name);
+        }
+
+        final EStructuralFeature feature = findElement(parent.eClass(), namespace, name);
+        if (feature instanceof EReference && ((EReference) feature).isContainment()) {
+            final EObject child = EcoreUtil.create(((EReference) feature).getEReferenceType());
+            addValue(parent, feature, child);
+            readAttributes(reader, child);
+            return child;
+
+        } else if (feature instanceof EAttribute) {
+            final EAttribute attribute = (EAttribute) feature;
+            addValue(parent, attribute, EcoreUtil.createFromString(
+                    attribute.getEAttributeType(), reader.getElementText()));
+            return null;
+
+        } else if (isCommentConfiguration(parent)) {
+            return startUnknownElement(reader, getExtension(parent).getAny(), namespace, name);
+
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Records the element the reader is positioned at as an unknown element, the same way EMF
+     * records it.
+     *
+     * @param reader the reader, positioned at the start of an element.
+     * @param container the feature map to add the element to.
+     * @param namespace the element's namespace.
+     * @param name the element's name.
+     * @return the object that represents the unknown element.
+     */
+    private AnyType startUnknownElement(final XMLStreamReader reader, final FeatureMap container,
+            final String namespace, final String name) {
+
+        final AnyType element = XMLTypeFactory.eINSTANCE.createAnyType();
+        container.add(metaData.demandFeature(namespace, name, true), element);
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            element.getAnyAttribute().add(
+                    metaData.demandFeature(emptyToNull(reader.getAttributeNamespace(i)),
+                            reader.getAttributeLocalName(i), false),
+                    reader.getAttributeValue(i));
+        }
+
+        return element;
+    }
+
+    /**
+     * Sets the attributes of the given object from the attributes of the element the reader is
+     * positioned at. Attributes the MoML model does not know about are dropped.
+     *
+     * @param reader the reader, positioned at the start of an element.
+     * @param object the object the element was turned into.
+     */
+    private void readAttributes(final XMLStreamReader reader, final EObject object) {
+        final EClass eClass = object.eClass();
+
+        for (int i = 0; i < reader.getAttributeCount(); i++) {
+            final EStructuralFeature feature = metaData.getAttribute(eClass,
+                    emptyToNull(reader.getAttributeNamespace(i)), reader.getAttributeLocalName(i));
+
+            if (feature instanceof EAttribute) {
+                final EAttribute attribute = (EAttribute) feature;
+                addValue(object, attribute, EcoreUtil.createFromString(
+                        attribute.getEAttributeType(), reader.getAttributeValue(i)));
+            }
+        }
+    }
+
+    /**
+     * Adds the given text to the given object if it has mixed content. Whitespace is only kept in
+     * unknown content, where it may be part of a comment's text.
+     *
+     * @param object the object the text occurs in.
+     * @param text the text.
+     */
+    private void addText(final EObject object, final String text) {
+        if (object instanceof AnyType) {
+            FeatureMapUtil.addText(((AnyType) object).getMixed(), text);
+
+        } else if (!text.trim().isEmpty()) {
+            final EAttribute mixedFeature = metaData.getMixedFeature(object.eClass());
+            if (mixedFeature != null) {
+                FeatureMapUtil.addText((FeatureMap) object.eGet(mixedFeature), text);
+            }
+        }
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Finds the feature of the given class that elements of the given name map to. Since MoML
+     * files usually do not declare any namespace, elements without a namespace are looked up in
+     * the MoML model's namespace as well.
+     *
+     * @param eClass the class.
+     * @param namespace the element's namespace, if any.
+     * @param name the element's name.
+     * @return the feature or {@code null} if there is none.
+     */
+    private EStructuralFeature findElement(final EClass eClass, final String namespace,
+            final String name) {
+
+        EStructuralFeature feature = metaData.getElement(eClass, namespace, name);
+        if (feature == null && namespace == null) {
+            feature = metaData.getElement(eClass,
+                    metaData.getNamespace(MomlPackage.eINSTANCE), name);
+        }
+        return feature;
+    }
+
+    /**
+     * Sets the given feature of the given object to the given value, or adds the value if the
+     * feature is multi-valued.
+     *
+     * @param object the object.
+     * @param feature the feature.
+     * @param value the value.
+     */
+    @SuppressWarnings("unchecked")
+    private void addValue(final EObject object, final EStructuralFeature feature,
+            final Object value) {
+
+        if (feature.isMany()) {
+            ((List<Object>) object.eGet(feature)).add(value);
+        } else {
+            object.eSet(feature, value);
+        }
+    }
+
+    /**
+     * Checks whether the given object is a {@code configure} element that may contain the text of a
+     * comment. That is the case for the {@code _iconDescription} property of another property.
+     *
+     * @param object the object.
+     * @return {@code true} if unknown content of the object should be recorded.
+     */
+    private boolean isCommentConfiguration(final EObject object) {
+        final EStructuralFeature containingFeature = object.eContainingFeature();
+        if (containingFeature == null
+                || !CONFIGURE_ELEMENT.equals(metaData.getName(containingFeature))) {
+            return false;
+        }
+
+        final EObject iconDescription = object.eContainer();
+        return iconDescription instanceof PropertyType
+                && ICON_DESCRIPTION.equals(((PropertyType) iconDescription).getName())
+                && iconDescription.eContainer() instanceof PropertyType;
+    }
+
+    /**
+     * Returns the object unknown content of the given object is recorded in, creating it if
+     * necessary.
+     *
+     * @param object the object.
+     * @return the object recording its unknown content.
+     */
+    private AnyType getExtension(final EObject object) {
+        AnyType extension = getEObjectToExtensionMap().get(object);
+        if (extension == null) {
+            extension = XMLTypeFactory.eINSTANCE.createAnyType();
+            getEObjectToExtensionMap().put(object, extension);
+        }
+        return extension;
+    }
+
+    /**
+     * Returns {@code null} if the given string is {@code null} or empty, and the string otherwise.
+     *
+     * @param string the string.
+     * @return the string or {@code null}.
+     */
+    private static String emptyToNull(final String string) {
+        return string == null || string.isEmpty() ? null : string;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Factory
+
+    /**
+     * Factory that creates {@link MomlStreamingResource}s.
+     */
+    public static class Factory extends ResourceFactoryImpl {
+
+        @Override
+        public Resource createResource(final URI uri) {
+            return new MomlStreamingResource(uri);
+        }
+
+    }
+
+}
@@ -24,15 +24,21 @@ import de.cau.cs.kieler.klighd.labels.management.TruncatingLabelManager
 import de.cau.cs.kieler.klighd.labels.management.TypeConditionLabelManager
 import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
 import de.cau.cs.kieler.klighd.syntheses.DiagramSyntheses
+import de.cau.cs.kieler.ptolemy.klighd.SynthesisStatistics.Phase
 import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphOptimization
 import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphTransformation
 import de.cau.cs.kieler.ptolemy.klighd.transformation.Ptolemy2KGraphVisualization
 import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsAttachor
 import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsExtractor
+import java.util.List
+import org.eclipse.core.runtime.IStatus
+import org.eclipse.core.runtime.Platform
+import org.eclipse.core.runtime.Status
 import org.eclipse.elk.alg.layered.options.LayeredOptions
 import org.eclipse.elk.alg.layered.options.NodePlacementStrategy
 import org.eclipse.elk.core.labels.LabelManagementOptions
 import org.eclipse.elk.core.options.CoreOptions
+import org.osgi.framework.FrameworkUtil
 import org.ptolemy.moml.DocumentRoot
 
 /**
@@ -88,6 +94,13 @@ public class PtolemyDiagramSynthesis extends AbstractDiagramSynthesis<DocumentRo
     /** Whether hierarchical nodes should initially be collapsed after transformation. */
     public static val SynthesisOption INITIALLY_COLLAPSED = SynthesisOption::createCheckOption(
         "Collapse Composite Actors", true)
+    
+    /**
+     * Whether the contents of collapsed composite actors should only be synthesized once they are first
+     * expanded. Only has an effect if composite actors are initially collapsed and not flattened.
+     */
+    public static val SynthesisOption SYNTHESIZE_ON_EXPANSION = SynthesisOption::createCheckOption(
+        "Synthesize Contents on Expansion", true)
         
     public static val SynthesisOption COMPOUND_NODE_ALPHA = SynthesisOption::createRangeOption(
         "Nested model darkness", 0f, 255f, 30f)
@@ -97,6 +110,41 @@ public class PtolemyDiagramSynthesis extends AbstractDiagramSynthesis<DocumentRo
     public static val SynthesisOption TRANSFORM_STATES = SynthesisOption::createCheckOption(
         "Transform states", true)
     
+    /**
+     * Whether sibling composite actors should be transformed and optimized in parallel. The result is
+     * the same as that of the sequential transformation.
+     */
+    public static val SynthesisOption PARALLEL_TRANSFORMATION = SynthesisOption::createCheckOption(
+        "Transform in Parallel", false)
+    
+    /**
+     * Whether relations with several sources and targets should be replaced by a junction node instead
+     * of an edge from each source to each target when relations are hidden. The same applies to ports
+     * of composite actors that are flattened.
+     */
+    public static val SynthesisOption JOIN_RELATIONS_IN_JUNCTIONS = SynthesisOption::createCheckOption(
+        "Join Wide Relations in Junctions", true)
+    
+    /**
+     * Whether actor icons that have not been loaded yet should be loaded in the background. Until an
+     * icon is available, its actors are rendered with placeholders.
+     */
+    public static val SynthesisOption LOAD_ICONS_IN_BACKGROUND = SynthesisOption::createCheckOption(
+        "Load Icons in Background", true)
+    
+    /**
+     * Whether the graphs of synthesis runs should be cached, so that the diagram can be synthesized
+     * faster once synthesis options change. Graphs are only cached for diagrams displayed in an editor
+     * or a view. Currently the option is not exposed to the user but can be set programmatically,
+     * e.g. to turn caching off for batch export.
+     */
+    public static val SynthesisOption CACHE_GRAPHS = SynthesisOption::createCheckOption(
+        "Cache Graphs", true)
+    
+    /** Whether to log timing and size information about each synthesis run. */
+    public static val SynthesisOption LOG_STATISTICS = SynthesisOption::createCheckOption(
+        "Log Synthesis Statistics", false)
+    
     
     /**
      * Diagram options.
@@ -114,7 +162,14 @@ public class PtolemyDiagramSynthesis extends AbstractDiagramSynthesis<DocumentRo
             SynthesisOption.createSeparator("Hierarchy"),
             FLATTEN,
             INITIALLY_COLLAPSED,
-            COMPOUND_NODE_ALPHA)
+            SYNTHESIZE_ON_EXPANSION,
+            COMPOUND_NODE_ALPHA,
+            SynthesisOption.createSeparator("Performance"),
+            PARALLEL_TRANSFORMATION,
+            JOIN_RELATIONS_IN_JUNCTIONS,
+            LOAD_ICONS_IN_BACKGROUND,
+            SynthesisOption.createSeparator("Diagnostics"),
+            LOG_STATISTICS)
     }
     
     /**
@@ -144,10 +199,20 @@ public class PtolemyDiagramSynthesis extends AbstractDiagramSynthesis<DocumentRo
         
         public var boolean flatten
         public var boolean initiallyCollapsed
+        public var boolean synthesizeOnExpansion
         public var int compoundNodeAlpha
         
         public var boolean transformStates
         
+        public var boolean parallelTransformation
+        public var boolean junctions
+        public var boolean iconsInBackground
+        public var boolean cacheGraphs
+        
+        public var boolean logStatistics
+        /** Collects timing and size information while the synthesis runs. */
+        public val statistics = new SynthesisStatistics()
+        
         new(PtolemyDiagramSynthesis s) {
             relations = s.getBooleanValue(SHOW_RELATIONS)
             directors = s.getBooleanValue(SHOW_DIRECTORS)
@@ -162,9 +227,73 @@ public class PtolemyDiagramSynthesis extends AbstractDiagramSynthesis<DocumentRo
             
             flatten = s.getBooleanValue(FLATTEN)
             initiallyCollapsed = s.getBooleanValue(INITIALLY_COLLAPSED)
+            synthesizeOnExpansion = s.getBooleanValue(SYNTHESIZE_ON_EXPANSION)
             compoundNodeAlpha = s.getIntValue(COMPOUND_NODE_ALPHA)
             
             transformStates = s.getBooleanValue(TRANSFORM_STATES)
+            
+            parallelTransformation = s.getBooleanValue(PARALLEL_TRANSFORMATION)
+            junctions = s.getBooleanValue(JOIN_RELATIONS_IN_JUNCTIONS)
+            iconsInBackground = s.getBooleanValue(LOAD_ICONS_IN_BACKGROUND)
+            cacheGraphs = s.getBooleanValue(CACHE_GRAPHS)
+            
+            logStatistics = s.getBooleanValue(LOG_STATISTICS)
+        }
+        
+        /**
+         * Creates options initialized with each synthesis option's initial value. Useful for running
+         * the synthesis phases outside of a view context, such as in benchmarks. Icons are never
+         * loaded in the background and graphs are never cached, though.
+         */
+        new() {
+            relations = SHOW_RELATIONS.initialValue as Boolean
+            directors = SHOW_DIRECTORS.initialValue as Boolean
+            properties = SHOW_PROPERTIES.initialValue as Boolean
+            portLabels = LabelDisplayStyle.fromDisplayString(SHOW_PORT_LABELS.initialValue.toString())
+            comments = LabelDisplayStyle.fromDisplayString(SHOW_COMMENTS.initialValue.toString())
+            
+            commentsAttach = COMMENT_ATTACHMENT_HEURISTIC.initialValue as Boolean
+            commentsLabelManage = SHOW_COMMENTS.initialValue == SHOW_COMMENTS_SELECTED
+            
+            flatten = FLATTEN.initialValue as Boolean
+            initiallyCollapsed = INITIALLY_COLLAPSED.initialValue as Boolean
+            synthesizeOnExpansion = SYNTHESIZE_ON_EXPANSION.initialValue as Boolean
+            compoundNodeAlpha = (COMPOUND_NODE_ALPHA.initialValue as Number).intValue
+            
+            transformStates = TRANSFORM_STATES.initialValue as Boolean
+            
+            parallelTransformation = PARALLEL_TRANSFORMATION.initialValue as Boolean
+            junctions = JOIN_RELATIONS_IN_JUNCTIONS.initialValue as Boolean
+            // Without a view, there is no diagram to swap icons into once they are loaded
+            iconsInBackground = false
+            cacheGraphs = false
+            
+            logStatistics = LOG_STATISTICS.initialValue as Boolean
+        }
+        
+        /**
+         * Whether the contents of composite actors are only synthesized once they are first expanded.
+         * This requires composite actors to be initially collapsed and not to be flattened.
+         */
+        def boolean isDeferringContents() {
+            return synthesizeOnExpansion && initiallyCollapsed && !flatten
+        }
+        
+        /**
+         * Returns the values of the options the transformation and the inference of edge directions
+         * depend on. Transforming a model with options of equal keys yields equal graphs.
+         */
+        def List<?> getTransformationKey() {
+            return #[transformStates, deferringContents]
+        }
+        
+        /**
+         * Returns the values of the options the transformation and the optimization depend on.
+         * Optimizing a model with options of equal keys yields equal graphs.
+         */
+        def List<?> getOptimizationKey() {
+            return #[transformStates, deferringContents, relations, directors, properties,
+                comments != LabelDisplayStyle.NONE, flatten, junctions]
         }
     }
         
@@ -178,25 +307,80 @@ public class PtolemyDiagramSynthesis extends AbstractDiagramSynthesis<DocumentRo
     @Inject Ptolemy2KGraphVisualization visualization
     @Inject CommentsExtractor commentsExtractor
     @Inject CommentsAttachor commentsAttachor
+    
+    /** Graphs of previous synthesis runs, which spare us most phases if only a few options change. */
+    val cache = SynthesisGraphCache.getInstance()
    
     override transform(DocumentRoot model) {
         // Capture options
         val options = new Options(this)
         val extractComments = options.comments != LabelDisplayStyle.NONE;
+        val statistics = options.statistics
+        
+        // Caching graphs is only worth it if the diagram can be synthesized again
+        val workbenchPart = usedContext?.diagramWorkbenchPart
+        val cacheGraphs = options.cacheGraphs && workbenchPart !== null
+        
+        // Transform and optimize, continuing from the latest cached graph the options allow
+        statistics.startPhase(Phase.TRANSFORMATION)
+        var kgraph = if (cacheGraphs) cache.getOptimizedGraph(model, options, this)
+        if (kgraph !== null) {
+            statistics.recordReusedGraph(Phase.OPTIMIZATION)
+        } else {
+            kgraph = if (cacheGraphs) cache.getTransformedGraph(model, options, this)
+            if (kgraph !== null) {
+                statistics.recordReusedGraph(Phase.TRANSFORMATION)
+            } else {
+                kgraph = transformation.transform(model, this, options)
+                optimization.inferEdgeDirections(kgraph)
+                if (cacheGraphs) {
+                    cache.putTransformedGraph(model, options, this, kgraph)
+                }
+            }
+            
+            statistics.startPhase(Phase.OPTIMIZATION)
+            optimization.optimizeDirected(kgraph, options,
+                if (extractComments) commentsExtractor else null, this)
+            if (cacheGraphs) {
+                cache.putOptimizedGraph(model, options, this, kgraph)
+            }
+        }
+        if (cacheGraphs) {
+            cache.removeWhenClosed(model, workbenchPart)
+        }
+        
+        // Render the icons of all actor classes at once; the visualization then only looks them up
+        statistics.startPhase(Phase.ICON_PREWARMING)
+        visualization.prewarmIcons(kgraph, options)
         
-        // Transform, optimize, and visualize
-        val kgraph = transformation.transform(model, this, options)
-        optimization.optimize(kgraph, options, if (extractComments) commentsExtractor else null, this)
+        // Visualize
+        statistics.startPhase(Phase.VISUALIZATION)
         visualization.visualize(kgraph, options)
         
         // If comments should be shown, we want them to be attached properly. Do that now, because we
         // know the node sizes only after the visualization
         if (options.commentsAttach) {
+            statistics.startPhase(Phase.COMMENT_ATTACHMENT)
             commentsAttachor.attachComments(kgraph)
         }
         
         // Label managers
+        statistics.startPhase(Phase.LABEL_MANAGEMENT)
         setupLabelManagement(kgraph, options);
+        statistics.endPhase()
+        
+        // Icons we have rendered placeholders for can now be loaded and swapped in
+        visualization.loadPlaceholderIcons(usedContext)
+        
+        // Make the statistics available to whoever is interested
+        statistics.countElements(kgraph)
+        kgraph.setProperty(PtolemyProperties.SYNTHESIS_STATISTICS, statistics)
+        if (options.logStatistics) {
+            Platform.getLog(FrameworkUtil.getBundle(PtolemyDiagramSynthesis)).log(new Status(
+                IStatus.INFO,
+                PluginConstants.PLUGIN_ID,
+                statistics.toString()))
+        }
         
         return kgraph
     }
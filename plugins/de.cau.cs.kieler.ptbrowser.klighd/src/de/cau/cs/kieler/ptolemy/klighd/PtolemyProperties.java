@@ -13,7 +13,6 @@
  */
 package de.cau.cs.kieler.ptolemy.klighd;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.elk.core.util.Pair;
@@ -21,6 +20,9 @@ import org.eclipse.elk.graph.properties.IProperty;
 import org.eclipse.elk.graph.properties.Property;
 import org.ptolemy.moml.PropertyType;
 
+import de.cau.cs.kieler.ptolemy.klighd.transformation.DeferredContents;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.AnnotationList;
+
 /**
  * Properties used when representing Ptolemy models as KGraphs.
  * 
@@ -32,10 +34,18 @@ public final class PtolemyProperties {
      * Properties of the original Ptolemy object a KGraph element was created from. Such properties are
      * saved as a property with a list instead of being converted to first-class properties. This is
      * mainly because we don't know in advance which kinds of properties Ptolemy objects can have, and
-     * because properties can have properties themselves.
+     * because properties can have properties themselves. The list is an {@link AnnotationList} to
+     * speed up looking up properties by their names.
      */
     public static final IProperty<List<PropertyType>> PT_PROPERTIES =
-            new Property<List<PropertyType>>("ptolemy.properties", new ArrayList<PropertyType>());
+            new Property<List<PropertyType>>("ptolemy.properties", new AnnotationList());
+    
+    /**
+     * Markers set on KGraph elements during the synthesis, such as whether a port is an input port or
+     * whether an edge's direction is still unknown. Each marker is a bit in this mask. The bits are
+     * only meant to be accessed through the marker extensions.
+     */
+    public static final IProperty<Integer> MARKERS = new Property<Integer>("ptolemy.markers", 0);
     
     /**
      * The text a comment node should display.
@@ -65,6 +75,20 @@ public final class PtolemyProperties {
      */
     public static final IProperty<Pair<String,String>> PARAMETER_PAIR = 
             new Property<Pair<String,String>>("ptolemy.parameter", null);
+    
+    /**
+     * Timing and size information collected while synthesizing the diagram. Attached to the root of
+     * the synthesized graph.
+     */
+    public static final IProperty<SynthesisStatistics> SYNTHESIS_STATISTICS =
+            new Property<SynthesisStatistics>("ptolemy.synthesisStatistics", null);
+    
+    /**
+     * The contents of an instance of a locally defined actor class that have not been copied into the
+     * instance yet. Set on instances until they are first expanded.
+     */
+    public static final IProperty<DeferredContents> DEFERRED_CONTENTS =
+            new Property<DeferredContents>("ptolemy.deferredContents", null);
   
     
     /**
@@ -0,0 +1,381 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.ptolemy.moml.DocumentRoot;
+import org.ptolemy.moml.PropertyType;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import de.cau.cs.kieler.klighd.IDiagramWorkbenchPart;
+import de.cau.cs.kieler.klighd.IViewer;
+import de.cau.cs.kieler.klighd.kgraph.KGraphElement;
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.DeferredContents;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.AnnotationList;
+
+/**
+ * Caches intermediate results of synthesizing Ptolemy models, so that changing a synthesis option
+ * does not require the whole model to be synthesized again. For each model, two graphs are kept:
+ * the graph as it is after the transformation and the inference of edge directions, and the graph
+ * as it is after the optimization. Each is stamped with the values of the synthesis options it
+ * depends on. A synthesis continues from the latest graph whose options have not changed, which
+ * skips instantiating actors and inferring edge directions in most cases, and skips all passes
+ * up to the visualization if only options affecting the visualization have changed.
+ *
+ * <p>KlighD expects a new graph for each synthesis run, so graphs are copied both when they are
+ * put into the cache and when they are taken out of it. Contents deferred until a node is expanded
+ * are bound to the options and diagram synthesis of the run that takes the graph out of the
+ * cache.</p>
+ *
+ * <p>Copying graphs is not free, so graphs are only worth caching for diagrams that can be
+ * synthesized again, that is, diagrams displayed in an editor or a view. The graphs of a model
+ * are dropped once the last editor or view displaying it is closed.</p>
+ *
+ * <p>Models are compared by identity. Since the cached graphs reference the model they were
+ * synthesized from, only a few models are cached, and their graphs are dropped when memory runs
+ * low.</p>
+ *
+ * @author cds
+ */
+public final class SynthesisGraphCache {
+
+    /** Maximum number of models whose graphs are cached. */
+    private static final int MAX_MODELS = 8;
+
+    /** The one and only instance. */
+    private static final SynthesisGraphCache INSTANCE = new SynthesisGraphCache();
+
+    /** The cached graphs of each model. */
+    private final Cache<DocumentRoot, Entry> entries = CacheBuilder.newBuilder()
+            .weakKeys()
+            .softValues()
+            .maximumSize(MAX_MODELS)
+            .build();
+
+
+    /**
+     * Creates the cache.
+     */
+    private SynthesisGraphCache() {
+    }
+
+    /**
+     * Returns the one and only instance of this class.
+     *
+     * @return the instance.
+     */
+    public static SynthesisGraphCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Cache Access
+
+    /**
+     * Returns a copy of the graph the given model was transformed into, with edge directions
+     * inferred, if the graph was cached with the same transformation options.
+     *
+     * @param model the Ptolemy model.
+     * @param options the options of the synthesis run asking for the graph.
+     * @param synthesis the diagram synthesis asking for the graph.
+     * @return a copy of the cached graph, or {@code null} if there is none.
+     */
+    public KNode getTransformedGraph(final DocumentRoot model, final Options options,
+            final AbstractDiagramSynthesis<?> synthesis) {
+
+        final Entry entry = entries.getIfPresent(model);
+        final KNode graph = entry == null
+                ? null
+                : entry.getTransformedGraph(options.getTransformationKey());
+        return graph == null ? null : copy(graph, options, synthesis);
+    }
+
+    /**
+     * Caches a copy of the graph the given model was transformed into, with edge directions
+     * inferred. The graph itself can be optimized further afterwards.
+     *
+     * @param model the Ptolemy model.
+     * @param options the options the graph was transformed with.
+     * @param synthesis the diagram synthesis that transformed the graph.
+     * @param graph the graph.
+     */
+    public void putTransformedGraph(final DocumentRoot model, final Options options,
+            final AbstractDiagramSynthesis<?> synthesis, final KNode graph) {
+
+        getOrCreateEntry(model).setTransformedGraph(
+                options.getTransformationKey(), copy(graph, options, synthesis));
+    }
+
+    /**
+     * Returns a copy of the optimized graph of the given model, if the graph was cached with the
+     * same transformation and optimization options.
+     *
+     * @param model the Ptolemy model.
+     * @param options the options of the synthesis run asking for the graph.
+     * @param synthesis the diagram synthesis asking for the graph.
+     * @return a copy of the cached graph, or {@code null} if there is none.
+     */
+    public KNode getOptimizedGraph(final DocumentRoot model, final Options options,
+            final AbstractDiagramSynthesis<?> synthesis) {
+
+        final Entry entry = entries.getIfPresent(model);
+        final KNode graph = entry == null
+                ? null
+                : entry.getOptimizedGraph(options.getOptimizationKey());
+        return graph == null ? null : copy(graph, options, synthesis);
+    }
+
+    /**
+     * Caches a copy of the optimized graph of the given model. The graph itself can be visualized
+     * afterwards.
+     *
+     * @param model the Ptolemy model.
+     * @param options the options the graph was optimized with.
+     * @param synthesis the diagram synthesis that optimized the graph.
+     * @param graph the graph.
+     */
+    public void putOptimizedGraph(final DocumentRoot model, final Options options,
+            final AbstractDiagramSynthesis<?> synthesis, final KNode graph) {
+
+        getOrCreateEntry(model).setOptimizedGraph(
+                options.getOptimizationKey(), copy(graph, options, synthesis));
+    }
+
+    /**
+     * Drops the graphs cached for the given model once the given diagram workbench part, and all
+     * other parts the model has been registered with, are closed. The part's viewer is looked up on
+     * the display thread, since the part may still be under construction while the model is
+     * synthesized.
+     *
+     * @param model the Ptolemy model.
+     * @param part the editor or view displaying the model.
+     */
+    public void removeWhenClosed(final DocumentRoot model, final IDiagramWorkbenchPart part) {
+        Display.getDefault().asyncExec(() -> {
+            final IViewer viewer = part.getViewer();
+            final Control control = viewer == null ? null : viewer.getControl();
+            final Entry entry = entries.getIfPresent(model);
+            if (control == null || control.isDisposed() || entry == null) {
+                return;
+            }
+
+            if (entry.addViewer(control)) {
+                control.addDisposeListener(event -> {
+                    if (entry.removeViewer(control)) {
+                        remove(model, entry);
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops the graphs cached for the given model, unless they have been replaced by a new entry.
+     *
+     * @param model the Ptolemy model.
+     * @param entry the model's entry to drop.
+     */
+    private void remove(final DocumentRoot model, final Entry entry) {
+        synchronized (entries) {
+            if (entries.getIfPresent(model) == entry) {
+                entries.invalidate(model);
+            }
+        }
+    }
+
+    /**
+     * Returns the cache entry of the given model, creating one if there is none yet.
+     *
+     * @param model the Ptolemy model.
+     * @return the model's entry.
+     */
+    private Entry getOrCreateEntry(final DocumentRoot model) {
+        synchronized (entries) {
+            Entry entry = entries.getIfPresent(model);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(model, entry);
+            }
+            return entry;
+        }
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Copying
+
+    /**
+     * Copies the given graph. Elements of the copy are associated with the same model elements as
+     * the elements they were copied from. Annotation lists are copied as well, since passes may add
+     * to them, and deferred contents are bound to the given options and diagram synthesis. Deferred
+     * contents shared by several nodes remain shared.
+     *
+     * @param graph the graph to copy.
+     * @param options the options deferred contents are to be synthesized with.
+     * @param synthesis the diagram synthesis deferred contents are to be synthesized by.
+     * @return the copy.
+     */
+    private static KNode copy(final KNode graph, final Options options,
+            final AbstractDiagramSynthesis<?> synthesis) {
+
+        final KNode copy = EcoreUtil.copy(graph);
+        final Map<DeferredContents, DeferredContents> reboundContents =
+                Maps.newIdentityHashMap();
+
+        prepareCopiedElement(copy, reboundContents, options, synthesis);
+        final TreeIterator<EObject> contents = copy.eAllContents();
+        while (contents.hasNext()) {
+            final EObject object = contents.next();
+            if (object instanceof KGraphElement) {
+                prepareCopiedElement((KGraphElement) object, reboundContents, options, synthesis);
+            }
+        }
+
+        return copy;
+    }
+
+    /**
+     * Unshares the properties of a copied element that are not meant to be shared with the element
+     * it was copied from.
+     *
+     * @param element the copied element.
+     * @param reboundContents map from deferred contents to the contents already rebound for them.
+     * @param options the options deferred contents are to be synthesized with.
+     * @param synthesis the diagram synthesis deferred contents are to be synthesized by.
+     */
+    private static void prepareCopiedElement(final KGraphElement element,
+            final Map<DeferredContents, DeferredContents> reboundContents, final Options options,
+            final AbstractDiagramSynthesis<?> synthesis) {
+
+        final List<PropertyType> annotations = element.getProperty(PtolemyProperties.PT_PROPERTIES);
+        if (annotations != null) {
+            // Annotations are looked up by name through the list's index, so keep the list type
+            final AnnotationList copiedAnnotations = new AnnotationList();
+            copiedAnnotations.addAll(annotations);
+            element.setProperty(PtolemyProperties.PT_PROPERTIES, copiedAnnotations);
+        }
+
+        final DeferredContents deferredContents =
+                element.getProperty(PtolemyProperties.DEFERRED_CONTENTS);
+        if (deferredContents != null) {
+            DeferredContents rebound = reboundContents.get(deferredContents);
+            if (rebound == null) {
+                rebound = deferredContents.rebind(options, synthesis);
+                reboundContents.put(deferredContents, rebound);
+            }
+            element.setProperty(PtolemyProperties.DEFERRED_CONTENTS, rebound);
+        }
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Entries
+
+    /**
+     * The graphs cached for one model, along with the option values they were synthesized with.
+     */
+    private static final class Entry {
+
+        /** Transformation options the transformed graph was synthesized with. */
+        private List<?> transformationKey;
+        /** The graph after the transformation and the inference of edge directions. */
+        private KNode transformedGraph;
+        /** Transformation and optimization options the optimized graph was synthesized with. */
+        private List<?> optimizationKey;
+        /** The graph after the optimization. */
+        private KNode optimizedGraph;
+        /** Controls of the viewers currently displaying the model. */
+        private final Set<Control> viewers = Sets.newIdentityHashSet();
+
+        /**
+         * Returns the transformed graph if it was synthesized with the given options.
+         *
+         * @param key the transformation options.
+         * @return the graph or {@code null}.
+         */
+        synchronized KNode getTransformedGraph(final List<?> key) {
+            return key.equals(transformationKey) ? transformedGraph : null;
+        }
+
+        /**
+         * Replaces the transformed graph.
+         *
+         * @param key the transformation options the graph was synthesized with.
+         * @param graph the graph.
+         */
+        synchronized void setTransformedGraph(final List<?> key, final KNode graph) {
+            transformationKey = key;
+            transformedGraph = graph;
+        }
+
+        /**
+         * Returns the optimized graph if it was synthesized with the given options.
+         *
+         * @param key the transformation and optimization options.
+         * @return the graph or {@code null}.
+         */
+        synchronized KNode getOptimizedGraph(final List<?> key) {
+            return key.equals(optimizationKey) ? optimizedGraph : null;
+        }
+
+        /**
+         * Replaces the optimized graph.
+         *
+         * @param key the transformation and optimization options the graph was synthesized with.
+         * @param graph the graph.
+         */
+        synchronized void setOptimizedGraph(final List<?> key, final KNode graph) {
+            optimizationKey = key;
+            optimizedGraph = graph;
+        }
+
+        /**
+         * Remembers that the model is displayed in the given viewer.
+         *
+         * @param viewer the viewer's control.
+         * @return {@code true} if the viewer was not known to display the model yet.
+         */
+        synchronized boolean addViewer(final Control viewer) {
+            return viewers.add(viewer);
+        }
+
+        /**
+         * Forgets that the model is displayed in the given viewer.
+         *
+         * @param viewer the viewer's control.
+         * @return {@code true} if no other viewer is known to display the model.
+         */
+        synchronized boolean removeViewer(final Control viewer) {
+            viewers.remove(viewer);
+            return viewers.isEmpty();
+        }
+    }
+
+}
@@ -0,0 +1,405 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.FusedTraversal;
+
+/**
+ * Timing and size information collected while a Ptolemy model is synthesized. One instance is
+ * created per synthesis run and handed to the synthesis phases through the synthesis options. Once
+ * the synthesis has finished, the statistics are attached to the resulting graph through
+ * {@link PtolemyProperties#SYNTHESIS_STATISTICS}.
+ *
+ * <p>The statistics answer the question of where the time went when a model takes long to open:
+ * in instantiating actors through Ptolemy, in loading actor icons, or in one of the phases.</p>
+ *
+ * <p>Actor instantiations may be recorded concurrently, since the transformation may run on several
+ * threads.</p>
+ *
+ * @author cds
+ */
+public final class SynthesisStatistics {
+
+    /**
+     * The phases of the synthesis that are timed.
+     */
+    public enum Phase {
+        /** Turning the Ptolemy model into a KGraph and inferring edge directions. */
+        TRANSFORMATION,
+        /** Removing relations, flattening and so on. */
+        OPTIMIZATION,
+        /** Rendering the icons of all actor classes in the model ahead of the visualization. */
+        ICON_PREWARMING,
+        /** Adding renderings and layout options. */
+        VISUALIZATION,
+        /** Attaching comments to the nodes they most probably describe. */
+        COMMENT_ATTACHMENT,
+        /** Setting up label managers. */
+        LABEL_MANAGEMENT;
+    }
+
+
+    /** Time spent in each phase, in nanoseconds. */
+    private final Map<Phase, Long> phaseTimes = new EnumMap<Phase, Long>(Phase.class);
+    /** The phase currently running, if any. */
+    private Phase currentPhase;
+    /** When the current phase was started. */
+    private long currentPhaseStart;
+
+    /** The last phase whose result was taken from the cache instead of running it, if any. */
+    private Phase reusedPhase;
+
+    /** Number of nodes in the resulting graph. */
+    private int nodeCount;
+    /** Number of edges in the resulting graph. */
+    private int edgeCount;
+    /** Number of ports in the resulting graph. */
+    private int portCount;
+
+    /** Number of actors instantiated through Ptolemy because no cache knew their ports. */
+    private int actorInstantiations;
+    /** Time spent instantiating actors, in nanoseconds. */
+    private long actorInstantiationTime;
+
+    /** Whether composite actors were flattened. */
+    private boolean flattened;
+    /** Number of edges removed while flattening composite actors. */
+    private int flatteningRemovedEdges;
+    /** Number of edges added while flattening composite actors. */
+    private int flatteningAddedEdges;
+
+    /** Number of actor icons that were already available in the rendering library. */
+    private int iconHits;
+    /** Number of actor icons that were taken from the icon cache shared by all diagrams. */
+    private int iconCacheHits;
+    /** Number of actor icons that had to be loaded from Ptolemy. */
+    private int iconMisses;
+    /** Time spent loading actor icons from Ptolemy, in nanoseconds. */
+    private long iconLoadTime;
+    /** Number of placeholders rendered for actor icons that are loaded in the background. */
+    private int iconPlaceholders;
+    /** Number of actor icons rendered ahead of the visualization. */
+    private int prewarmedIcons;
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Recording
+
+    /**
+     * Starts timing the given phase. Ends the phase currently running, if any.
+     *
+     * @param phase the phase that starts now.
+     */
+    public void startPhase(final Phase phase) {
+        endPhase();
+        currentPhase = phase;
+        currentPhaseStart = System.nanoTime();
+    }
+
+    /**
+     * Ends the phase currently running, if any.
+     */
+    public void endPhase() {
+        if (currentPhase != null) {
+            final long duration = System.nanoTime() - currentPhaseStart;
+            final Long previous = phaseTimes.get(currentPhase);
+            phaseTimes.put(currentPhase, previous == null ? duration : previous + duration);
+            currentPhase = null;
+        }
+    }
+
+    /**
+     * Records that the synthesis continued from a cached graph instead of running the phases up to
+     * and including the given one.
+     *
+     * @param phase the last phase whose result was taken from the cache.
+     * @see SynthesisGraphCache
+     */
+    public void recordReusedGraph(final Phase phase) {
+        reusedPhase = phase;
+    }
+
+    /**
+     * Records that an actor was instantiated through Ptolemy to retrieve its ports, whether or not
+     * the instantiation succeeded. Ports answered from one of the caches are not recorded.
+     *
+     * @param nanos how long the instantiation took.
+     */
+    public synchronized void recordActorInstantiation(final long nanos) {
+        actorInstantiations++;
+        actorInstantiationTime += nanos;
+    }
+
+    /**
+     * Records that an actor's icon was already available in the rendering library.
+     */
+    public void recordIconHit() {
+        iconHits++;
+    }
+
+    /**
+     * Records that an actor's icon was taken from the icon cache shared by all diagrams.
+     */
+    public void recordIconCacheHit() {
+        iconCacheHits++;
+    }
+
+    /**
+     * Records that an actor's icon had to be loaded from Ptolemy.
+     *
+     * @param nanos how long loading the icon took.
+     */
+    public void recordIconMiss(final long nanos) {
+        iconMisses++;
+        iconLoadTime += nanos;
+    }
+
+    /**
+     * Records that a placeholder was rendered for an actor's icon, which is loaded in the
+     * background.
+     */
+    public void recordIconPlaceholder() {
+        iconPlaceholders++;
+    }
+
+    /**
+     * Records that actor icons were rendered ahead of the visualization.
+     *
+     * @param count number of icons rendered.
+     */
+    public void recordPrewarmedIcons(final int count) {
+        prewarmedIcons += count;
+    }
+
+    /**
+     * Records how the number of edges changed while flattening composite actors.
+     *
+     * @param removedEdges number of edges removed.
+     * @param addedEdges number of edges added.
+     */
+    public void recordFlattening(final int removedEdges, final int addedEdges) {
+        flattened = true;
+        flatteningRemovedEdges += removedEdges;
+        flatteningAddedEdges += addedEdges;
+    }
+
+    /**
+     * Counts the nodes, edges and ports of the given graph.
+     *
+     * @param graph the synthesized graph.
+     */
+    public void countElements(final KNode graph) {
+        nodeCount = 0;
+        edgeCount = 0;
+        portCount = 0;
+        FusedTraversal.traverse(graph, node -> {
+            nodeCount++;
+            edgeCount += node.getOutgoingEdges().size();
+            portCount += node.getPorts().size();
+        });
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Accessors
+
+    /**
+     * Returns the time spent in the given phase.
+     *
+     * @param phase the phase.
+     * @return the time in nanoseconds, or {@code 0} if the phase has not run.
+     */
+    public long getPhaseTime(final Phase phase) {
+        final Long time = phaseTimes.get(phase);
+        return time == null ? 0 : time;
+    }
+
+    /**
+     * @return the time spent in all phases, in nanoseconds.
+     */
+    public long getTotalTime() {
+        long total = 0;
+        for (Long time : phaseTimes.values()) {
+            total += time;
+        }
+        return total;
+    }
+
+    /**
+     * @return the last phase whose result was taken from the cache, or {@code null} if the graph
+     *         was synthesized from scratch.
+     */
+    public Phase getReusedPhase() {
+        return reusedPhase;
+    }
+
+    /**
+     * @return the number of nodes in the resulting graph.
+     */
+    public int getNodeCount() {
+        return nodeCount;
+    }
+
+    /**
+     * @return the number of edges in the resulting graph.
+     */
+    public int getEdgeCount() {
+        return edgeCount;
+    }
+
+    /**
+     * @return the number of ports in the resulting graph.
+     */
+    public int getPortCount() {
+        return portCount;
+    }
+
+    /**
+     * @return the number of actors instantiated through Ptolemy.
+     */
+    public synchronized int getActorInstantiations() {
+        return actorInstantiations;
+    }
+
+    /**
+     * @return the time spent instantiating actors, in nanoseconds.
+     */
+    public synchronized long getActorInstantiationTime() {
+        return actorInstantiationTime;
+    }
+
+    /**
+     * @return the number of placeholders rendered for actor icons loaded in the background.
+     */
+    public int getIconPlaceholders() {
+        return iconPlaceholders;
+    }
+
+    /**
+     * @return the number of actor icons rendered ahead of the visualization.
+     */
+    public int getPrewarmedIcons() {
+        return prewarmedIcons;
+    }
+
+    /**
+     * @return the number of edges removed while flattening composite actors.
+     */
+    public int getFlatteningRemovedEdges() {
+        return flatteningRemovedEdges;
+    }
+
+    /**
+     * @return the number of edges added while flattening composite actors.
+     */
+    public int getFlatteningAddedEdges() {
+        return flatteningAddedEdges;
+    }
+
+    /**
+     * @return the number of actor icons found in the rendering library.
+     */
+    public int getIconHits() {
+        return iconHits;
+    }
+
+    /**
+     * @return the number of actor icons taken from the icon cache shared by all diagrams.
+     */
+    public int getIconCacheHits() {
+        return iconCacheHits;
+    }
+
+    /**
+     * @return the number of actor icons loaded from Ptolemy.
+     */
+    public int getIconMisses() {
+        return iconMisses;
+    }
+
+    /**
+     * @return the time spent loading actor icons from Ptolemy, in nanoseconds.
+     */
+    public long getIconLoadTime() {
+        return iconLoadTime;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Output
+
+    /**
+     * Returns a human-readable, multi-line summary of the statistics.
+     *
+     * @return the summary.
+     */
+    @Override
+    public String toString() {
+        final StringBuilder summary = new StringBuilder();
+
+        summary.append(String.format(
+                "Synthesis took %d ms (%d nodes, %d edges, %d ports)%n", //$NON-NLS-1$
+                millis(getTotalTime()), nodeCount, edgeCount, portCount));
+        for (Phase phase : Phase.values()) {
+            summary.append(String.format("  %-20s %8d ms%n", //$NON-NLS-1$
+                    phase, millis(getPhaseTime(phase))));
+        }
+        if (reusedPhase != null) {
+            summary.append(String.format(
+                    "  reused the cached graph up to and including %s%n", //$NON-NLS-1$
+                    reusedPhase));
+        }
+        summary.append(String.format(
+                "  %d actors instantiated through Ptolemy in %d ms%n", //$NON-NLS-1$
+                actorInstantiations, millis(actorInstantiationTime)));
+        summary.append(String.format(
+                "  %d icons from the rendering library, %d from the icon cache, " //$NON-NLS-1$
+                        + "%d loaded in %d ms%n", //$NON-NLS-1$
+                iconHits, iconCacheHits, iconMisses, millis(iconLoadTime)));
+        if (prewarmedIcons > 0) {
+            summary.append(String.format(
+                    "  %d icons rendered ahead of the visualization%n", //$NON-NLS-1$
+                    prewarmedIcons));
+        }
+        if (iconPlaceholders > 0) {
+            summary.append(String.format(
+                    "  %d placeholders waiting for icons loaded in the background%n", //$NON-NLS-1$
+                    iconPlaceholders));
+        }
+        if (flattened) {
+            summary.append(String.format(
+                    "  flattening removed %d edges and added %d edges (%+d)%n", //$NON-NLS-1$
+                    flatteningRemovedEdges, flatteningAddedEdges,
+                    flatteningAddedEdges - flatteningRemovedEdges));
+        }
+
+        return summary.toString();
+    }
+
+    /**
+     * Converts the given number of nanoseconds to milliseconds.
+     *
+     * @param nanos the nanoseconds.
+     * @return the milliseconds.
+     */
+    private static long millis(final long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.batch;
+
+import java.io.File;
+import java.util.List;
+
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+
+import com.google.common.collect.Lists;
+
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis;
+import de.cau.cs.kieler.ptolemy.klighd.batch.PtolemyBatchExporter.BatchResult;
+
+/**
+ * Headless application that exports Ptolemy models through the {@link PtolemyBatchExporter}. Run it
+ * with {@code -application de.cau.cs.kieler.ptbrowser.klighd.batchExport} and the following
+ * arguments:
+ *
+ * <pre>
+ * -output &lt;dir&gt;     directory to write the diagrams to (required)
+ * -format &lt;format&gt;  export format, defaults to svg
+ * -threads &lt;n&gt;      number of worker threads, defaults to the number of processors
+ * -expanded         expand composite actors
+ * -flatten          flatten composite actors
+ * -nostates         don't transform state machines
+ * -streaming        load models through a streaming parser, which requires less memory
+ * &lt;file or dir&gt;...  models or directories to search for models
+ * </pre>
+ *
+ * <p>The application prints a summary of the run and exits with a non-zero code if any model failed
+ * to export.</p>
+ *
+ * @author cds
+ */
+public class PtolemyBatchApplication implements IApplication {
+
+    /** Exit code returned if the arguments were invalid or any model failed to export. */
+    private static final Integer EXIT_FAILURE = Integer.valueOf(1);
+
+
+    @Override
+    public Object start(final IApplicationContext context) throws Exception {
+        final String[] args = (String[]) context.getArguments().get(
+                IApplicationContext.APPLICATION_ARGS);
+
+        File outputDirectory = null;
+        String format = PtolemyBatchExporter.DEFAULT_FORMAT;
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean expanded = false;
+        boolean flatten = false;
+        boolean transformStates = true;
+        boolean streaming = false;
+        final List<File> inputs = Lists.newArrayList();
+
+        try {
+            for (int i = 0; args != null && i < args.length; i++) {
+                switch (args[i]) {
+                case "-output": //$NON-NLS-1$
+                    outputDirectory = new File(args[++i]);
+                    break;
+                case "-format": //$NON-NLS-1$
+                    format = args[++i];
+                    break;
+                case "-threads": //$NON-NLS-1$
+                    threads = Integer.parseInt(args[++i]);
+                    break;
+                case "-expanded": //$NON-NLS-1$
+                    expanded = true;
+                    break;
+                case "-flatten": //$NON-NLS-1$
+                    flatten = true;
+                    break;
+                case "-nostates": //$NON-NLS-1$
+                    transformStates = false;
+                    break;
+                case "-streaming": //$NON-NLS-1$
+                    streaming = true;
+                    break;
+                default:
+                    inputs.add(new File(args[i]));
+                }
+            }
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            printUsage();
+            return EXIT_FAILURE;
+        }
+
+        if (outputDirectory == null || inputs.isEmpty() || threads < 1) {
+            printUsage();
+            return EXIT_FAILURE;
+        }
+
+        final BatchResult result = new PtolemyBatchExporter(outputDirectory)
+                .setFormat(format)
+                .setThreads(threads)
+                .setStreamingLoad(streaming)
+                .setSynthesisOption(PtolemyDiagramSynthesis.INITIALLY_COLLAPSED, !expanded)
+                .setSynthesisOption(PtolemyDiagramSynthesis.FLATTEN, flatten)
+                .setSynthesisOption(PtolemyDiagramSynthesis.TRANSFORM_STATES, transformStates)
+                .export(inputs);
+
+        System.out.print(result.getSummary());
+        return result.getFailures().isEmpty() ? IApplication.EXIT_OK : EXIT_FAILURE;
+    }
+
+    @Override
+    public void stop() {
+        // The export runs to completion; there is nothing to stop
+    }
+
+    /**
+     * Prints the application's command line arguments.
+     */
+    private void printUsage() {
+        System.err.println("Usage: -output <dir> [-format <format>] [-threads <n>] [-expanded] "
+                + "[-flatten] [-nostates] [-streaming] <file or dir>...");
+    }
+
+}
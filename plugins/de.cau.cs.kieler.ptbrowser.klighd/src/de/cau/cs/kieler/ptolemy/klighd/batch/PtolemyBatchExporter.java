@@ -0,0 +1,587 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.batch;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.emf.common.util.URI;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.resource.Resource;
+import org.ptolemy.moml.DocumentRoot;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import de.cau.cs.kieler.klighd.LightDiagramServices;
+import de.cau.cs.kieler.klighd.SynthesisOption;
+import de.cau.cs.kieler.klighd.util.KlighdSynthesisProperties;
+import de.cau.cs.kieler.ptolemy.klighd.MomlResources;
+import de.cau.cs.kieler.ptolemy.klighd.MomlStreamingResource;
+import de.cau.cs.kieler.ptolemy.klighd.PluginConstants;
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis;
+
+/**
+ * Renders whole corpora of Ptolemy models into diagram files without any user interface. Each
+ * model is loaded into its own resource set, synthesized through {@link PtolemyDiagramSynthesis},
+ * laid out and exported by KLighD's off-screen renderer. Models are processed on a pool of worker
+ * threads that is, by default, as large as the number of available processors. A model that fails
+ * to export does not affect any other model; its failure is recorded in the {@link BatchResult}.
+ *
+ * <p>Typical usage:</p>
+ * <pre>
+ * BatchResult result = new PtolemyBatchExporter(outputDir)
+ *         .setFormat("svg")
+ *         .setSynthesisOption(PtolemyDiagramSynthesis.INITIALLY_COLLAPSED, false)
+ *         .export(inputs);
+ * System.out.println(result.getSummary());
+ * </pre>
+ *
+ * @author cds
+ */
+public final class PtolemyBatchExporter {
+
+    /** The default export format. Vector output does not require a display to be available. */
+    public static final String DEFAULT_FORMAT = "svg"; //$NON-NLS-1$
+    /** File extensions of files considered to be Ptolemy models when traversing directories. */
+    private static final String[] MODEL_EXTENSIONS = {
+        ".xml", ".moml" //$NON-NLS-1$ //$NON-NLS-2$
+    };
+    /** Number of slowest models listed in the summary. */
+    private static final int SLOWEST_MODELS_IN_SUMMARY = 10;
+
+    /** Directory the exported diagrams are written to. */
+    private final File outputDirectory;
+    /** The export format, as understood by KLighD's off-screen renderers. */
+    private String format = DEFAULT_FORMAT;
+    /** Number of worker threads. */
+    private int threads = Runtime.getRuntime().availableProcessors();
+    /** Whether models are loaded through a streaming resource. */
+    private boolean streamingLoad = false;
+    /** Synthesis option values applied to every model. */
+    private final Map<SynthesisOption, Object> synthesisOptions = Maps.newHashMap();
+
+
+    /**
+     * Creates a new exporter that writes its diagrams to the given directory.
+     *
+     * @param outputDirectory the directory to write diagrams to. Will be created if necessary.
+     */
+    public PtolemyBatchExporter(final File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+
+        // Exported diagrams cannot wait for icons to be swapped in later
+        synthesisOptions.put(PtolemyDiagramSynthesis.LOAD_ICONS_IN_BACKGROUND, false);
+        // Exported diagrams are never synthesized again, so caching their graphs is wasted effort
+        synthesisOptions.put(PtolemyDiagramSynthesis.CACHE_GRAPHS, false);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Configuration
+
+    /**
+     * Sets the export format, such as {@code svg} or {@code png}. Raster formats may require a
+     * display to be available.
+     *
+     * @param format the export format.
+     * @return this exporter for method chaining.
+     */
+    public PtolemyBatchExporter setFormat(final String format) {
+        this.format = format;
+        return this;
+    }
+
+    /**
+     * Sets the number of worker threads used to export models.
+     *
+     * @param threads the number of worker threads. Must be positive.
+     * @return this exporter for method chaining.
+     */
+    public PtolemyBatchExporter setThreads(final int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Number of threads must be positive: " + threads);
+        }
+        this.threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets whether models are loaded through a {@link MomlStreamingResource}, which requires less
+     * memory for large models.
+     *
+     * @param streamingLoad {@code true} if models should be loaded through a streaming resource.
+     * @return this exporter for method chaining.
+     */
+    public PtolemyBatchExporter setStreamingLoad(final boolean streamingLoad) {
+        this.streamingLoad = streamingLoad;
+        return this;
+    }
+
+    /**
+     * Sets the value of a synthesis option for all exported models. Options of
+     * {@link PtolemyDiagramSynthesis} that are not set keep their initial values.
+     *
+     * @param option the option to set.
+     * @param value the value to apply.
+     * @return this exporter for method chaining.
+     */
+    public PtolemyBatchExporter setSynthesisOption(final SynthesisOption option,
+            final Object value) {
+
+        synthesisOptions.put(option, value);
+        return this;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Export
+
+    /**
+     * Exports the given models. Directories are searched recursively for model files; the directory
+     * structure below them is replicated in the output directory. Models whose diagrams would end up
+     * in the same file, such as models with the same name given directly or found in different input
+     * directories, get a numeric suffix appended to all but the first diagram's name.
+     *
+     * @param inputs model files and directories containing model files.
+     * @return the result of the batch run.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the
+     *                              workers.
+     */
+    public BatchResult export(final List<File> inputs) throws InterruptedException {
+        // Collect the models and where their diagrams will end up
+        final List<Job> jobs = Lists.newArrayList();
+        final Set<File> outputs = Sets.newHashSet();
+        for (File input : inputs) {
+            if (input.isDirectory()) {
+                collectJobs(input, "", jobs, outputs); //$NON-NLS-1$
+            } else {
+                jobs.add(new Job(input, outputFileFor(input.getName(), outputs)));
+            }
+        }
+
+        final long startTime = System.nanoTime();
+        final ExecutorService executor =
+                Executors.newFixedThreadPool(threads, new WorkerThreadFactory());
+        final List<FileResult> results = Lists.newArrayListWithCapacity(jobs.size());
+
+        try {
+            final List<Future<FileResult>> futures = Lists.newArrayListWithCapacity(jobs.size());
+            for (final Job job : jobs) {
+                futures.add(executor.submit(() -> exportModel(job)));
+            }
+
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (ExecutionException e) {
+                    // exportModel(...) catches everything it sensibly can; this is a last resort
+                    results.add(new FileResult(jobs.get(i).model, jobs.get(i).output,
+                            errorStatus(jobs.get(i).model, e.getCause()), 0, 0));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new BatchResult(results, System.nanoTime() - startTime, threads);
+    }
+
+    /**
+     * Loads, synthesizes and exports a single model. Never throws an exception; failures are
+     * reported through the result's status instead.
+     *
+     * @param job the model to export.
+     * @return the export result.
+     */
+    private FileResult exportModel(final Job job) {
+        final long startTime = System.nanoTime();
+        long loadTime = 0;
+
+        Resource resource = null;
+        try {
+            // Each model gets its own resource set so that models never share any state
+            resource = MomlResources.createResourceSet(streamingLoad).getResource(
+                    URI.createFileURI(job.model.getAbsolutePath()), true);
+
+            final EObject content = resource.getContents().isEmpty()
+                    ? null
+                    : resource.getContents().get(0);
+            if (!(content instanceof DocumentRoot)) {
+                return new FileResult(job.model, job.output, new Status(IStatus.ERROR,
+                        PluginConstants.PLUGIN_ID, "Not a Ptolemy model: " + job.model), 0, 0);
+            }
+            loadTime = System.nanoTime() - startTime;
+
+            job.output.getParentFile().mkdirs();
+            final IStatus status = LightDiagramServices.renderOffScreen(
+                    content, format, job.output.getPath(), createSynthesisProperties());
+
+            return new FileResult(job.model, job.output, status, loadTime,
+                    System.nanoTime() - startTime - loadTime);
+
+        } catch (Exception | LinkageError | StackOverflowError e) {
+            return new FileResult(job.model, job.output, errorStatus(job.model, e), loadTime,
+                    System.nanoTime() - startTime - loadTime);
+
+        } finally {
+            if (resource != null) {
+                resource.unload();
+            }
+        }
+    }
+
+    /**
+     * Creates the synthesis properties passed to KLighD for each model. A fresh instance is created
+     * for each model since property holders are not thread-safe.
+     *
+     * @return the synthesis properties.
+     */
+    private KlighdSynthesisProperties createSynthesisProperties() {
+        final KlighdSynthesisProperties properties = KlighdSynthesisProperties.create()
+                .useDiagramSynthesis(PtolemyDiagramSynthesis.ID);
+        for (Map.Entry<SynthesisOption, Object> entry : synthesisOptions.entrySet()) {
+            properties.configureSynthesisOption(entry.getKey(), entry.getValue());
+        }
+        return properties;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Recursively collects the model files in the given directory.
+     *
+     * @param directory the directory to search.
+     * @param relativePath path of the directory relative to the input directory the search started
+     *                     in.
+     * @param jobs list the collected jobs are added to.
+     * @param outputs the output files already assigned to a job.
+     */
+    private void collectJobs(final File directory, final String relativePath,
+            final List<Job> jobs, final Set<File> outputs) {
+
+        final File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        // Sort to keep the order of the results stable across runs
+        Arrays.sort(files);
+        for (File file : files) {
+            final String relativeName = relativePath + file.getName();
+            if (file.isDirectory()) {
+                collectJobs(file, relativeName + File.separator, jobs, outputs);
+            } else if (isModelFile(file)) {
+                jobs.add(new Job(file, outputFileFor(relativeName, outputs)));
+            }
+        }
+    }
+
+    /**
+     * Checks whether the given file looks like a Ptolemy model.
+     *
+     * @param file the file to check.
+     * @return {@code true} if the file has one of the model file extensions.
+     */
+    private static boolean isModelFile(final File file) {
+        final String name = file.getName().toLowerCase(Locale.ENGLISH);
+        for (String extension : MODEL_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Computes the output file for a model with the given path relative to its input directory. If
+     * the file is already assigned to another model, a numeric suffix is appended to its name until
+     * it is unique.
+     *
+     * @param relativeName relative path of the model file.
+     * @param outputs the output files already assigned to a model. The new output file is added.
+     * @return the output file.
+     */
+    private File outputFileFor(final String relativeName, final Set<File> outputs) {
+        final int dotIndex = relativeName.lastIndexOf('.');
+        final String baseName = dotIndex > 0 ? relativeName.substring(0, dotIndex) : relativeName;
+
+        File output = new File(outputDirectory, baseName + "." + format); //$NON-NLS-1$
+        for (int suffix = 2; !outputs.add(output); suffix++) {
+            output = new File(outputDirectory,
+                    baseName + "_" + suffix + "." + format); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return output;
+    }
+
+    /**
+     * Creates an error status for a model that could not be exported.
+     *
+     * @param model the model.
+     * @param t the cause.
+     * @return the error status.
+     */
+    private static IStatus errorStatus(final File model, final Throwable t) {
+        return new Status(IStatus.ERROR, PluginConstants.PLUGIN_ID,
+                "Unable to export " + model + ": " + t, t); //$NON-NLS-1$
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Inner Classes
+
+    /**
+     * A model to be exported along with the file its diagram is written to.
+     */
+    private static final class Job {
+        /** The model file. */
+        private final File model;
+        /** The diagram file. */
+        private final File output;
+
+        /**
+         * Creates a new job.
+         *
+         * @param model the model file.
+         * @param output the diagram file.
+         */
+        private Job(final File model, final File output) {
+            this.model = model;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Creates daemon worker threads with recognizable names.
+     */
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        /** Number of threads created so far. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            final Thread thread = new Thread(r, "Ptolemy batch export " + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * The result of exporting a single model.
+     */
+    public static final class FileResult {
+        /** The model file. */
+        private final File model;
+        /** The diagram file. */
+        private final File output;
+        /** The export status. */
+        private final IStatus status;
+        /** Time spent loading the model, in nanoseconds. */
+        private final long loadTime;
+        /** Time spent synthesizing, laying out and exporting the diagram, in nanoseconds. */
+        private final long exportTime;
+
+        /**
+         * Creates a new result.
+         *
+         * @param model the model file.
+         * @param output the diagram file.
+         * @param status the export status.
+         * @param loadTime time spent loading the model, in nanoseconds.
+         * @param exportTime time spent synthesizing, laying out and exporting, in nanoseconds.
+         */
+        private FileResult(final File model, final File output, final IStatus status,
+                final long loadTime, final long exportTime) {
+
+            this.model = model;
+            this.output = output;
+            this.status = status;
+            this.loadTime = loadTime;
+            this.exportTime = exportTime;
+        }
+
+        /**
+         * @return the model file.
+         */
+        public File getModel() {
+            return model;
+        }
+
+        /**
+         * @return the diagram file. Only exists if the export was successful.
+         */
+        public File getOutput() {
+            return output;
+        }
+
+        /**
+         * @return the export status.
+         */
+        public IStatus getStatus() {
+            return status;
+        }
+
+        /**
+         * @return {@code true} if the diagram was exported successfully.
+         */
+        public boolean isSuccessful() {
+            return status != null && status.getSeverity() < IStatus.ERROR;
+        }
+
+        /**
+         * @return time spent loading the model, in nanoseconds.
+         */
+        public long getLoadTime() {
+            return loadTime;
+        }
+
+        /**
+         * @return time spent synthesizing, laying out and exporting the diagram, in nanoseconds.
+         */
+        public long getExportTime() {
+            return exportTime;
+        }
+
+        /**
+         * @return the total time spent on this model, in nanoseconds.
+         */
+        public long getTotalTime() {
+            return loadTime + exportTime;
+        }
+    }
+
+    /**
+     * The result of a whole batch run.
+     */
+    public static final class BatchResult {
+        /** Results of the individual models, in input order. */
+        private final List<FileResult> fileResults;
+        /** Wall-clock time of the whole run, in nanoseconds. */
+        private final long wallTime;
+        /** Number of worker threads used. */
+        private final int threads;
+
+        /**
+         * Creates a new result.
+         *
+         * @param fileResults results of the individual models.
+         * @param wallTime wall-clock time of the whole run, in nanoseconds.
+         * @param threads number of worker threads used.
+         */
+        private BatchResult(final List<FileResult> fileResults, final long wallTime,
+                final int threads) {
+
+            this.fileResults = Collections.unmodifiableList(fileResults);
+            this.wallTime = wallTime;
+            this.threads = threads;
+        }
+
+        /**
+         * @return results of the individual models, in input order.
+         */
+        public List<FileResult> getFileResults() {
+            return fileResults;
+        }
+
+        /**
+         * @return the results of models that could not be exported.
+         */
+        public List<FileResult> getFailures() {
+            final List<FileResult> failures = new ArrayList<>();
+            for (FileResult result : fileResults) {
+                if (!result.isSuccessful()) {
+                    failures.add(result);
+                }
+            }
+            return failures;
+        }
+
+        /**
+         * @return wall-clock time of the whole run, in nanoseconds.
+         */
+        public long getWallTime() {
+            return wallTime;
+        }
+
+        /**
+         * Returns a human-readable summary of the run that lists throughput, failures and the
+         * slowest models.
+         *
+         * @return the summary.
+         */
+        public String getSummary() {
+            long totalLoadTime = 0;
+            long totalExportTime = 0;
+            for (FileResult result : fileResults) {
+                totalLoadTime += result.getLoadTime();
+                totalExportTime += result.getExportTime();
+            }
+
+            final List<FileResult> failures = getFailures();
+            final double wallSeconds = wallTime / 1e9;
+            final StringBuilder sb = new StringBuilder();
+
+            sb.append(String.format(Locale.ENGLISH,
+                    "Exported %d of %d models in %.1f s using %d threads (%.2f models/s).%n",
+                    fileResults.size() - failures.size(), fileResults.size(), wallSeconds, threads,
+                    wallSeconds > 0 ? fileResults.size() / wallSeconds : 0.0));
+            sb.append(String.format(Locale.ENGLISH,
+                    "Cumulative time: %.1f s loading, %.1f s synthesis, layout and export.%n",
+                    totalLoadTime / 1e9, totalExportTime / 1e9));
+
+            if (!failures.isEmpty()) {
+                sb.append(String.format("%nFailed models:%n"));
+                for (FileResult failure : failures) {
+                    sb.append("  ").append(failure.getModel()).append(": ")
+                        .append(failure.getStatus() == null
+                                ? "no status" : failure.getStatus().getMessage())
+                        .append(String.format("%n"));
+                }
+            }
+
+            final List<FileResult> slowest = new ArrayList<>(fileResults);
+            slowest.sort(Comparator.comparingLong(FileResult::getTotalTime).reversed());
+            if (!slowest.isEmpty()) {
+                sb.append(String.format("%nSlowest models:%n"));
+                for (FileResult result : slowest.subList(0,
+                        Math.min(SLOWEST_MODELS_IN_SUMMARY, slowest.size()))) {
+
+                    sb.append(String.format(Locale.ENGLISH, "  %8.2f s  %s%n",
+                            result.getTotalTime() / 1e9, result.getModel()));
+                }
+            }
+
+            return sb.toString();
+        }
+    }
+
+}
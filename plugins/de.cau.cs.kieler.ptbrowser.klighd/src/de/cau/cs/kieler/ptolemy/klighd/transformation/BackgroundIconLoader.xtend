@@ -0,0 +1,301 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ * 
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ * 
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ * 
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation
+
+import com.google.inject.Guice
+import de.cau.cs.kieler.klighd.LightDiagramServices
+import de.cau.cs.kieler.klighd.ViewContext
+import de.cau.cs.kieler.klighd.kgraph.KNode
+import de.cau.cs.kieler.klighd.krendering.KRendering
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.ActorIconCache
+import java.util.List
+import java.util.Map
+import java.util.Set
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import org.eclipse.swt.widgets.Display
+
+/**
+ * Loads actor icons in the background and swaps them into live diagrams once they are available.
+ * Loading an icon through Ptolemy means waiting for its images to be loaded and scaled in the AWT
+ * event queue, which can take a while. Diagrams are thus displayed with placeholders first, sized
+ * like the icons they stand in for if the sizes are known from earlier syntheses.
+ * 
+ * <p>Icons are loaded on a single background thread, since Ptolemy loads them through the AWT event
+ * queue anyway. The icons requested by one diagram are loaded together, which visits the event queue
+ * only a few times for all of them. Each icon is loaded once, no matter how many placeholders wait
+ * for it. Placeholders are replaced in the display thread as each icon becomes available, or by the
+ * default rendering if the icon cannot be loaded. Diagrams whose nodes had to be resized are laid
+ * out again shortly afterwards, once for all icons that arrive in the meantime.</p>
+ * 
+ * @author cds
+ */
+final class BackgroundIconLoader {
+    
+    /** Time to wait for further icons before laying out diagrams again, in milliseconds. */
+    static val LAYOUT_DELAY = 200
+    
+    /** The one and only instance. */
+    static val INSTANCE = new BackgroundIconLoader()
+    
+    /** Executor that loads icons. */
+    val ExecutorService loader = Executors.newSingleThreadExecutor [runnable |
+        val thread = new Thread(runnable, "Ptolemy Actor Icon Loader")
+        thread.daemon = true
+        return thread
+    ]
+    /** Creates icons through Ptolemy. Only used by the loader thread. */
+    val PtolemyFigureInterface figureInterface
+    /** Swaps icons into diagrams. Only used by the display thread. */
+    val KRenderingFigureProvider figureProvider
+    /** Placeholders waiting for the icon of each actor class, indexed by class name. */
+    val Map<String, List<IconPlaceholder>> waitingPlaceholders = newHashMap
+    /** Diagrams to be laid out again once no more icons arrive. Only used by the display thread. */
+    val Set<ViewContext> pendingLayouts = newLinkedHashSet
+    
+    
+    /**
+     * Creates the loader.
+     */
+    private new() {
+        val injector = Guice.createInjector()
+        figureInterface = injector.getInstance(PtolemyFigureInterface)
+        figureProvider = injector.getInstance(KRenderingFigureProvider)
+    }
+    
+    /**
+     * Returns the one and only instance of this class.
+     * 
+     * @return the instance.
+     */
+    def static BackgroundIconLoader getInstance() {
+        return INSTANCE
+    }
+    
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Loading
+    
+    /**
+     * Loads the icons the given placeholders stand in for and replaces the placeholders once the
+     * icons are available. Must only be called once the placeholders' graph is complete.
+     * 
+     * @param placeholders the placeholders.
+     * @param viewContext the view context the placeholders' graph is displayed in, if any. Used to
+     *                    lay out the diagram again if nodes have to be resized to fit their icons.
+     */
+    def void load(List<IconPlaceholder> placeholders, ViewContext viewContext) {
+        val List<String> newClassNames = newArrayList
+        
+        synchronized (waitingPlaceholders) {
+            for (placeholder : placeholders) {
+                placeholder.viewContext = viewContext
+                
+                var waiting = waitingPlaceholders.get(placeholder.className)
+                if (waiting === null) {
+                    waiting = newArrayList
+                    waitingPlaceholders.put(placeholder.className, waiting)
+                    newClassNames += placeholder.className
+                }
+                waiting += placeholder
+            }
+        }
+        
+        // Icons that are already waited for will be swapped in along with the new placeholders
+        if (!newClassNames.empty) {
+            loader.execute[loadIcons(newClassNames)]
+        }
+    }
+    
+    /**
+     * Loads the icons of the given actor classes, from the icon cache or through Ptolemy, and has them
+     * swapped into the diagrams waiting for them. Icons that are not cached are loaded all at once.
+     * Runs on the loader thread.
+     * 
+     * @param classNames qualified names of the actors' classes.
+     */
+    def private void loadIcons(List<String> classNames) {
+        val iconCache = ActorIconCache.getInstance()
+        val List<String> missingClassNames = newArrayList
+        for (className : classNames) {
+            val icon = iconCache.get(className)
+            if (icon !== null) {
+                iconLoaded(className, icon)
+            } else {
+                missingClassNames += className
+            }
+        }
+        
+        if (missingClassNames.empty) {
+            return
+        }
+        
+        // Placeholders must not wait forever if loading fails, so such icons count as unavailable
+        val Map<String, KRendering> icons = try {
+            figureInterface.createPtolemyFigureRenderings(missingClassNames)
+        } catch (Exception e) {
+            emptyMap
+        }
+        for (className : missingClassNames) {
+            val icon = icons.get(className)
+            if (icon !== null) {
+                iconCache.put(className, icon)
+            } else {
+                iconCache.markUnavailable(className)
+            }
+            iconLoaded(className, icon)
+        }
+    }
+    
+    /**
+     * Has the given icon of the given actor class swapped into the diagrams waiting for it. Runs on
+     * the loader thread.
+     * 
+     * @param className qualified name of the actor's class.
+     * @param icon the icon, or {@code null} if it could not be loaded.
+     */
+    def private void iconLoaded(String className, KRendering icon) {
+        var List<IconPlaceholder> placeholders = null
+        synchronized (waitingPlaceholders) {
+            placeholders = waitingPlaceholders.remove(className)
+        }
+        
+        if (placeholders !== null) {
+            val loadedPlaceholders = placeholders
+            Display.^default.asyncExec[replacePlaceholders(icon, loadedPlaceholders)]
+        }
+    }
+    
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Swapping
+    
+    /**
+     * Replaces the given placeholders by the given icon. If the icon could not be loaded, the
+     * placeholders are replaced by the default rendering instead, which is what the nodes would have
+     * been rendered as had their icons been loaded right away. Runs on the display thread.
+     * 
+     * @param icon the icon, or {@code null} if it could not be loaded.
+     * @param placeholders the placeholders waiting for the icon.
+     */
+    def private void replacePlaceholders(KRendering icon, List<IconPlaceholder> placeholders) {
+        for (placeholder : placeholders) {
+            val resized = if (icon !== null) {
+                figureProvider.replacePlaceholder(placeholder, icon)
+            } else {
+                figureProvider.replacePlaceholderByDefault(placeholder)
+            }
+            if (resized && placeholder.viewContext !== null) {
+                scheduleLayout(placeholder.viewContext)
+            }
+        }
+    }
+    
+    /**
+     * Schedules the diagram displayed in the given view context to be laid out again, unless that
+     * is scheduled anyway. Runs on the display thread.
+     * 
+     * @param viewContext the view context.
+     */
+    def private void scheduleLayout(ViewContext viewContext) {
+        if (pendingLayouts.empty) {
+            Display.^default.timerExec(LAYOUT_DELAY, [layoutPendingDiagrams()])
+        }
+        pendingLayouts += viewContext
+    }
+    
+    /**
+     * Lays out all diagrams scheduled to be laid out again whose viewers are still open. Runs on
+     * the display thread.
+     */
+    def private void layoutPendingDiagrams() {
+        for (viewContext : pendingLayouts) {
+            val viewer = viewContext.viewer
+            if (viewer !== null && viewer.control !== null && !viewer.control.disposed) {
+                LightDiagramServices.layoutDiagram(viewContext)
+            }
+        }
+        pendingLayouts.clear()
+    }
+
+}
+
+
+/**
+ * A rendering that stands in for an actor's icon until the icon is loaded in the background.
+ * 
+ * @author cds
+ * @see BackgroundIconLoader
+ */
+final class IconPlaceholder {
+    
+    /** Qualified class name of the actor whose icon the placeholder stands in for. */
+    val String className
+    /** The node the placeholder was rendered for. */
+    val KNode node
+    /** The placeholder rendering. */
+    val KRendering rendering
+    /** The view context the node is displayed in, if any. */
+    var ViewContext viewContext
+    
+    
+    /**
+     * Creates a new placeholder.
+     * 
+     * @param className qualified class name of the actor whose icon the placeholder stands in for.
+     * @param node the node the placeholder was rendered for.
+     * @param rendering the placeholder rendering.
+     */
+    new(String className, KNode node, KRendering rendering) {
+        this.className = className
+        this.node = node
+        this.rendering = rendering
+    }
+    
+    /**
+     * Returns the qualified class name of the actor whose icon the placeholder stands in for.
+     */
+    def String getClassName() {
+        return className
+    }
+    
+    /**
+     * Returns the node the placeholder was rendered for.
+     */
+    def KNode getNode() {
+        return node
+    }
+    
+    /**
+     * Returns the placeholder rendering.
+     */
+    def KRendering getRendering() {
+        return rendering
+    }
+    
+    /**
+     * Returns the view context the node is displayed in, if known.
+     */
+    def ViewContext getViewContext() {
+        return viewContext
+    }
+    
+    /**
+     * Sets the view context the node is displayed in.
+     */
+    def void setViewContext(ViewContext viewContext) {
+        this.viewContext = viewContext
+    }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ * 
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ * 
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation
+
+import de.cau.cs.kieler.klighd.kgraph.KEdge
+import de.cau.cs.kieler.klighd.kgraph.KGraphPackage
+import de.cau.cs.kieler.klighd.kgraph.KNode
+import de.cau.cs.kieler.klighd.kgraph.KPort
+import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options
+import org.eclipse.emf.ecore.EObject
+import org.eclipse.emf.ecore.EReference
+import org.eclipse.emf.ecore.util.EcoreUtil.Copier
+
+import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
+
+/**
+ * The contents of a locally defined class, to be copied into instances of the class only once they
+ * are first expanded. Models often instantiate a class many times, but users only look inside a few
+ * of the instances. Instances are thus created without any children or inner edges. All instances of
+ * a class share the same deferred contents.
+ * 
+ * @author cds
+ */
+class DeferredClassContents extends DeferredContents {
+    
+    /** The transformed class whose contents are copied into its instances. */
+    val KNode template
+    
+    
+    /**
+     * Creates the deferred contents of the given class.
+     * 
+     * @param template the transformed class.
+     * @param options a container class holding synthesis option values
+     * @param diagramSynthesis the diagram synthesis the class was transformed by.
+     */
+    new(KNode template, Options options, AbstractDiagramSynthesis<?> diagramSynthesis) {
+        super(options, diagramSynthesis)
+        this.template = template
+    }
+    
+    override rebind(Options options, AbstractDiagramSynthesis<?> diagramSynthesis) {
+        return new DeferredClassContents(template, options, diagramSynthesis)
+    }
+    
+    /**
+     * Returns the transformed class whose contents are copied into its instances.
+     */
+    def KNode getTemplate() {
+        return template
+    }
+    
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Instances
+    
+    /**
+     * Creates a new instance of the class. The instance is a copy of the class, but without its
+     * children and without the edges it contains.
+     * 
+     * @return the new instance.
+     */
+    def KNode createInstance() {
+        val root = template
+        val copier = new Copier() {
+            override protected copyContainment(EReference reference, EObject object, EObject copy) {
+                // The class's contents are only copied once the instance is expanded
+                if (object !== root
+                    || (reference != KGraphPackage.Literals.KNODE__CHILDREN
+                        && reference != KGraphPackage.Literals.KNODE__OUTGOING_EDGES)) {
+                    
+                    super.copyContainment(reference, object, copy)
+                }
+            }
+        }
+        
+        val instance = copier.copy(template) as KNode
+        copier.copyReferences()
+        instance.setProperty(DEFERRED_CONTENTS, this)
+        
+        return instance
+    }
+    
+    /**
+     * Copies the contents of the class into the given instance.
+     * 
+     * @param instance an instance created by {@link #createInstance()}.
+     */
+    override protected addContents(KNode instance) {
+        // Copy the children and the edges between them
+        val copier = new Copier()
+        val children = copier.copyAll(template.children)
+        val edges = copier.copyAll(template.outgoingEdges)
+        copier.copyReferences()
+        
+        instance.children += children
+        instance.outgoingEdges += edges
+        
+        // Edges connected to the class's ports have to be connected to the instance's ports instead
+        for (entry : copier.entrySet) {
+            if (entry.key instanceof KEdge) {
+                val original = entry.key as KEdge
+                val copy = entry.value as KEdge
+                
+                if (original.target === template) {
+                    copy.target = instance
+                }
+                if (original.sourcePort?.node === template) {
+                    copy.sourcePort = instance.correspondingPort(original.sourcePort)
+                }
+                if (original.targetPort?.node === template) {
+                    copy.targetPort = instance.correspondingPort(original.targetPort)
+                }
+            }
+        }
+    }
+    
+    /**
+     * Returns the port of the given instance that was copied from the given port of the class. The
+     * instance's first ports were copied from the class, in the same order.
+     * 
+     * @param instance the instance.
+     * @param templatePort a port of the class.
+     * @return the corresponding port of the instance.
+     */
+    def private KPort correspondingPort(KNode instance, KPort templatePort) {
+        return instance.ports.get(template.ports.indexOf(templatePort))
+    }
+    
+}
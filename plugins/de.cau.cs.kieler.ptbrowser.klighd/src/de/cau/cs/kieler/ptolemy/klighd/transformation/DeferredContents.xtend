@@ -0,0 +1,110 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ * 
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ * 
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation
+
+import com.google.inject.Guice
+import de.cau.cs.kieler.klighd.ViewContext
+import de.cau.cs.kieler.klighd.kgraph.KNode
+import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
+import de.cau.cs.kieler.ptolemy.klighd.LabelDisplayStyle
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options
+import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsAttachor
+import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsExtractor
+
+import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
+
+/**
+ * The contents of a collapsed node that are only added to the node once it is first expanded. Users
+ * usually only look inside a few of the composite actors of a model, so synthesizing the contents of
+ * all of them right away is wasted effort. Nodes whose contents are deferred reference them through
+ * {@link de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties#DEFERRED_CONTENTS} and are synthesized
+ * just like nodes without any children up to that point.
+ * 
+ * <p>When the contents are added to a node, they have only been transformed. They are then run
+ * through the remaining steps of the Ptolemy model import process, just as they would have been had
+ * they been added right away.</p>
+ * 
+ * @author cds
+ * @see DeferredClassContents
+ * @see DeferredEntityContents
+ */
+abstract class DeferredContents {
+    
+    /** User-specified diagram synthesis options. */
+    protected val Options options
+    /** The diagram synthesis the node was transformed by. */
+    protected val AbstractDiagramSynthesis<?> diagramSynthesis
+    
+    
+    /**
+     * Creates new deferred contents.
+     * 
+     * @param options a container class holding synthesis option values
+     * @param diagramSynthesis the diagram synthesis the node was transformed by.
+     */
+    new(Options options, AbstractDiagramSynthesis<?> diagramSynthesis) {
+        this.options = options
+        this.diagramSynthesis = diagramSynthesis
+    }
+    
+    /**
+     * Adds the contents to the given node and readies them to be displayed. Does nothing if the
+     * contents have already been added.
+     * 
+     * @param node a node whose contents are deferred to this object.
+     * @param viewContext the view context the node is displayed in, if any.
+     */
+    def void materialize(KNode node, ViewContext viewContext) {
+        if (node.getProperty(DEFERRED_CONTENTS) !== this) {
+            return
+        }
+        node.setProperty(DEFERRED_CONTENTS, null)
+        
+        addContents(node)
+        
+        // Run the remaining steps of the import process on the new contents
+        val injector = Guice.createInjector()
+        val extractComments = options.comments != LabelDisplayStyle.NONE
+        
+        injector.getInstance(Ptolemy2KGraphOptimization).optimize(node, options,
+            if (extractComments) injector.getInstance(CommentsExtractor) else null, diagramSynthesis)
+        val visualization = injector.getInstance(Ptolemy2KGraphVisualization)
+        visualization.visualizeChildren(node, options)
+        
+        if (options.commentsAttach) {
+            injector.getInstance(CommentsAttachor).attachComments(node)
+        }
+        
+        visualization.loadPlaceholderIcons(viewContext)
+    }
+    
+    /**
+     * Returns deferred contents that add the same contents as these, but have them synthesized with
+     * the given options by the given diagram synthesis. Used when a graph whose nodes reference these
+     * contents is copied for another synthesis run.
+     * 
+     * @param options a container class holding synthesis option values
+     * @param diagramSynthesis the diagram synthesis the copied graph belongs to.
+     * @return the rebound contents.
+     */
+    def abstract DeferredContents rebind(Options options, AbstractDiagramSynthesis<?> diagramSynthesis)
+    
+    /**
+     * Adds the transformed contents to the given node.
+     * 
+     * @param node the node to add the contents to.
+     */
+    def protected abstract void addContents(KNode node)
+    
+}
@@ -0,0 +1,72 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ * 
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ * 
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation
+
+import com.google.inject.Guice
+import de.cau.cs.kieler.klighd.kgraph.KNode
+import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options
+import java.util.Map
+import org.ptolemy.moml.EntityType
+
+/**
+ * The contents of a composite actor, to be transformed only once the actor is first expanded. The
+ * actor's ports are transformed right away, so links to it from the outside can be resolved. The
+ * locally defined classes known when the actor was transformed are kept around, since the contents
+ * may instantiate them. The contents are transformed by a new transformation bound to the options
+ * and diagram synthesis of these contents, so that they can be rebound to another synthesis run.
+ * 
+ * @author cds
+ */
+class DeferredEntityContents extends DeferredContents {
+    
+    /** The composite actor whose contents are deferred. */
+    val EntityType ptEntity
+    /** The locally defined classes known when the actor was transformed, indexed by name. */
+    val Map<String, KNode> actorClasses
+    /** The deferred contents of the locally defined classes. */
+    val Map<KNode, DeferredClassContents> classContents
+    
+    
+    /**
+     * Creates the deferred contents of the given composite actor.
+     * 
+     * @param ptEntity the actor.
+     * @param actorClasses the locally defined classes known when the actor was transformed.
+     * @param classContents the deferred contents of the locally defined classes.
+     * @param options a container class holding synthesis option values
+     * @param diagramSynthesis the diagram synthesis the actor was transformed by.
+     */
+    new(EntityType ptEntity, Map<String, KNode> actorClasses,
+        Map<KNode, DeferredClassContents> classContents, Options options,
+        AbstractDiagramSynthesis<?> diagramSynthesis) {
+        
+        super(options, diagramSynthesis)
+        this.ptEntity = ptEntity
+        this.actorClasses = actorClasses
+        this.classContents = classContents
+    }
+    
+    override rebind(Options options, AbstractDiagramSynthesis<?> diagramSynthesis) {
+        return new DeferredEntityContents(ptEntity, actorClasses, classContents, options,
+            diagramSynthesis)
+    }
+    
+    override protected addContents(KNode node) {
+        val transformation = Guice.createInjector().getInstance(Ptolemy2KGraphTransformation)
+        transformation.transformDeferredContents(node, ptEntity, actorClasses, classContents,
+            diagramSynthesis, options)
+    }
+    
+}
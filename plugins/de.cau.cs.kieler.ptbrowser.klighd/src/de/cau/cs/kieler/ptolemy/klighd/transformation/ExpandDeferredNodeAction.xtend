@@ -0,0 +1,43 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ * 
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ * 
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation
+
+import de.cau.cs.kieler.klighd.IAction
+import de.cau.cs.kieler.klighd.IAction.ActionContext
+import de.cau.cs.kieler.klighd.IAction.ActionResult
+
+import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
+
+/**
+ * KlighD action that expands or collapses a node whose contents may have been deferred. If the
+ * contents have not been added to the node yet, that is done first.
+ * 
+ * @author cds
+ * @see DeferredContents
+ */
+class ExpandDeferredNodeAction implements IAction {
+    
+    /** The action's ID, as registered with KlighD. */
+    public static val ID = "de.cau.cs.kieler.ptolemy.klighd.expandDeferredNode"
+    
+    
+    override execute(ActionContext context) {
+        val node = context.getKNode()
+        node.getProperty(DEFERRED_CONTENTS)?.materialize(node, context.viewContext)
+        
+        context.activeViewer.toggleExpansion(node)
+        return ActionResult.createResult(true)
+    }
+    
+}
@@ -16,35 +16,99 @@
 import com.google.inject.Inject
 import de.cau.cs.kieler.klighd.kgraph.KEdge
 import de.cau.cs.kieler.klighd.kgraph.KNode
+import de.cau.cs.kieler.klighd.kgraph.KPort
 import de.cau.cs.kieler.klighd.kgraph.util.KGraphUtil
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
+import java.util.ArrayDeque
 import java.util.List
+import java.util.Set
 
 /**
  * Optional optimization that flattens the graph by eliminating all composite actors.
  * 
+ * <p>Edges that run through a port of an eliminated composite actor are bridged by new edges. If a
+ * port has many incoming and many outgoing edges, bridging each pair would create a lot of edges,
+ * particularly if ports of several nested composite actors connect to each other. Such ports can be
+ * bridged through a junction node instead, which keeps the number of edges linear.</p>
+ * 
+ * <p>The number of edges removed and added while flattening is counted to be reported in the
+ * synthesis statistics. A flattener is meant to be used for a single graph.</p>
+ * 
  * @author msp
+ * @author cds
  */
 class Flattener {
     
     /** Access to marked nodes. */
     @Inject extension MarkerExtensions
     
+    /** Whether ports with many incoming and outgoing edges are bridged through junction nodes. */
+    var boolean junctions = false
+    /** Number of edges removed by the last run. */
+    var int removedEdges = 0
+    /** Number of edges added by the last run. */
+    var int addedEdges = 0
+    
+    
     /**
-     * Flatten all composite actors in the given graph.
+     * Flatten all composite actors in the given graph. Ports are bridged by one edge for each pair of
+     * incoming and outgoing edges.
+     * 
+     * @param node the graph's root node.
      */
     def void flatten(KNode node) {
-        val List<KNode> compositeNodes = newArrayList()
+        flatten(node, false)
+    }
+    
+    /**
+     * Flatten all composite actors in the given graph.
+     * 
+     * <p>Composite actors are eliminated bottom-up, that is, each composite actor only after all of
+     * the composite actors it contains. The hierarchy is traversed iteratively to be able to cope
+     * with arbitrarily deep models.</p>
+     * 
+     * @param node the graph's root node.
+     * @param junctions {@code true} if ports with many incoming and outgoing edges should be bridged
+     *                  through junction nodes.
+     */
+    def void flatten(KNode node, boolean junctions) {
+        this.junctions = junctions
+        
+        // The counts only ever describe the last run
+        removedEdges = 0
+        addedEdges = 0
+        
+        // Collect the composite nodes along with their parents, visiting each node before its
+        // children and the children from last to first
+        val List<Pair<KNode, KNode>> compositeNodes = newArrayList()
+        val stack = new ArrayDeque<Pair<KNode, KNode>>()
+        pushCompositeChildren(node, stack)
+        
+        while (!stack.empty) {
+            val composite = stack.pop()
+            compositeNodes += composite
+            pushCompositeChildren(composite.value, stack)
+        }
+        
+        // In reverse, that's each node after its children and the children from first to last, which
+        // is the order a recursive implementation would eliminate them in
+        for (composite : compositeNodes.reverseView) {
+            eliminateHierarchy(composite.key, composite.value)
+        }
+    }
+    
+    /**
+     * Pushes the composite children of the given node onto the given stack, along with the node.
+     * 
+     * @param node the node.
+     * @param stack the stack.
+     */
+    def private void pushCompositeChildren(KNode node, ArrayDeque<Pair<KNode, KNode>> stack) {
         for (child : node.children) {
             if (!child.children.empty && !child.markedAsState && !child.markedAsStateMachineContainer) {
-                compositeNodes.add(child)
+                stack.push(node -> child)
             }
         }
-        // Iterate the composite nodes in an extra loop to avoid concurrent modification
-        for (child : compositeNodes) {
-            flatten(child)
-            eliminateHierarchy(node, child)
-        }
     }
     
     /**
@@ -63,6 +127,8 @@ class Flattener {
 //            return
 //        }
         
+        val Set<KEdge> oldEdges = newHashSet()
+        
         for (port : child.ports) {
             // Gather incoming and outgoing edges from the port
             val List<KEdge> incoming = newArrayList()
@@ -77,19 +143,7 @@ class Flattener {
             }
             
             // Create the new edges to bridge the old ones
-            for (edge1 : incoming) {
-                for (edge2 : outgoing) {
-                    if (edge1.source != child && edge2.target != child) {
-                        KGraphUtil.createInitializedEdge() => [ e |
-                            e.source = edge1.source
-                            e.sourcePort = edge1.sourcePort
-                            e.target = edge2.target
-                            e.targetPort = edge2.targetPort
-                            e.copyProperties(edge1)
-                        ]
-                    }
-                }
-            }
+            bridgePort(parent, child, incoming, outgoing)
             
             // Remove the old edges
             for (edge1 : incoming) {
@@ -100,18 +154,16 @@ class Flattener {
                 edge2.target = null
                 edge2.targetPort = null
             }
+            oldEdges += incoming
+            oldEdges += outgoing
         }
         
-        // Move all contained nodes to the parent
-        while (!child.children.empty) {
-            val grandChild = child.children.get(0)
-            if (grandChild.markedAsDirector || grandChild.markedAsParameterNode) {
-                // These kinds of nodes are discarded
-                grandChild.setParent(null)
-            } else {
-                grandChild.setParent(parent)
-            }
-        }
+        // Move all contained nodes to the parent at once, discarding directors and parameters
+        val grandChildren = child.children.toList
+        child.children.clear()
+        parent.children += grandChildren.filter[grandChild |
+            !grandChild.markedAsDirector && !grandChild.markedAsParameterNode
+        ]
         
         // Remove the composite node
         child.setParent(null)
@@ -123,6 +175,87 @@ class Flattener {
             edge.target = null
             edge.targetPort = null
         }
+        oldEdges += child.incomingEdges
+        oldEdges += child.outgoingEdges
+        
+        removedEdges = removedEdges + oldEdges.size
+    }
+    
+    /**
+     * Connects the sources of the incoming edges of a port that is about to be eliminated to the
+     * targets of its outgoing edges. Edges that connect to the port's node itself are not bridged.
+     * 
+     * @param parent the node the port's node is going to be replaced in.
+     * @param child the port's node.
+     * @param incoming the port's incoming edges.
+     * @param outgoing the port's outgoing edges.
+     */
+    def private void bridgePort(KNode parent, KNode child, List<KEdge> incoming,
+        List<KEdge> outgoing) {
+        
+        val sources = incoming.filter[edge1 | edge1.source != child].toList
+        val targets = outgoing.filter[edge2 | edge2.target != child].toList
+        
+        if (junctions && sources.size * targets.size > sources.size + targets.size) {
+            // Bridge through a junction to avoid creating an edge for each pair
+            val junction = KGraphUtil.createInitializedNode()
+            junction.markAsJunction()
+            parent.children += junction
+            
+            for (edge1 : sources) {
+                createBridgeEdge(edge1.source, edge1.sourcePort, junction, null, edge1)
+            }
+            for (edge2 : targets) {
+                createBridgeEdge(junction, null, edge2.target, edge2.targetPort, edge2)
+            }
+        } else {
+            for (edge1 : sources) {
+                for (edge2 : targets) {
+                    createBridgeEdge(edge1.source, edge1.sourcePort, edge2.target, edge2.targetPort,
+                        edge1)
+                }
+            }
+        }
+    }
+    
+    /**
+     * Creates a new edge that bridges an eliminated port.
+     * 
+     * @param source the new edge's source node.
+     * @param sourcePort the new edge's source port, if any.
+     * @param target the new edge's target node.
+     * @param targetPort the new edge's target port, if any.
+     * @param original the edge whose properties to copy.
+     */
+    def private void createBridgeEdge(KNode source, KPort sourcePort, KNode target, KPort targetPort,
+        KEdge original) {
+        
+        KGraphUtil.createInitializedEdge() => [ e |
+            e.source = source
+            e.sourcePort = sourcePort
+            e.target = target
+            e.targetPort = targetPort
+            e.copyProperties(original)
+        ]
+        addedEdges = addedEdges + 1
+    }
+    
+    /**
+     * Returns the number of edges removed by the last call to {@code flatten}.
+     * 
+     * @return the number of removed edges.
+     */
+    def int getRemovedEdges() {
+        return removedEdges
+    }
+    
+    /**
+     * Returns the number of edges added by the last call to {@code flatten}.
+     * 
+     * @return the number of added edges.
+     */
+    def int getAddedEdges() {
+        return addedEdges
     }
     
-}
\ No newline at end of file
+}
@@ -33,11 +33,18 @@ import de.cau.cs.kieler.klighd.krendering.extensions.KColorExtensions
 import de.cau.cs.kieler.klighd.krendering.extensions.KContainerRenderingExtensions
 import de.cau.cs.kieler.klighd.krendering.extensions.KPolylineExtensions
 import de.cau.cs.kieler.klighd.krendering.extensions.KRenderingExtensions
+import de.cau.cs.kieler.ptolemy.klighd.SynthesisStatistics
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.AnnotationExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.LabelExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MiscellaneousExtensions
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.ActorIconCache
 import de.cau.cs.kieler.ptolemy.klighd.transformation.util.GraphicsUtils
+import java.util.Collection
+import java.util.List
+import java.util.stream.Collectors
+import org.eclipse.elk.core.math.KVector
+import org.eclipse.emf.ecore.util.EcoreUtil
 
 import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
 import static de.cau.cs.kieler.ptolemy.klighd.transformation.util.TransformationConstants.*
@@ -73,9 +80,36 @@ class KRenderingFigureProvider {
     /** Rendering factory used to instantiate KRendering instances. */
     val renderingFactory = KRenderingFactory::eINSTANCE
     
+    /** Statistics to record icon loading in, if any. */
+    var SynthesisStatistics statistics
+    /** Whether icons that are not in memory yet are loaded in the background. */
+    var boolean loadIconsInBackground = false
+    /** Placeholders rendered for icons that are to be loaded in the background. */
+    val List<IconPlaceholder> placeholders = newArrayList
+    
    
     
     
+    /**
+     * Sets the statistics that loading actor icons should be recorded in.
+     * 
+     * @param statistics the statistics, or {@code null} if nothing should be recorded.
+     */
+    def void setStatistics(SynthesisStatistics statistics) {
+        this.statistics = statistics
+    }
+    
+    /**
+     * Sets whether icons that are not in memory yet are loaded in the background. If so, placeholders
+     * are rendered instead, which are remembered until {@link #takePlaceholders()} is called.
+     * 
+     * @param loadIconsInBackground {@code true} if icons should be loaded in the background.
+     */
+    def void setLoadIconsInBackground(boolean loadIconsInBackground) {
+        this.loadIconsInBackground = loadIconsInBackground
+    }
+    
+    
     ////////////////////////////////////////////////////////////////////////////////////////////////////
     // Node Renderings
     
@@ -218,6 +252,26 @@ class KRenderingFigureProvider {
         ], "ren_relation", library)
     }
     
+    /**
+     * Creates a rendering for a junction node. Junction nodes are drawn as small dots, just like the
+     * junction points ELK computes for hyperedges, since they do not represent a relation of the model.
+     * 
+     * @param node the node to create the rendering information for.
+     * @return the rendering.
+     */
+    def KRendering createJunctionNodeRendering(KNode node) {
+        val library = getLibrary(node)
+        val rendering = getFromLibrary("ren_junction_node", library)
+        if (rendering !== null) {
+            return rendering
+        }
+        
+        return addToLibrary(renderingFactory.createKEllipse() => [ell |
+            ell.setBackgroundColor(0, 0, 0)
+            ell.lineWidth = 0
+        ], "ren_junction_node", library)
+    }
+    
     /**
      * Creates a rendering for a director node.
      * 
@@ -589,6 +643,36 @@ class KRenderingFigureProvider {
         return addToLibrary(polygon, id, library)
     }
     
+    /**
+     * Renders the icons of the given actor classes and puts them into the icon cache, so that creating
+     * regular node renderings only has to look them up. Icons that are cached already, possibly on
+     * disk, are not rendered again. The remaining icons are rendered all at once, which is a lot faster
+     * than rendering them one at a time.
+     * 
+     * @param classNames qualified class names of the actors whose icons to render.
+     */
+    def void prewarmIcons(Collection<String> classNames) {
+        // Looking for icons on disk is independent for each class
+        val iconCache = ActorIconCache.getInstance()
+        val List<String> missingClassNames = classNames.parallelStream
+            .filter[className | !iconCache.isUnavailable(className) && !iconCache.contains(className)]
+            .collect(Collectors.toList)
+        if (missingClassNames.empty) {
+            return
+        }
+        
+        val renderings = createPtolemyFigureRenderings(missingClassNames)
+        for (className : missingClassNames) {
+            val rendering = renderings.get(className)
+            if (rendering !== null) {
+                iconCache.put(className, rendering)
+            } else {
+                iconCache.markUnavailable(className)
+            }
+        }
+        statistics?.recordPrewarmedIcons(renderings.size)
+    }
+    
     /**
      * Creates a rendering for a regular node.
      * 
@@ -596,24 +680,162 @@ class KRenderingFigureProvider {
      * @return the rendering.
      */
     def KRendering createRegularNodeRendering(KNode node) {
-        if (node.getAnnotationValue(ANNOTATION_PTOLEMY_CLASS) !== null) {
-            val id = "ren_" + node.getAnnotationValue(ANNOTATION_PTOLEMY_CLASS).replace('.', '')
+        val className = node.getAnnotationValue(ANNOTATION_PTOLEMY_CLASS)
+        if (className !== null) {
+            val id = getIconId(className)
             val library = getLibrary(node)
             val rendering = getFromLibrary(id, library)
             if (rendering !== null) {
+                statistics?.recordIconHit()
                 return rendering
             }
         
-            val ptRendering = createPtolemyFigureRendering(
-                node.getAnnotationValue(ANNOTATION_PTOLEMY_CLASS))
-            if (ptRendering !== null) {
-                return addToLibrary(ptRendering, id, library)
+            // Other diagrams may have loaded the icon already; only look at the disk if we would have
+            // to wait for the icon anyway
+            val iconCache = ActorIconCache.getInstance()
+            val cachedRendering = if (loadIconsInBackground) {
+                iconCache.getIfLoaded(className)
+            } else {
+                iconCache.get(className)
+            }
+            if (cachedRendering !== null) {
+                statistics?.recordIconCacheHit()
+                return addToLibrary(cachedRendering, id, library)
+            }
+            
+            if (!iconCache.isUnavailable(className)) {
+                if (loadIconsInBackground) {
+                    // Stand in for the icon until it has been loaded
+                    val placeholder = createIconPlaceholderRendering(iconCache.getSize(className))
+                    placeholders += new IconPlaceholder(className, node, placeholder)
+                    statistics?.recordIconPlaceholder()
+                    return placeholder
+                }
+                
+                val loadStart = System.nanoTime()
+                val ptRendering = createPtolemyFigureRendering(className)
+                statistics?.recordIconMiss(System.nanoTime() - loadStart)
+                if (ptRendering !== null) {
+                    iconCache.put(className, ptRendering)
+                    return addToLibrary(ptRendering, id, library)
+                } else {
+                    iconCache.markUnavailable(className)
+                }
             }
         }
         
         return createDefaultRendering(node, true)
     }
     
+    /**
+     * Returns the ID under which the icon of the given actor class is stored in rendering libraries.
+     * 
+     * @param className qualified name of the actor's class.
+     * @return the icon's ID.
+     */
+    def private String getIconId(String className) {
+        return "ren_" + className.replace('.', '')
+    }
+    
+    /**
+     * Creates a rendering that stands in for an actor's icon until the icon has been loaded in the
+     * background. The placeholder looks like the default rendering, but has the icon's size if it is
+     * known, which saves laying out the diagram again once the icon replaces the placeholder.
+     * 
+     * @param size the icon's size, or {@code null} if it is unknown.
+     * @return the placeholder rendering.
+     */
+    def private KRendering createIconPlaceholderRendering(KVector size) {
+        val width = if (size !== null) size.x as float else 60f
+        val height = if (size !== null) size.y as float else 40f
+        
+        return renderingFactory.createKRectangle() => [rect |
+            rect.setBackgroundColor(255, 255, 255)
+            rect.setAreaPlacementData(
+                createKPosition(LEFT, 0, 0, TOP, 0, 0),
+                createKPosition(LEFT, width, 0, TOP, height, 0))
+        ]
+    }
+    
+    /**
+     * Returns the placeholders rendered since this method was last called, which are then forgotten.
+     * 
+     * @return the placeholders waiting for their icons to be loaded.
+     * @see BackgroundIconLoader
+     */
+    def List<IconPlaceholder> takePlaceholders() {
+        val result = newArrayList(placeholders)
+        placeholders.clear()
+        return result
+    }
+    
+    /**
+     * Replaces the given placeholder by the icon it stands in for. The icon is added to the rendering
+     * library of the placeholder's diagram, unless it already is there, and the node is resized to
+     * fit the icon. Placeholders that are no longer part of a diagram are left alone.
+     * 
+     * @param placeholder the placeholder.
+     * @param icon the icon the placeholder stands in for. Is not modified.
+     * @return {@code true} if the node had to be resized.
+     */
+    def boolean replacePlaceholder(IconPlaceholder placeholder, KRendering icon) {
+        if (placeholder.rendering.eContainer === null) {
+            return false
+        }
+        
+        val id = getIconId(placeholder.className)
+        val library = getLibrary(placeholder.node)
+        val ref = getFromLibrary(id, library) ?: addToLibrary(EcoreUtil.copy(icon), id, library)
+        return swapPlaceholder(placeholder, ref, icon)
+    }
+    
+    /**
+     * Replaces the given placeholder by the default rendering, since the icon it stands in for could
+     * not be loaded. The node then looks just like it would have if the icon had been loaded right
+     * away, and is resized to the default rendering's size. Placeholders that are no longer part of a
+     * diagram are left alone.
+     * 
+     * @param placeholder the placeholder.
+     * @return {@code true} if the node had to be resized.
+     */
+    def boolean replacePlaceholderByDefault(IconPlaceholder placeholder) {
+        if (placeholder.rendering.eContainer === null) {
+            return false
+        }
+        
+        val defaultRendering = createDefaultRendering(placeholder.node, true)
+        return swapPlaceholder(placeholder, defaultRendering, defaultRendering)
+    }
+    
+    /**
+     * Replaces the given placeholder by the given rendering and resizes the node to fit.
+     * 
+     * @param placeholder the placeholder.
+     * @param replacement the rendering to put in the placeholder's place.
+     * @param sizedRendering the rendering whose placement data define the node's new size.
+     * @return {@code true} if the node had to be resized.
+     */
+    def private boolean swapPlaceholder(IconPlaceholder placeholder, KRendering replacement,
+        KRendering sizedRendering) {
+        
+        val node = placeholder.node
+        val rendering = placeholder.rendering
+        
+        // Keep what the visualization has added to the placeholder apart from its looks
+        replacement.properties.putAll(rendering.properties)
+        replacement.actions += newArrayList(rendering.actions)
+        replacement.styles += rendering.styles.filter[selection].toList
+        EcoreUtil.replace(rendering, replacement)
+        
+        val size = ActorIconCache.computeSize(sizedRendering)
+        if (size !== null && (node.width != (size.x as float) || node.height != (size.y as float))) {
+            node.width = size.x as float
+            node.height = size.y as float
+            return true
+        }
+        return false
+    }
+    
     /**
      * Creates a rendering for an accumulator node. This needs to be a separate case because the SVG
      * description for accumulator nodes in Ptolemy is broken.
@@ -13,7 +13,9 @@
  */
 package de.cau.cs.kieler.ptolemy.klighd.transformation
 
+import com.google.common.collect.ArrayListMultimap
 import com.google.common.collect.Multimap
+import com.google.common.collect.Multimaps
 import com.google.inject.Inject
 import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
 import de.cau.cs.kieler.ptolemy.klighd.PtolemyDiagramSynthesis.Options
@@ -22,7 +24,11 @@ import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.LabelExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MiscellaneousExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.PortExtensions
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.EdgeInferenceGraph
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.EdgeInferenceWorklist
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.FusedTraversal
 import de.cau.cs.kieler.ptolemy.klighd.transformation.util.HyperedgeGatherer
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.HyperedgeGatherer.Hyperedge
 import java.util.List
 import org.eclipse.elk.core.util.Pair
 import org.ptolemy.moml.PropertyType
@@ -31,7 +37,6 @@ import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
 import static de.cau.cs.kieler.ptolemy.klighd.transformation.util.TransformationConstants.*
 import de.cau.cs.kieler.klighd.kgraph.KNode
 import de.cau.cs.kieler.klighd.kgraph.KPort
-import de.cau.cs.kieler.klighd.kgraph.KEdge
 import de.cau.cs.kieler.klighd.kgraph.util.KGraphUtil
 import de.cau.cs.kieler.ptolemy.klighd.transformation.comments.CommentsExtractor
 
@@ -73,49 +78,100 @@ public class Ptolemy2KGraphOptimization {
      * edge directions. When we remove ports from states or convert annotations to nodes is less
      * important.</p>
      * 
+     * <p>Inferring edge directions needs to look at the whole model. The passes that follow only look
+     * at a node, its ports, and its children along with the edges between them. They are fused into a
+     * single {@link FusedTraversal} of the model, which hands each node to each of the passes in the
+     * order the passes used to run in. The passes thus no longer run one after another over the whole
+     * model, but interleaved node by node: when a pass looks at a node, later passes have not yet run
+     * on the node's ancestors, and earlier passes have not yet run on its descendants. None of the
+     * passes looks beyond a node's children, so this does not change what they do. Flattening has to
+     * eliminate composite actors bottom-up and thus traverses the model on its own.</p>
+     * 
+     * <p>If the model is to be transformed in parallel, the fused passes run in parallel as well, with
+     * each composite actor's contents optimized as a fork/join task of its own. This requires the
+     * passes to leave the ports of a node's children alone, which is why states are made portless by
+     * their parent.</p>
+     * 
      * @param kGraph the model to optimize.
      * @param options a container class holding synthesis option values
      * @param commentsExtractor the extractor to use for extracting comments, or {@code null} if no
      *                          comments should be extracted.
      * @param diagramSynthesis the diagram synthesis that uses this classes. Used to map Ptolemy model
      *                         objects to KGraph model objects.
-     * @return the list of nodes created during the comment extraction or {@code null} if no comments 
-     *         were added
+     * @return the comment nodes created during the comment extraction and the title nodes, mapped to
+     *         by their parents at every level of the model, or {@code null} if no comments were
+     *         extracted
      */
     def Multimap<KNode, KNode> optimize(KNode kGraph, Options options,
         CommentsExtractor commentsExtractor, AbstractDiagramSynthesis<?> diagramSynthesis) {
         
+        inferEdgeDirections(kGraph)
+        return optimizeDirected(kGraph, options, commentsExtractor, diagramSynthesis)
+    }
+    
+    /**
+     * Optimizes the given KGraph model whose edge directions have already been inferred by
+     * {@link #inferEdgeDirections(KNode)}. The inferred graph does not depend on any of the options
+     * the remaining passes depend on, so it can be cached and optimized again if they change.
+     * 
+     * @param kGraph the model to optimize.
+     * @param options a container class holding synthesis option values
+     * @param commentsExtractor the extractor to use for extracting comments, or {@code null} if no
+     *                          comments should be extracted.
+     * @param diagramSynthesis the diagram synthesis that uses this classes. Used to map Ptolemy model
+     *                         objects to KGraph model objects.
+     * @return the comment nodes created during the comment extraction and the title nodes, mapped to
+     *         by their parents at every level of the model, or {@code null} if no comments were
+     *         extracted
+     * @see #optimize(KNode, Options, CommentsExtractor, AbstractDiagramSynthesis)
+     */
+    def Multimap<KNode, KNode> optimizeDirected(KNode kGraph, Options options,
+        CommentsExtractor commentsExtractor, AbstractDiagramSynthesis<?> diagramSynthesis) {
+        
         this.options = options
         
         // Comment nodes that are created in the extraction process
         val addComments = commentsExtractor !== null;
         
-        // Infer edge directions
-        inferEdgeDirections(kGraph)
+        val traversal = new FusedTraversal()
         
         // Remove either unnecessary or all relations
         if (!options.relations) {
-            removeAllRelations(kGraph)
+            traversal.register[node | removeAllRelations(node)]
         } else {
-            removeUnnecessaryRelations(kGraph)
+            traversal.register[node | removeUnnecessaryRelations(node)]
         }
         
         // Remove ports from nodes that represent states
-        makeStatesPortless(kGraph)
+        traversal.register[node | node.children.forEach[child | makeStatePortless(child)]]
         
         // Convert special annotations into nodes
-        convertAnnotationsToNodes(kGraph, addComments, diagramSynthesis)
+        traversal.register[node | convertAnnotationsToNodes(node, addComments, diagramSynthesis)]
+        
+        // Convert comments into nodes; only compound nodes can contain comments
+        val Multimap<KNode, KNode> createdCommentNodes =
+            if (addComments) Multimaps.synchronizedListMultimap(ArrayListMultimap.create()) else null
+        if (addComments) {
+            traversal.register[node |
+                if (node == kGraph || !node.children.empty) {
+                    commentsExtractor.extractComments(node, diagramSynthesis, createdCommentNodes)
+                }
+            ]
+        }
         
-        // Convert comments into nodes
-        val createdCommentNodes =
-            if (addComments)
-                commentsExtractor.extractComments(kGraph, diagramSynthesis)
-            else
-                null
+        if (options.parallelTransformation) {
+            traversal.traverseInParallel(kGraph)
+        } else {
+            traversal.traverse(kGraph)
+        }
+        
+        // The graph's root has no parent to make it portless
+        makeStatePortless(kGraph)
         
         // Flatten
         if (options.flatten) {
-            flattener.flatten(kGraph);
+            flattener.flatten(kGraph, options.junctions)
+            options.statistics.recordFlattening(flattener.removedEdges, flattener.addedEdges)
         }
         
         return createdCommentNodes
@@ -128,9 +184,9 @@ public class Ptolemy2KGraphOptimization {
     /**
      * Infers the direction of the edges in the model tree rooted at the given node.
      * 
-     * <p>First, a list of all ports of known and unknown type, all edge of unknown direction, and all
-     * relations are collected. In that process, the direction of edges connected to ports of known type
-     * is inferred.</p>
+     * <p>First, all nodes, ports, and relations are collected and a snapshot of them is taken in an
+     * {@link EdgeInferenceGraph}, on which the rest of the inference runs. The direction of edges
+     * connected to ports of known type is inferred.</p>
      * 
      * <p>Second, an attempt is made to infer the type of ports of yet unknown type. This succeeds if
      * the port is connected to an edge whose direction is known. The direction of all edges connected
@@ -143,27 +199,36 @@ public class Ptolemy2KGraphOptimization {
      * 
      * <p>Repeat at step two.</p>
      * 
+     * <p>Steps two and three only look at ports and relations that have been queued in an
+     * {@link EdgeInferenceWorklist} because one of their incident edges was fixed or reversed since
+     * they were last looked at. All other ports and relations would not change anyway. Since queued
+     * elements are visited in the order of the lists, the result is the same as if all ports and
+     * relations were looked at over and over again.</p>
+     * 
      * <p>By this time, either all edge directions have been inferred or there are some edges left whose
      * direction cannot be determined with the information available. These edges are left untouched,
-     * since we might as well leave them in the direction they currently have.</p>
+     * since we might as well leave them in the direction they currently have. Finally, the inferred
+     * port types and edge directions are written back to the graph.</p>
      * 
      * @param kGraph root of the graph.
      */
-    def private void inferEdgeDirections(KNode kGraph) {
-        val List<KPort> knownPorts = newArrayList()
-        val List<KPort> unknownPorts = newArrayList()
-        val List<KEdge> unknownEdges = newArrayList()
-        val List<KNode> unknownRelations = newArrayList()
-        
-        // STEP 1: Fill the lists
-        gatherModelElements(kGraph, knownPorts, unknownPorts, unknownEdges, unknownRelations)
-        
-        // For each known port, set the direction of its incident edges
-        for (knownPort : knownPorts) {
-            propagatePortTypeToIncidentEdges(knownPort, unknownEdges)
+    def void inferEdgeDirections(KNode kGraph) {
+        val List<KNode> nodes = newArrayList()
+        val List<KPort> ports = newArrayList()
+        val List<KNode> relations = newArrayList()
+        
+        // STEP 1: Fill the lists, take a snapshot, and set the direction of the edges incident to
+        // each port of known type
+        gatherModelElements(kGraph, nodes, ports, relations)
+        val graph = new EdgeInferenceGraph(nodes, ports, relations,
+            [p | p.markedAsInputPort], [p | p.markedAsOutputPort], [e | e.markedAsUndirected])
+        
+        for (port : 0 ..< graph.portCount) {
+            graph.propagatePortType(port, null)
         }
         
         // STEPS 2 AND 3: Infer port types and traverse relations
+        val worklist = new EdgeInferenceWorklist(graph)
         var portTypesChanged = false
         var relationsChanged = false
         var randomEdgeFixed = false
@@ -175,288 +240,145 @@ public class Ptolemy2KGraphOptimization {
          * model only contains a finite number of edges, this loop thus has to terminate.
          */
         do {
-            portTypesChanged = inferPortTypes(unknownPorts, unknownEdges)
-            relationsChanged = traverseRelations(unknownRelations, unknownEdges, true)
+            portTypesChanged = inferPortTypes(graph, worklist)
+            relationsChanged = traverseRelations(graph, worklist)
             
             if (!(portTypesChanged || relationsChanged)) {
                 // See if an edge can be randomly fixed
-                randomEdgeFixed = traverseRelations(unknownRelations, unknownEdges, false)
+                randomEdgeFixed = fixRandomEdge(graph, worklist)
             }
         } while (portTypesChanged || relationsChanged || randomEdgeFixed)
+        
+        // STEP 4: Write the results back to the graph
+        writeBack(graph)
     }
     
     /**
-     * Traverses the model, filling the given lists with interesting elements: ports of known and
-     * unknown type, edges of unknown direction, and relations with incident edges of unknown
-     * direction. The lists can then be iterated over instead of always having to iterate over the
+     * Traverses the model, filling the given lists with interesting elements: nodes, ports, and
+     * relations. The lists can then be iterated over instead of always having to iterate over the
      * whole model again and again.
      * 
      * @param root the root of the model tree.
-     * @param knownPorts list to which ports of known type are added.
-     * @param unknownPorts list to which ports of unknown type are added.
-     * @param unknownLinks list to which edges of unknown direction are added.
-     * @param unknownRelations list to which relations with incident edges of unknown direction
-     *                         are added.
+     * @param nodes list to which nodes are added, starting with the root.
+     * @param ports list to which ports are added.
+     * @param relations list to which relations are added.
      */
-    def private void gatherModelElements(KNode root, List<KPort> knownPorts, List<KPort> unknownPorts,
-        List<KEdge> unknownEdges, List<KNode> unknownRelations) {
-        
-        // Check if this node is a relation node
-        if (root.markedAsHypernode) {
-            unknownRelations.add(root)
-        }
-        
-        // Iterate over the entity's ports
-        for (port : root.ports) {
-            if (port.markedAsInputPort || port.markedAsOutputPort) {
-                knownPorts.add(port)
-            } else {
-                unknownPorts.add(port)
-            }
-        }
+    def private void gatherModelElements(KNode root, List<KNode> nodes, List<KPort> ports,
+        List<KNode> relations) {
         
-        // Iterate over the entity's outgoing edges
-        for (edge : root.outgoingEdges) {
-            if (edge.markedAsUndirected) {
-                unknownEdges.add(edge)
+        FusedTraversal.traverse(root, [node |
+            nodes.add(node)
+            
+            // Check if this node is a relation node
+            if (node.markedAsHypernode) {
+                relations.add(node)
             }
-        }
-        
-        // Recurse into child entities
-        for (child : root.children) {
-            gatherModelElements(child, knownPorts, unknownPorts, unknownEdges, unknownRelations)
-        }
+            
+            ports.addAll(node.ports)
+        ])
     }
     
     /**
-     * For a port of known type, sets the directions of its incident unknown edges accordingly. This
-     * succeeds if the port is marked as being either an input port or an output port, not both.
+     * Iterates over the queued ports of unknown type and tries to infer the type of as many ports as
+     * possible. For ports whose type is inferred, the incident edges are fixed accordingly.
      * 
-     * <p>Note that for hierarchical ports, the port type is only valid for connections to its node's
-     * environment. Children of the node must treat a hierarchical input port as being an output port,
-     * and the other way round for hierarchical output ports.</p>
-     * 
-     * @param port the port.
-     * @param unknownEdges list of edges with unknown direction. Edges whose direction is set are
-     *                     removed from this list.
-     * @return {@code true} if at least one edge's direction is fixed or reversed.
+     * @param graph the graph the inference runs on.
+     * @param worklist the worklist. Ports whose type is set are marked as resolved.
+     * @return {@code true} if at least one edge's direction is fixed.
      */
-    def private boolean propagatePortTypeToIncidentEdges(KPort port, List<KEdge> unknownEdges) {
-        val List<KEdge> edgesToBeReversed = newArrayList()
-        val List<KEdge> edgesToBeKept = newArrayList()
+    def private boolean inferPortTypes(EdgeInferenceGraph graph, EdgeInferenceWorklist worklist) {
         var result = false
         
-        if (port.markedAsInputPort && !port.markedAsOutputPort) {
-            // Edges connected to the node's inside must be outgoing, edges connected to the node's
-            // outside must be incoming
-            for (edge : port.edges) {
-                if (port.node.children.contains(edge.source)) {
-                    edgesToBeReversed += edge
-                } else if (edge.sourcePort == port && port.node.parent !== null
-                    && port.node.parent.children.contains(edge.target)) {
-                    
-                    edgesToBeReversed += edge
-                } else {
-                    edgesToBeKept += edge
-                }
-            }
-        } else if (port.markedAsOutputPort && !port.markedAsInputPort) {
-            // Edges connected to the node's inside must be incoming, edges connected to the node's
-            // outside must be outgoing
-            for (edge : port.edges) {
-                if (port.node.children.contains(edge.target)) {
-                    edgesToBeReversed += edge
-                } else if (edge.targetPort == port && port.node.parent !== null
-                    && port.node.parent.children.contains(edge.source)) {
-                    
-                    edgesToBeReversed += edge
-                } else {
-                    edgesToBeKept += edge
+        // Ports queued while we're at it are looked at in this pass if they come after the current
+        // port, just like a pass over the whole list would
+        var index = worklist.dequeuePort(0)
+        while (index >= 0) {
+            // Look at incident edges of known direction first, and at the port's name second
+            if (!graph.inferPortType(index)) {
+                val name = graph.getPort(index).name
+                if (isInputPortName(name)) {
+                    graph.markAsInputPort(index)
+                } else if (isOutputPortName(name)) {
+                    graph.markAsOutputPort(index)
                 }
             }
-        }
-        
-        // Reverse edges and mark as directed
-        for (edge : edgesToBeReversed) {
-            edge.reverseEdge()
-            result = true
             
-            if (edge.markedAsUndirected) {
-                edge.markAsUndirected(false)
-                unknownEdges.remove(edge)
-            }
-        }
-        
-        // Mark remaining edges as directed
-        for (edge : edgesToBeKept) {
-            if (edge.markedAsUndirected) {
-                edge.markAsUndirected(false)
-                unknownEdges.remove(edge)
-                result = true
+            // If the port's type is now known, remove it from the ports of unknown type and fix
+            // incident edge directions accordingly
+            if (graph.isTypeKnown(index)) {
+                worklist.resolvePort(index)
+                result = graph.propagatePortType(index, worklist) || result
             }
+            
+            index = worklist.dequeuePort(index + 1)
         }
         
         return result
     }
     
     /**
-     * Iterates over the given list of ports of unknown type and tries to infer the type of as many
-     * ports as possible. For ports whose type is inferred, the incident edges are fixed accordingly.
+     * Iterates over the queued relations and tries to infer edge directions conservatively. See
+     * {@link EdgeInferenceGraph#inferRelationEdgeDirections(int, boolean, EdgeInferenceWorklist)}
+     * for details.
      * 
-     * @param unknownPorts list of unknown ports. Ports whose type is set are removed from this list.
-     * @param unknownEdges list of edges with unknown direction. Edges whose direction is set are
-     *                     removed from this list.
-     * @return {@code true} if at least one edge's direction is fixed.
+     * @param graph the graph the inference runs on.
+     * @param worklist the worklist.
+     * @return {@code true} if at least one edge's direction is fixed or reversed.
      */
-    def private boolean inferPortTypes(List<KPort> unknownPorts, List<KEdge> unknownEdges) {
+    def private boolean traverseRelations(EdgeInferenceGraph graph, EdgeInferenceWorklist worklist) {
         var result = false
         
-        // Iterate over all the ports of unknown type using a list iterator, since we want to be able
-        // to remove ports from the list in the process
-        val unknownPortsIterator = unknownPorts.listIterator
-        while (unknownPortsIterator.hasNext()) {
-            val unknownPort = unknownPortsIterator.next()
-            val directedIncomingEdge = getFirstDirectedEdge(unknownPort.edges.filter(
-                [e | e.targetPort == unknownPort]))
-            val directedOutgoingEdge = getFirstDirectedEdge(unknownPort.edges.filter(
-                [e | e.sourcePort == unknownPort]))
-            
-            if (directedIncomingEdge !== null) {
-                // The port has an incoming edge of known direction!
-                if (unknownPort.node.children.contains(directedIncomingEdge.source)) {
-                    // Connection from the inside -> the port is an output port
-                    unknownPort.markAsOutputPort(true)
-                } else {
-                    // Connection from the outside -> the port is an input port
-                    unknownPort.markAsInputPort(true)
-                }
-            } else if (directedOutgoingEdge !== null) {
-                // The port has an outgoing edge of known direction!
-                if (unknownPort.node.children.contains(directedOutgoingEdge.target)) {
-                    // Connection to the inside -> the port is an input port
-                    unknownPort.markAsInputPort(true)
-                } else {
-                    // Connection to the outside -> the port is an output port
-                    unknownPort.markAsOutputPort(true)
-                }
-            } else if (isInputPortName(unknownPort.name)) {
-                // The port is named like an input port -> mark as input port
-                unknownPort.markAsInputPort(true)
-            } else if (isOutputPortName(unknownPort.name)) {
-                // The port is named like an output port -> mark as output port
-                unknownPort.markAsOutputPort(true)
-            }
-            
-            // If the port's type is now known, fix incident edge directions accordingly and remove
-            // from the list of unknown ports
-            if (unknownPort.markedAsInputPort ||unknownPort.markedAsOutputPort) {
-                result = propagatePortTypeToIncidentEdges(unknownPort, unknownEdges) || result
-                unknownPortsIterator.remove()
-            }
+        // Relations queued while we're at it are looked at in this pass if they come after the
+        // current relation, just like a pass over the whole list would
+        var index = worklist.dequeueRelation(0)
+        while (index >= 0) {
+            result = graph.inferRelationEdgeDirections(index, true, worklist) || result
+            index = worklist.dequeueRelation(index + 1)
         }
         
         return result
     }
     
     /**
-     * Iterates over the list of relations with unknown edges and tries to infer edge directions. This is
-     * done by looking for relations with only incoming or only outgoing edges whose direction is known,
-     * and edges whose direction is unknown. This method can operate in two different modes regarding
-     * the number of edges with unknown direction.
-     * 
-     * <p>The first mode is conservative. For each undirected edge it only fixes its direction if it
-     * is the only undirected edge incident to a relation. This is the safe mode of operation.</p>
+     * Fixes the direction of an edge incident to the first relation that has both edges of known and
+     * of unknown direction. This is used to fix an edge's direction if the other methods cannot infer
+     * any more edge directions.
      * 
-     * <p>The second mode also accepts relations with more than one incident undirected edge. It takes
-     * the first of them, sets its direction and returns, thereby only fixing the direction of at most
-     * one edge in the whole model. This mode is used to fix an edge's direction if the other methods
-     * cannot infer any more edge directions.</p>
+     * @param graph the graph the inference runs on.
+     * @param worklist the worklist.
+     * @return {@code true} if at least one edge's direction is fixed.
+     */
+    def private boolean fixRandomEdge(EdgeInferenceGraph graph, EdgeInferenceWorklist worklist) {
+        val index = worklist.firstMixedRelation
+        return index >= 0 && graph.inferRelationEdgeDirections(index, false, worklist)
+    }
+    
+    /**
+     * Marks the ports whose type has been inferred accordingly, reverses the edges that have been
+     * reversed an odd number of times, and marks the edges whose direction has been fixed as directed.
      * 
-     * @param unknownRelation list of relations with unknown incident edges. Relations whose incident
-     *                        edges are all fixed are removed from this list.
-     * @param unknownEdges list of edges with unknown direction. Edges whose direction is set are
-     *                     removed from this list.
-     * @param conservative if {@code false}, operates in a mode that fixes a single edge more or less
-     *                     at random, if possible.
-     * @return {@code true} if at least one edge's direction is fixed or reversed.
+     * @param graph the graph the inference ran on.
      */
-    def private boolean traverseRelations(List<KNode> unknownRelations, List<KEdge> unknownEdges,
-        boolean conservative) {
-        
-        var result = false
-        
-        // Iterate over all the relations with incident edges of unknown direction using a list
-        // iterator, since we want to be able to remove relations from the list in the process
-        val unknownRelationsIterator = unknownRelations.listIterator
-        while (unknownRelationsIterator.hasNext()) {
-            val unknownRelation = unknownRelationsIterator.next()
-            var fixedEdgeInThisIteration = false
-            
-            // Find all incident edges of known direction
-            val fixedIncomingEdges = unknownRelation.incomingEdges.filter(l | !l.markedAsUndirected)
-            val fixedOutgoingEdges = unknownRelation.outgoingEdges.filter(l | !l.markedAsUndirected)
-            val undirectedIncidentEdges =
-                unknownRelation.incidentEdges.filter(l | l.markedAsUndirected)
-            
-            // If there is only one undirected incident edge...
-            val undirectedIncidentEdgesSize = undirectedIncidentEdges.size
-            
-            if ((conservative && undirectedIncidentEdgesSize == 1)
-                || (!conservative && undirectedIncidentEdgesSize > 0)) {
-                
-                val undirectedEdge = undirectedIncidentEdges.iterator().next()
-                
-                // ...and only incoming or outgoing directed edges...
-                if (fixedIncomingEdges.size > 0 && fixedOutgoingEdges.size == 0) {
-                    // ...the undirected edge must be outgoing
-                    if (undirectedEdge.source != unknownRelation) {
-                        undirectedEdge.reverseEdge()
-                    }
-                    
-                    undirectedEdge.markAsUndirected(false)
-                    unknownEdges.remove(undirectedEdge)
-                    fixedEdgeInThisIteration = true
-                } else if (fixedOutgoingEdges.size > 0 && fixedIncomingEdges.size == 0) {
-                    // ...the undirected edge must be incoming
-                    if (undirectedEdge.target != unknownRelation) {
-                        undirectedEdge.reverseEdge()
-                    }
-                    
-                    undirectedEdge.markAsUndirected(false)
-                    unknownEdges.remove(undirectedEdge)
-                    fixedEdgeInThisIteration = true
-                } else if (fixedIncomingEdges.size > 0) {
-                    // ...the remaining edges should be outgoing
-                    for (edge : undirectedIncidentEdges) {
-                        if (edge.source != unknownRelation) {
-                            edge.reverseEdge()
-                        }
-                        
-                        edge.markAsUndirected(false)
-                        unknownEdges.remove(edge)
-                        fixedEdgeInThisIteration = true
-                    }
-                }
+    def private void writeBack(EdgeInferenceGraph graph) {
+        for (index : 0 ..< graph.portCount) {
+            val port = graph.getPort(index)
+            if (graph.isInputPort(index) && !port.markedAsInputPort) {
+                port.markAsInputPort(true)
             }
-            
-            // Check if we fixed an edge
-            if (fixedEdgeInThisIteration) {
-                result = true
-                
-                // Remove relation from the list of unknown relations if all edge directions are
-                // now fixed
-                if (undirectedIncidentEdgesSize == 1) {
-                    unknownRelationsIterator.remove()
-                }
-                
-                // If we're not in conservative mode, return without touching further edges
-                if (!conservative) {
-                    return result
-                }
+            if (graph.isOutputPort(index) && !port.markedAsOutputPort) {
+                port.markAsOutputPort(true)
             }
         }
         
-        return result
+        for (index : 0 ..< graph.edgeCount) {
+            val edge = graph.getEdge(index)
+            if (graph.isReversed(index)) {
+                edge.reverseEdge()
+            }
+            if (!graph.isUndirected(index) && edge.markedAsUndirected) {
+                edge.markAsUndirected(false)
+            }
+        }
     }
     
     
@@ -464,10 +386,10 @@ public class Ptolemy2KGraphOptimization {
     // Removal of Unnecessary Relations
     
     /**
-     * Recursively removes unnecessary relations in the model rooted at the given node. Unnecessary
-     * relations are those that have one incoming and one outgoing edge.
+     * Removes unnecessary relations among the children of the given node. Unnecessary relations are
+     * those that have one incoming and one outgoing edge.
      * 
-     * @param root the model's root node. 
+     * @param root the node whose child relations to look at.
      */
     def private void removeUnnecessaryRelations(KNode root) {
         val relationsIterator = root.children.filter([c | c.markedAsHypernode]).iterator
@@ -503,11 +425,6 @@ public class Ptolemy2KGraphOptimization {
         for (node : nodesToBeRemoved) {
             root.children.remove(node)
         }
-        
-        // Recurse into child nodes
-        for (child : root.children) {
-            removeUnnecessaryRelations(child)
-        }
     }
     
     
@@ -515,12 +432,17 @@ public class Ptolemy2KGraphOptimization {
     // Removal of All Relations
     
     /**
-     * Recursively removes unnecessary relations in the model rooted at the given node. Unnecessary
-     * relations are those that have one incoming and one outgoing edge.
+     * Removes all relations among the children of the given node, replacing them by edges that
+     * connect their sources to their targets.
      * 
-     * @param root the model's root node. 
+     * @param root the node whose child relations to remove.
      */
     def private void removeAllRelations(KNode root) {
+        // Only compound nodes can contain relations
+        if (root.children.empty) {
+            return
+        }
+        
         /* Several Steps:
          * 1. Divide relations into groups. All relations of a particular group belong to
          *    one hyperedge. Also gather all connection points to non-relation nodes. Note
@@ -529,7 +451,8 @@ public class Ptolemy2KGraphOptimization {
          *    during edge direction inference.
          *    This step is outsourced to HyperedgeGatherer.
          * 2. Iterate over hyperedges. Remove all relations and edges and add new edges that
-         *    connect all source nodes and ports to all target nodes and ports.
+         *    connect all source nodes and ports to all target nodes and ports. If that would
+         *    result in a lot of edges, connect them through a junction node instead.
          */
         
         // 1. Gather hyperedges
@@ -579,58 +502,110 @@ public class Ptolemy2KGraphOptimization {
                 }
                 
                 // Add new edges
-                for (sourceNode : hyperedge.sourceNodes) {
-                    for (targetNode : hyperedge.targetNodes) {
-                        val newEdge = KGraphUtil::createInitializedEdge()
-                        newEdge.annotations += relationAnnotations
-                        
-                        newEdge.source = sourceNode
-                        
-                        newEdge.target = targetNode
-                    }
-                    
-                    for (targetPort : hyperedge.targetPorts) {
-                        val newEdge = KGraphUtil::createInitializedEdge()
-                        newEdge.annotations += relationAnnotations
-                        
-                        newEdge.source = sourceNode
-                        
-                        newEdge.target = targetPort.node
-                        newEdge.targetPort = targetPort
-                    }
-                }
-                
-                for (sourcePort : hyperedge.sourcePorts) {
-                    for (targetNode : hyperedge.targetNodes) {
-                        val newEdge = KGraphUtil::createInitializedEdge()
-                        newEdge.annotations += relationAnnotations
-                        
-                        newEdge.source = sourcePort.node
-                        newEdge.sourcePort = sourcePort
-                        
-                        newEdge.target = targetNode
-                    }
-                    
-                    for (targetPort : hyperedge.targetPorts) {
-                        val newEdge = KGraphUtil::createInitializedEdge()
-                        newEdge.annotations += relationAnnotations
-                        
-                        newEdge.source = sourcePort.node
-                        newEdge.sourcePort = sourcePort
-                        
-                        newEdge.target = targetPort.node
-                        newEdge.targetPort = targetPort
-                    }
+                if (joinInJunction(root, hyperedge)) {
+                    addJunction(root, hyperedge)
+                } else {
+                    addCrossProductEdges(hyperedge, relationAnnotations)
                 }
             }
         }
+    }
+    
+    
+    /**
+     * Checks whether the given hyperedge should be replaced by a junction node instead of an edge from
+     * each of its sources to each of its targets. This is the case if junctions are enabled and if that
+     * results in fewer edges. State transitions are never joined.
+     * 
+     * @param root the node that contains the hyperedge's relations.
+     * @param hyperedge the hyperedge.
+     * @return {@code true} if a junction node should be used.
+     */
+    def private boolean joinInJunction(KNode root, Hyperedge hyperedge) {
+        val sources = hyperedge.sourceNodes.size + hyperedge.sourcePorts.size
+        val targets = hyperedge.targetNodes.size + hyperedge.targetPorts.size
         
-        // Recurse into sub-levels
-        for (node : root.children) {
-            if (!node.children.empty) {
-                removeAllRelations(node)
+        return options.junctions
+            && !root.markedAsStateMachineContainer
+            && sources * targets > sources + targets
+    }
+    
+    /**
+     * Replaces the given hyperedge by a junction node with an edge from each of the hyperedge's sources
+     * and an edge to each of its targets.
+     * 
+     * @param root the node that contained the hyperedge's relations.
+     * @param hyperedge the hyperedge.
+     */
+    def private void addJunction(KNode root, Hyperedge hyperedge) {
+        val junction = KGraphUtil::createInitializedNode()
+        junction.markAsJunction()
+        root.children += junction
+        
+        for (sourceNode : hyperedge.sourceNodes) {
+            addEdge(sourceNode, null, junction, null, null)
+        }
+        for (sourcePort : hyperedge.sourcePorts) {
+            addEdge(sourcePort.node, sourcePort, junction, null, null)
+        }
+        for (targetNode : hyperedge.targetNodes) {
+            addEdge(junction, null, targetNode, null, null)
+        }
+        for (targetPort : hyperedge.targetPorts) {
+            addEdge(junction, null, targetPort.node, targetPort, null)
+        }
+    }
+    
+    /**
+     * Replaces the given hyperedge by an edge from each of its sources to each of its targets.
+     * 
+     * @param hyperedge the hyperedge.
+     * @param relationAnnotations annotations to add to each new edge.
+     */
+    def private void addCrossProductEdges(Hyperedge hyperedge, List<PropertyType> relationAnnotations) {
+        for (sourceNode : hyperedge.sourceNodes) {
+            for (targetNode : hyperedge.targetNodes) {
+                addEdge(sourceNode, null, targetNode, null, relationAnnotations)
+            }
+            
+            for (targetPort : hyperedge.targetPorts) {
+                addEdge(sourceNode, null, targetPort.node, targetPort, relationAnnotations)
             }
         }
+        
+        for (sourcePort : hyperedge.sourcePorts) {
+            for (targetNode : hyperedge.targetNodes) {
+                addEdge(sourcePort.node, sourcePort, targetNode, null, relationAnnotations)
+            }
+            
+            for (targetPort : hyperedge.targetPorts) {
+                addEdge(sourcePort.node, sourcePort, targetPort.node, targetPort, relationAnnotations)
+            }
+        }
+    }
+    
+    /**
+     * Adds a new edge between the given nodes and ports.
+     * 
+     * @param source the source node.
+     * @param sourcePort the source port, or {@code null} if the edge connects to the node directly.
+     * @param target the target node.
+     * @param targetPort the target port, or {@code null} if the edge connects to the node directly.
+     * @param annotations annotations to add to the edge, or {@code null} if there are none.
+     */
+    def private void addEdge(KNode source, KPort sourcePort, KNode target, KPort targetPort,
+        List<PropertyType> annotations) {
+        
+        val newEdge = KGraphUtil::createInitializedEdge()
+        if (annotations !== null) {
+            newEdge.annotations += annotations
+        }
+        
+        newEdge.source = source
+        newEdge.sourcePort = sourcePort
+        
+        newEdge.target = target
+        newEdge.targetPort = targetPort
     }
     
     
@@ -638,13 +613,12 @@ public class Ptolemy2KGraphOptimization {
     // Removal of State Ports
     
     /**
-     * Removes ports from nodes representing modal model states in the model rooted at the given root
-     * entity. Also, nodes containing such states are annotated for the layout algorithm to know to
-     * use a layout algorithm for state machines.
+     * Removes the ports from the given node if it represents a modal model state. Since a state's
+     * ports only connect it to its siblings, this is done while looking at the state's parent.
      * 
-     * @param root the model tree's root entity.
+     * @param root the node.
      */
-    def private void makeStatesPortless(KNode root) {
+    def private void makeStatePortless(KNode root) {
         // Check if we have a Ptolemy state
         if (root.markedAsState) {
             // Iterate over the state's ports
@@ -665,11 +639,6 @@ public class Ptolemy2KGraphOptimization {
             // Get rid of the state's ports
             root.ports.clear()
         }
-        
-        // Recurse into child nodes
-        for (child : root.children) {
-            makeStatesPortless(child)
-        }
     }
     
     
@@ -677,11 +646,11 @@ public class Ptolemy2KGraphOptimization {
     // Transformation of Certain Annotations into Nodes
     
     /**
-     * Converts certain annotations into nodes of their own right. In particular, Ptolemy directors and
-     *  parameters are persisted as annotations in Ptolemy models, but need to be nodes in KGraph 
-     * models to be correctly displayed.
+     * Converts certain annotations of the given node into nodes of their own right. In particular,
+     * Ptolemy directors and parameters are persisted as annotations in Ptolemy models, but need to be
+     * nodes in KGraph models to be correctly displayed.
      * 
-     * @param root root element of the model to look for convertible annotations in.
+     * @param root the node to look for convertible annotations in.
      * @param addTitleElement {@code true} if any title annotations should be converted into
      *                        corresponding comment nodes; {@code false} if such an annotation should
      *                        simply be ignored.
@@ -690,8 +659,14 @@ public class Ptolemy2KGraphOptimization {
     def private void convertAnnotationsToNodes(KNode root, boolean addTitleElement, 
         AbstractDiagramSynthesis<?> diagramSynthesis) {
             
-        // Only consider nodes that were not themselves created from annotations
-        if (root.markedAsFormerAnnotationNode) {
+        // Only consider nodes that were not themselves created from annotations or comments
+        if (root.markedAsFormerAnnotationNode || root.markedAsComment) {
+            return
+        }
+        
+        // Nodes whose contents have not been added yet have their annotations converted once the
+        // contents are added
+        if (root.getProperty(DEFERRED_CONTENTS) !== null) {
             return
         }
         
@@ -708,7 +683,7 @@ public class Ptolemy2KGraphOptimization {
                 
                 // Create a new node for it
                 val directorNode = KGraphUtil::createInitializedNode()
-                diagramSynthesis.associateWith(directorNode, annotation);
+                diagramSynthesis.associateSafely(directorNode, annotation);
                 
                 // Set the name and mark it as a Ptolemy element, as a director and as having been 
                 //created from an annotation node
@@ -734,7 +709,7 @@ public class Ptolemy2KGraphOptimization {
 
                 // Create a new node for it
                 val documentationNode = KGraphUtil::createInitializedNode()
-                diagramSynthesis.associateWith(documentationNode, annotation);
+                diagramSynthesis.associateSafely(documentationNode, annotation);
 
                 // Mark it as a Ptolemy element, as a documentation node and as having been 
                 //created from an annotation node
@@ -759,7 +734,7 @@ public class Ptolemy2KGraphOptimization {
                 
                 // Create a node for it
                 val titleNode = KGraphUtil.createInitializedNode();
-                diagramSynthesis.associateWith(titleNode, annotation);
+                diagramSynthesis.associateSafely(titleNode, annotation);
                 
                 // Set the name, add language annotation and mark it as having been created from an 
                 //annotation and as a comment, specifically as a title node
@@ -793,7 +768,7 @@ public class Ptolemy2KGraphOptimization {
                 
                 //Create a node for it
                 val solverNode = KGraphUtil.createInitializedNode();
-                diagramSynthesis.associateWith(solverNode, annotation);
+                diagramSynthesis.associateSafely(solverNode, annotation);
                 
                 // Set the name, add language annotation and mark it as having been created from
                 // an annotation
@@ -831,10 +806,5 @@ public class Ptolemy2KGraphOptimization {
             // Add the new node to the root element
             root.children += parameterNode
         }
-        
-        // Recurse into child nodes
-        for (child : root.children) {
-            convertAnnotationsToNodes(child, addTitleElement, diagramSynthesis)
-        }
     }
 }
@@ -28,7 +28,15 @@ import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.LabelExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MiscellaneousExtensions
 import java.util.ArrayList
+import java.util.Collections
+import java.util.HashMap
+import java.util.HashSet
 import java.util.List
+import java.util.Map
+import java.util.Set
+import java.util.concurrent.Callable
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ForkJoinTask
 import org.eclipse.core.runtime.CoreException
 import org.eclipse.core.runtime.IStatus
 import org.eclipse.core.runtime.Status
@@ -43,6 +51,7 @@ import org.ptolemy.moml.PortType
 import org.ptolemy.moml.PropertyType
 import org.ptolemy.moml.RelationType
 
+import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
 import static de.cau.cs.kieler.ptolemy.klighd.transformation.util.TransformationConstants.*
 
 /**
@@ -99,7 +108,7 @@ class Ptolemy2KGraphTransformation {
      * List of warnings collected during the transformation. These will usually only be warnings about
      * actors that couldn't be instantiated.
      */
-    List<IStatus> warnings = new ArrayList<IStatus>()
+    List<IStatus> warnings = Collections.synchronizedList(new ArrayList<IStatus>())
     
     /**
      * The diagram synthesis from which this transformation is called. Used to save the mapping from
@@ -108,9 +117,38 @@ class Ptolemy2KGraphTransformation {
     AbstractDiagramSynthesis<?> diagramSynthesis = null
     
     /**
-     * List of locally defined classes, which can be reused multiple times.
+     * Locally defined classes, which can be reused multiple times, indexed by name. If several classes
+     * share a name, the first one wins.
      */
-    List<KNode> actorClasses = new ArrayList<KNode>();
+    Map<String, KNode> actorClasses = new HashMap<String, KNode>()
+    
+    /**
+     * The deferred contents of each locally defined class. Instances of a class all share the same
+     * deferred contents.
+     */
+    Map<KNode, DeferredClassContents> deferredContents =
+        new ConcurrentHashMap<KNode, DeferredClassContents>()
+    
+    /**
+     * Children of composite nodes, indexed by name. The index of a composite node is built when its
+     * links are transformed, at which point all of its children have been transformed. If several
+     * children share a name, the first one wins, just as with a linear search.
+     */
+    Map<KNode, Map<String, KNode>> childrenByName = new ConcurrentHashMap<KNode, Map<String, KNode>>()
+    
+    /**
+     * Ports of nodes, indexed by name. The index of a node is built when a link first references one
+     * of its ports and is kept up to date as ports are created afterwards.
+     */
+    Map<KNode, Map<String, KPort>> portsByName = new ConcurrentHashMap<KNode, Map<String, KPort>>()
+    
+    /**
+     * Entities that contain class definitions somewhere below them, or {@code null} if the
+     * transformation runs sequentially. Transforming such an entity registers classes that entities
+     * transformed later on may be instances of. Such entities are thus never transformed in parallel
+     * to their siblings.
+     */
+    Set<EntityType> classDefiningEntities = null
     
     
     ////////////////////////////////////////////////////////////////////////////////////////////////////
@@ -133,6 +171,14 @@ class Ptolemy2KGraphTransformation {
         
         this.options = opts
         this.diagramSynthesis = synthesis
+        ptolemy.statistics = options.statistics
+        
+        // Actors are instantiated in the background while the model is being transformed
+        ptolemy.prefetchPortSignatures(ptDocumentRoot)
+        
+        if (options.parallelTransformation) {
+            classDefiningEntities = findClassDefiningEntities(ptDocumentRoot)
+        }
         
         // A Ptolemy document can contain an entity or a class, so transform those and add the
         // transformed objects as the KGraph's children
@@ -156,7 +202,7 @@ class Ptolemy2KGraphTransformation {
      * @return the KGraph node.
      */
     def private create kNode : KGraphUtil::createInitializedNode() transform(EntityType ptEntity) {
-        diagramSynthesis.associateWith(kNode, ptEntity)
+        diagramSynthesis.associateSafely(kNode, ptEntity)
         kNode.name = ptEntity.name
        
         // Add annotations identifying this node as having been created from a Ptolemy entity
@@ -210,6 +256,7 @@ class Ptolemy2KGraphTransformation {
                     kNode.children += transformRefinementPort(transformedRefinement.ports.get(0))
                 }
                 kNode.annotations += transformedRefinement.annotations
+                transformedRefinement.copyMarkers(kNode)
                 
                 // Check if the refinement is itself a state machine
                 val refinementClass = Strings.nullToEmpty(transformedRefinement.getAnnotationValue(
@@ -228,13 +275,115 @@ class Ptolemy2KGraphTransformation {
                 kNode.addChildRelations(ptEntity.relation)
                 kNode.addChildLinks(ptEntity.link)
             }
+        } else if (kNode.isContentsDeferrable(ptEntity)) {
+            // The contents are only transformed once the node is first expanded
+            kNode.setProperty(DEFERRED_CONTENTS,
+                new DeferredEntityContents(ptEntity, actorClasses, deferredContents, options,
+                    diagramSynthesis))
         } else {
-            // Add the required relations, links, and child entities
-            actorClasses.addAll(ptEntity.class_.map[c | transform(c)])
-            kNode.addChildEntities(ptEntity.entity)
-            kNode.addChildRelations(ptEntity.relation)
-            kNode.addChildLinks(ptEntity.link)
+            transformContents(kNode, ptEntity)
+        }
+    }
+    
+    /**
+     * Transforms the contents of the given Ptolemy entity, that is, its locally defined classes, its
+     * child entities, relations and links, and adds them to the given node. Called while the entity
+     * itself is transformed, or later on if the transformation of its contents has been deferred.
+     * 
+     * @param kNode the node the entity was transformed into.
+     * @param ptEntity the Ptolemy entity whose contents to transform.
+     */
+    def void transformContents(KNode kNode, EntityType ptEntity) {
+        // Add the required relations, links, and child entities
+        ptEntity.class_.forEach[c | addActorClass(transform(c))]
+        kNode.addChildEntities(ptEntity.entity)
+        kNode.addChildRelations(ptEntity.relation)
+        kNode.addChildLinks(ptEntity.link)
+    }
+    
+    /**
+     * Transforms the contents of the given Ptolemy entity, whose transformation has been deferred
+     * until the entity is first expanded, and adds them to the given node. This is done by a new
+     * transformation bound to the options and diagram synthesis of the run that displays the node,
+     * which only knows about the locally defined classes known to the transformation the entity was
+     * transformed by.
+     * 
+     * @param kNode the node the entity was transformed into.
+     * @param ptEntity the Ptolemy entity whose contents to transform.
+     * @param classes the locally defined classes known when the entity was transformed.
+     * @param classContents the deferred contents of those classes.
+     * @param synthesis the diagram synthesis displaying the node.
+     * @param opts the options the contents are to be transformed with.
+     * @throws IllegalStateException if this class's instance has already been used.
+     */
+    def void transformDeferredContents(KNode kNode, EntityType ptEntity, Map<String, KNode> classes,
+        Map<KNode, DeferredClassContents> classContents, AbstractDiagramSynthesis<?> synthesis,
+        Options opts) {
+        
+        if (alreadyUsed) {
+            throw new IllegalStateException("Transformations cannot be reused.")
+        }
+        
+        this.options = opts
+        this.diagramSynthesis = synthesis
+        ptolemy.statistics = options.statistics
+        
+        // Classes defined by the contents must not leak into other transformations, and instances of
+        // known classes must be synthesized by this run
+        actorClasses.putAll(classes)
+        classContents.forEach[c, contents |
+            deferredContents.put(c, contents.rebind(opts, synthesis) as DeferredClassContents)
+        ]
+        
+        if (options.parallelTransformation) {
+            classDefiningEntities = findClassDefiningEntities(ptEntity)
+        }
+        
+        transformContents(kNode, ptEntity)
+    }
+    
+    /**
+     * Checks whether the transformation of the given entity's contents can be deferred until the
+     * entity is first expanded. This is not the case for the model's root entity, for entities
+     * without child entities, for refinements of modal model states, whose contents are moved into
+     * the states, and for anything inside a class, since classes are copied into their instances.
+     * 
+     * <p>Neither is it the case for entities with ports of unknown type. The type of such a port is
+     * inferred from the relations and links inside the entity, which have to exist when the edge
+     * directions outside the entity are inferred for them to be inferred correctly.</p>
+     * 
+     * @param kNode the node the entity was transformed into, with its ports already added.
+     * @param ptEntity the Ptolemy entity.
+     * @return {@code true} if the entity's contents can be transformed later.
+     */
+    def private boolean isContentsDeferrable(KNode kNode, EntityType ptEntity) {
+        if (!options.deferringContents || ptEntity.entity.empty) {
+            return false
+        }
+        
+        if (!kNode.ports.forall[p | p.markedAsInputPort || p.markedAsOutputPort]) {
+            return false
+        }
+        
+        val parent = ptEntity.eContainer
+        if (!(parent instanceof EntityType)) {
+            return false
         }
+        
+        val parentClass = (parent as EntityType).class1
+        if (parentClass == ENTITY_CLASS_MODAL_MODEL || parentClass == ENTITY_CLASS_FSM_MODAL_MODEL) {
+            return false
+        }
+        
+        var EObject ancestor = parent
+        while (ancestor !== null) {
+            if (ancestor instanceof ClassType) {
+                return false
+            }
+            ancestor = ancestor.eContainer
+        }
+        
+        return true
     }
     
     /**
@@ -254,7 +403,7 @@ class Ptolemy2KGraphTransformation {
         kNode.markAsPtolemyElement()
         
         var extendedClass = ptClass.^extends
-        val matchingLocalClass = actorClasses.findFirst[c | c.name == ptClass.^extends]
+        val matchingLocalClass = actorClasses.get(ptClass.^extends)
         if (matchingLocalClass !== null) {
             extendedClass = matchingLocalClass.getAnnotation(ANNOTATION_PTOLEMY_CLASS).value
         }
@@ -305,6 +454,7 @@ class Ptolemy2KGraphTransformation {
                     kNode.children += transformRefinementPort(transformedRefinement.ports.get(0))
                 }
                 kNode.annotations += transformedRefinement.annotations
+                transformedRefinement.copyMarkers(kNode)
                 
                 // Check if the refinement is itself a state machine
                 val refinementClass = Strings.nullToEmpty(transformedRefinement.getAnnotationValue(
@@ -318,7 +468,7 @@ class Ptolemy2KGraphTransformation {
             }
         } else {
             // Add the required relations, links, and child entities
-            actorClasses.addAll(ptClass.class_.map[c | transform(c)])
+            ptClass.class_.forEach[c | addActorClass(transform(c))]
             kNode.addChildEntities(ptClass.entity)
             kNode.addChildRelations(ptClass.relation)
             kNode.addChildLinks(ptClass.link)
@@ -332,7 +482,7 @@ class Ptolemy2KGraphTransformation {
      * @return the KGraph node.
      */
     def private create kNode : KGraphUtil::createInitializedNode() transform(RelationType ptRelation) {
-        diagramSynthesis.associateWith(kNode, ptRelation)
+        diagramSynthesis.associateSafely(kNode, ptRelation)
         kNode.name = ptRelation.name
         
         // Add annotation identifying this relation as having been created from a Ptolemy relation
@@ -369,9 +519,9 @@ class Ptolemy2KGraphTransformation {
         
         // Fetch the relations and ports this link connects (since we cannot always get reliable port
         // information from all actors, the port might not exist yet and would then be created)
-        val kRelation = kParent.children.findFirst(r | r.name.equals(ptLink.relation))
-        val kRelation1 = kParent.children.findFirst(r | r.name.equals(ptLink.relation1))
-        val kRelation2 = kParent.children.findFirst(r | r.name.equals(ptLink.relation2))
+        val kRelation = kParent.getChildByName(ptLink.relation)
+        val kRelation1 = kParent.getChildByName(ptLink.relation1)
+        val kRelation2 = kParent.getChildByName(ptLink.relation2)
         val kPort =
             if (ptLink.port === null) {
                 null
@@ -433,7 +583,7 @@ class Ptolemy2KGraphTransformation {
      */
     def private create kPort : KGraphUtil::createInitializedPort() transform(PortType ptPort) {
         kPort.name = ptPort.name
-        diagramSynthesis.associateWith(kPort, ptPort);
+        diagramSynthesis.associateSafely(kPort, ptPort);
         
         // Add annotation identifying this port as having been created from a Ptolemy port
         kPort.markAsPtolemyElement()
@@ -492,7 +642,7 @@ class Ptolemy2KGraphTransformation {
             
             case 2:
                 // We have an actor name; try to find it
-                kparent.children.findFirst(a | a.name.equals(nameParts.get(0)))
+                kparent.getChildByName(nameParts.get(0))
         }
         
         // If the actor is null, raise an error!
@@ -507,7 +657,7 @@ class Ptolemy2KGraphTransformation {
         
         // Find the port
         val portName = nameParts.get(nameParts.size() - 1)
-        val port = kActor.ports.findFirst(p | p.name.equals(portName))
+        val port = kActor.getPortByName(portName)
         
         // If the port is null, create it
         if (port === null) {
@@ -534,9 +684,58 @@ class Ptolemy2KGraphTransformation {
         result.markAsPtolemyElement()
         result.node = kNode
         
+        // Keep the port index up to date, if there is one already
+        portsByName.get(kNode)?.putIfAbsent(name, result)
+        
         result
     }
     
+    /**
+     * Returns the child of the given node with the given name. The first call for a given node builds
+     * an index of its children, which must thus all have been transformed already.
+     * 
+     * @param kParent the node whose children to search.
+     * @param name the name of the child to find.
+     * @return the first child with the given name, or {@code null} if there is none.
+     */
+    def private KNode getChildByName(KNode kParent, String name) {
+        if (name === null) {
+            return null
+        }
+        
+        var index = childrenByName.get(kParent)
+        if (index === null) {
+            index = new HashMap<String, KNode>()
+            for (child : kParent.children) {
+                index.putIfAbsent(child.name, child)
+            }
+            childrenByName.put(kParent, index)
+        }
+        
+        index.get(name)
+    }
+    
+    /**
+     * Returns the port of the given node with the given name. The first call for a given node builds
+     * an index of its ports, which is kept up to date by {@link #createPort(KNode, String, int)}.
+     * 
+     * @param kNode the node whose ports to search.
+     * @param name the name of the port to find.
+     * @return the first port with the given name, or {@code null} if there is none.
+     */
+    def private KPort getPortByName(KNode kNode, String name) {
+        var index = portsByName.get(kNode)
+        if (index === null) {
+            index = new HashMap<String, KPort>()
+            for (port : kNode.ports) {
+                index.putIfAbsent(port.name, port)
+            }
+            portsByName.put(kNode, index)
+        }
+        
+        index.get(name)
+    }
+    
     
     ////////////////////////////////////////////////////////////////////////////////////////////////////
     // Handling Ports of State Refinements
@@ -622,21 +821,114 @@ class Ptolemy2KGraphTransformation {
      * @param ptEntities list of entities to transform
      */
     def private void addChildEntities(KNode parent, EntityType[] ptEntities) {
+        if (classDefiningEntities === null) {
+            for (ptEntity : ptEntities) {
+                parent.children.add(transformChildEntity(ptEntity))
+            }
+            return
+        }
+        
+        // Transform the entities as parallel tasks, but add the results in the original order. An
+        // entity that defines classes may only be transformed once all entities before it are done,
+        // and all entities after it may only be transformed once it is done
+        val List<ForkJoinTask<KNode>> tasks = newArrayList()
         for (ptEntity : ptEntities) {
-            
-            // Look for a local class definition that matches the entity class
-            val matchingClass = actorClasses.findFirst[c | c.name == ptEntity.class1]
-            if (matchingClass !== null) {
-                val copy = EcoreUtil.copy(matchingClass)
-                parent.children.add(copy)
-                diagramSynthesis.associateWith(copy, ptEntity)
-                copy.name = ptEntity.name
-                
+            if (classDefiningEntities.contains(ptEntity)) {
+                tasks.forEach[t | parent.children.add(t.join())]
+                tasks.clear()
+                parent.children.add(transformChildEntity(ptEntity))
             } else {
-                // Transform the entity and add the result to the new parent
-                parent.children.add(transform(ptEntity))
+                val task = ForkJoinTask.adapt([| transformChildEntity(ptEntity)] as Callable<KNode>)
+                tasks += task.fork()
             }
         }
+        tasks.forEach[t | parent.children.add(t.join())]
+    }
+    
+    /**
+     * Transforms the given entity, which is about to be added to a parent node. If the entity is an
+     * instance of a locally defined class, the class is instantiated instead.
+     * 
+     * @param ptEntity the entity to transform.
+     * @return the transformed entity.
+     */
+    def private KNode transformChildEntity(EntityType ptEntity) {
+        // Look for a local class definition that matches the entity class
+        val matchingClass = actorClasses.get(ptEntity.class1)
+        if (matchingClass !== null) {
+            val copy = createClassInstance(matchingClass)
+            diagramSynthesis.associateSafely(copy, ptEntity)
+            copy.name = ptEntity.name
+            return copy
+            
+        } else {
+            // Transform the entity
+            return transform(ptEntity)
+        }
+    }
+    
+    /**
+     * Finds all entities in the given document or entity that contain class definitions somewhere
+     * below them.
+     * 
+     * @param ptRoot the Ptolemy MOML document's root element, or an entity.
+     * @return the set of entities defining classes.
+     */
+    def private Set<EntityType> findClassDefiningEntities(EObject ptRoot) {
+        val result = new HashSet<EntityType>()
+        
+        val contents = ptRoot.eAllContents
+        while (contents.hasNext()) {
+            val content = contents.next()
+            if (content instanceof ClassType) {
+                var container = content.eContainer
+                while (container !== null) {
+                    if (container instanceof EntityType) {
+                        result += container
+                    }
+                    container = container.eContainer
+                }
+            } else if (content instanceof PropertyType) {
+                // Properties never contain classes
+                contents.prune()
+            }
+        }
+        
+        return result
+    }
+    
+    /**
+     * Remembers the given transformed class as a locally defined class that entities can be
+     * instances of.
+     * 
+     * @param actorClass the transformed class.
+     */
+    def private void addActorClass(KNode actorClass) {
+        actorClasses.putIfAbsent(actorClass.name, actorClass)
+    }
+    
+    /**
+     * Creates a new instance of the given locally defined class. If the synthesis of the contents of
+     * composite nodes is deferred, the class's contents are only copied into the instance once it is
+     * first expanded. Otherwise, the whole class is copied right away.
+     * 
+     * <p>The contents are copied right away as well if the class has ports of unknown type. The type
+     * of such a port is inferred from how the port is connected both inside and outside of the
+     * instance, which may differ from instance to instance.</p>
+     * 
+     * @param actorClass the transformed class to create an instance of.
+     * @return the new instance.
+     */
+    def private KNode createClassInstance(KNode actorClass) {
+        if (!options.deferringContents || actorClass.children.empty
+            || !actorClass.ports.forall[p | p.markedAsInputPort || p.markedAsOutputPort]) {
+            
+            return EcoreUtil.copy(actorClass)
+        }
+        
+        val contents = deferredContents.computeIfAbsent(actorClass,
+            [c | new DeferredClassContents(c, options, diagramSynthesis)])
+        return contents.createInstance()
     }
     
     /**
@@ -717,6 +1009,7 @@ class Ptolemy2KGraphTransformation {
                 // A port exists; merge the model port's attributes into the existing port's attributes
                 // and set the association
                 existingPort.annotations.addAll(modelPort.annotations)
+                modelPort.copyMarkers(existingPort)
                 reassociate(modelPort, existingPort);
             } else {
                 // No port of that name exists, so add it
@@ -765,7 +1058,7 @@ class Ptolemy2KGraphTransformation {
      * @param newElement the new element the domain model element should be associated with instead.
      */
     private def void reassociate(KGraphElement oldElement, KGraphElement newElement) {
-        diagramSynthesis.associateWith(newElement, oldElement.getProperty(KlighdInternalProperties.MODEL_ELEMEMT));
-        diagramSynthesis.associateWith(oldElement, null);
+        diagramSynthesis.associateSafely(newElement, oldElement.getProperty(KlighdInternalProperties.MODEL_ELEMEMT));
+        diagramSynthesis.associateSafely(oldElement, null);
     }
 }
\ No newline at end of file
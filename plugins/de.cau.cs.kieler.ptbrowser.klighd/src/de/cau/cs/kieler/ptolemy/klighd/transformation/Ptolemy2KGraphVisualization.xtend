@@ -16,6 +16,7 @@ package de.cau.cs.kieler.ptolemy.klighd.transformation
 import com.google.common.base.Strings
 import com.google.inject.Inject
 import de.cau.cs.kieler.klighd.KlighdConstants
+import de.cau.cs.kieler.klighd.ViewContext
 import de.cau.cs.kieler.klighd.actions.FocusAndContextAction
 import de.cau.cs.kieler.klighd.kgraph.KEdge
 import de.cau.cs.kieler.klighd.kgraph.KGraphElement
@@ -38,8 +39,10 @@ import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.AnnotationExten
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.LabelExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MiscellaneousExtensions
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.FusedTraversal
 import de.cau.cs.kieler.ptolemy.klighd.transformation.util.TransformationConstants
 import java.util.EnumSet
+import java.util.Set
 import org.eclipse.elk.alg.layered.options.LayeredOptions
 import org.eclipse.elk.core.math.KVector
 import org.eclipse.elk.core.options.CoreOptions
@@ -52,6 +55,7 @@ import org.eclipse.elk.core.options.PortLabelPlacement
 import org.eclipse.elk.core.options.PortSide
 import org.eclipse.elk.core.options.SizeConstraint
 
+import static de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties.*
 import static de.cau.cs.kieler.ptolemy.klighd.transformation.util.TransformationConstants.*
 import de.cau.cs.kieler.ptolemy.klighd.LabelDisplayStyle
 
@@ -76,7 +80,10 @@ class Ptolemy2KGraphVisualization {
     /** Utility class that provides renderings. */
     @Inject extension KContainerRenderingExtensions
     /** Utility class that provides renderings. */
-    @Inject extension KRenderingFigureProvider
+    @Inject extension KRenderingFigureProvider figureProvider
+    
+    /** Class of accumulator actors, whose rendering does not use their icon. */
+    static val ACCUMULATOR_CLASS = "ptolemy.actor.lib.Accumulator"
     
     /** User-specified diagram synthesis options. */
     private var Options options
@@ -91,6 +98,8 @@ class Ptolemy2KGraphVisualization {
      */
     def void visualize(KNode kGraph, Options options) {
         this.options = options
+        figureProvider.statistics = options.statistics
+        figureProvider.loadIconsInBackground = options.iconsInBackground
         
         // Set the layout lagorithm for the graph and install a basic rendering to be able to install
         // the focus and context action
@@ -102,25 +111,132 @@ class Ptolemy2KGraphVisualization {
     }
     
     /**
-     * Annotates the children of the given node with the information necessary to render them and
-     * calls itself recursively with each of the nodes.
+     * Renders the icons of all actor classes in the given KGraph at once, so that the visualization
+     * only has to look them up. This includes the classes of composite actors, whose icon is shown
+     * while they are collapsed. Skipped if icons are loaded in the background, since rendering them
+     * here would hold up the synthesis.
+     * 
+     * @param kGraph the KGraph created from a Ptolemy model.
+     * @param options a container class holding synthesis option values
+     */
+    def void prewarmIcons(KNode kGraph, Options options) {
+        if (options.iconsInBackground) {
+            return
+        }
+        figureProvider.statistics = options.statistics
+        
+        val Set<String> classNames = newHashSet
+        FusedTraversal.traverse(kGraph, [node |
+            for (child : node.children.filter[c | c.rendersActorIcon() || c.rendersCompoundNode()]) {
+                val className = child.getAnnotationValue(ANNOTATION_PTOLEMY_CLASS)
+                if (className !== null && className != ACCUMULATOR_CLASS) {
+                    classNames += className
+                }
+            }
+        ])
+        
+        figureProvider.prewarmIcons(classNames)
+    }
+    
+    /**
+     * Starts loading the icons that placeholders were rendered for during the visualization in the
+     * background. Must only be called once the graph is complete, since the placeholders may be
+     * replaced right away.
+     * 
+     * @param viewContext the view context the graph is displayed in, if any.
+     * @see BackgroundIconLoader
+     */
+    def void loadPlaceholderIcons(ViewContext viewContext) {
+        val placeholders = figureProvider.takePlaceholders()
+        if (!placeholders.empty) {
+            BackgroundIconLoader.getInstance().load(placeholders, viewContext)
+        }
+    }
+    
+    /**
+     * Annotates the children of the given node, which is already part of a visualized graph, with the
+     * information necessary to render them. Used once the deferred contents of a node have been added
+     * to it.
+     * 
+     * @param node the node whose children to visualize.
+     * @param options a container class holding synthesis option values
+     */
+    def void visualizeChildren(KNode node, Options options) {
+        this.options = options
+        figureProvider.statistics = options.statistics
+        figureProvider.loadIconsInBackground = options.iconsInBackground
+        
+        // Transforming the contents may have added ports to the node itself
+        for (port : node.ports.filter[p | p.data.empty]) {
+            port.addPortRendering()
+            port.addLabelRendering()
+            port.addToolTip()
+        }
+        
+        prewarmIcons(node, options)
+        visualizeRecursively(node)
+    }
+    
+    /**
+     * Annotates the descendants of the given node with the information necessary to render them. The
+     * model is traversed iteratively to cope with arbitrarily deep models.
      * 
-     * @param node the node to visualize.
-     * @param firstLevel {@code true} if the given node is the root of the graph. Used to auto-expand
-     *                   compound nodes on the first level.
+     * @param node the node whose descendants to visualize.
      */
     def private void visualizeRecursively(KNode node) {
+        FusedTraversal.traverse(node, [n | visualizeChildNodes(n)])
+    }
+    
+    /**
+     * Checks whether the given node will be rendered as a compound node, which shows its actor's icon
+     * while it is collapsed. Makes the same distinctions as {@link #visualizeChildNodes(KNode)}.
+     * 
+     * @param node the node to check.
+     * @return {@code true} if the node is a compound node.
+     */
+    def private boolean rendersCompoundNode(KNode node) {
+        return !node.markedAsState
+            && (!node.children.empty || node.getProperty(DEFERRED_CONTENTS) !== null)
+    }
+    
+    /**
+     * Checks whether the given node will be rendered as a regular node, with its actor's icon. Makes
+     * the same distinctions as {@link #visualizeChildNodes(KNode)}.
+     * 
+     * @param node the node to check.
+     * @return {@code true} if the node is a regular node.
+     */
+    def private boolean rendersActorIcon(KNode node) {
+        return !node.markedAsState
+            && node.children.empty && node.getProperty(DEFERRED_CONTENTS) === null
+            && !node.markedAsHypernode
+            && !node.markedAsDirector
+            && !node.markedAsComment
+            && !node.markedAsParameterNode
+            && !node.markedAsDocumentationNode
+            && !node.markedAsValueDisplayingActor
+            && !node.markedAsModalModelPort
+    }
+    
+    /**
+     * Annotates the children of the given node with the information necessary to render them. Their
+     * own children are left alone.
+     * 
+     * @param node the node whose children to visualize.
+     */
+    def private void visualizeChildNodes(KNode node) {
         // Visualize child nodes
         for (child : node.children) {
             // Add child node rendering
             if (child.markedAsState) {
                 // We have a state machine state (which may also be a compound state)
                 child.addStateNodeRendering()
-                visualizeRecursively(child)
-            } else if (!child.children.empty) {
-                // We have a compound node that is not a state
+            } else if (!child.children.empty || child.getProperty(DEFERRED_CONTENTS) !== null) {
+                // We have a compound node that is not a state, possibly with contents yet to be copied
                 child.addCompoundNodeRendering()
-                visualizeRecursively(child)
+            } else if (child.markedAsJunction) {
+                // We have a junction node that stands in for a wide relation or a flattened port
+                child.addJunctionNodeRendering()
             } else if (child.markedAsHypernode) {
                 // We have a hypernode (a relation node, in Ptolemy speak)
                 child.addRelationNodeRendering()
@@ -205,7 +321,12 @@ class Ptolemy2KGraphVisualization {
         val collapsedRendering = createRegularNodeRendering(node);
         DiagramSyntheses.addRenderingWithStandardSelectionWrapper(node, collapsedRendering) => [
             it.setProperty(KlighdProperties::COLLAPSED_RENDERING, true)
-            it.addDoubleClickAction(KlighdConstants::ACTION_COLLAPSE_EXPAND)
+            if (node.getProperty(DEFERRED_CONTENTS) !== null) {
+                // The node's contents have to be added before it can be expanded
+                it.addDoubleClickAction(ExpandDeferredNodeAction.ID)
+            } else {
+                it.addDoubleClickAction(KlighdConstants::ACTION_COLLAPSE_EXPAND)
+            }
             if (options.portLabels == LabelDisplayStyle.SELECTED || options.comments == LabelDisplayStyle.SELECTED) {
                 it.addSingleClickAction(FocusAndContextAction.ID)
             }
@@ -280,6 +401,19 @@ class Ptolemy2KGraphVisualization {
         node.width = 10
     }
     
+    /**
+     * Renders the given node as a junction node.
+     * 
+     * @param node the node to attach the rendering information to.
+     */
+    def private void addJunctionNodeRendering(KNode node) {
+        node.data += createJunctionNodeRendering(node)
+        
+        // Set size
+        node.height = 5
+        node.width = 5
+    }
+    
     /**
      * Renders the given node as a director.
      * 
@@ -416,7 +550,7 @@ class Ptolemy2KGraphVisualization {
         
         // Some kinds of nodes require special treatment
         val KRendering rendering = switch node.getAnnotationValue(ANNOTATION_PTOLEMY_CLASS) {
-            case "ptolemy.actor.lib.Accumulator" : createAccumulatorNodeRendering(node)
+            case ACCUMULATOR_CLASS : createAccumulatorNodeRendering(node)
             default : createRegularNodeRendering(node)
         }
         
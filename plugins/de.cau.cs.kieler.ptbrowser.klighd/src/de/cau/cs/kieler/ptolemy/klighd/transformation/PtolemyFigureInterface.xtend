@@ -18,6 +18,7 @@ import de.cau.cs.kieler.klighd.krendering.KRendering
 import de.cau.cs.kieler.klighd.krendering.KRenderingFactory
 import de.cau.cs.kieler.klighd.krendering.extensions.KRenderingExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.util.GraphicsUtils
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.SvgFigureCache
 import diva.canvas.CanvasUtilities
 import diva.canvas.Figure
 import diva.canvas.toolbox.ImageFigure
@@ -28,9 +29,10 @@ import java.awt.Image
 import java.awt.RenderingHints
 import java.awt.geom.Rectangle2D
 import java.awt.image.BufferedImage
+import java.util.Collection
 import java.util.List
-import org.w3c.dom.Document
-import ptolemy.data.expr.XMLParser
+import java.util.Map
+import java.util.concurrent.CompletableFuture
 import ptolemy.kernel.Entity
 import ptolemy.kernel.util.ConfigurableAttribute
 import ptolemy.moml.test.TestIconLoader
@@ -56,41 +58,86 @@ final class PtolemyFigureInterface {
      * @return the actor's KRendering representation or {@code null} if there was a problem.
      */
     def KRendering createPtolemyFigureRendering(String className) {
-        // Try to instantiate the Ptolemy entity
-        var Entity entity = null;
-        try {
-            entity = instantiatePtolemyEntity(className)
-        } catch (Exception e) {
-            return null;
+        return createPtolemyFigureRenderings(#[className]).get(className)
+    }
+    
+    /**
+     * Tries to return KRenderings of actors with the given class names. Creating the renderings of
+     * many actor classes at once is a lot faster than creating them one at a time, since the AWT
+     * event queue is only visited a fixed number of times and SVG figures are converted in parallel.
+     * 
+     * @param classNames class names of the actors.
+     * @return map from class names to the KRendering representation of their actors. Classes for
+     *         which there was a problem are missing.
+     */
+    def Map<String, KRendering> createPtolemyFigureRenderings(Collection<String> classNames) {
+        val Map<String, KRendering> renderings = newHashMap
+        
+        // Try to instantiate the Ptolemy entities
+        val Map<String, Entity> entities = newLinkedHashMap
+        for (className : classNames) {
+            try {
+                entities.put(className, instantiatePtolemyEntity(className))
+            } catch (Exception e) {
+                // No rendering for this one
+            }
+        }
+        
+        if (entities.empty) {
+            return renderings
         }
         
         /* The following stuff is a bit complicated and perhaps a tiny bit ugly, but it works... We're
          * resetting our image load worker to make it ready for another go at preparing the KRendering
-         * representation of our entity. To avoid exceptions, this has to be done in the AWT event queue.
-         * When we ask Ptolemy to load the entity's editor icons (and if it has found some), there might
-         * be ImageIcons involved. Those wait for their image to finish loading, which the load worker
-         * then does as well. Once they've finished loading, though, the image might have to be scaled
-         * as well -- which the ImageIcon does through a runnable in the AWT event queue. Thus, our
-         * load worker stops executing, with its result still being null. Then, we start it again. This
+         * representations of our entities. To avoid exceptions, this has to be done in the AWT event
+         * queue. When we ask Ptolemy to load the entities' editor icons (and if it has found some),
+         * there might be ImageIcons involved. Those wait for their image to finish loading, which the
+         * load worker then does as well. Once they've finished loading, though, the image might have
+         * to be scaled as well -- which the ImageIcon does through a runnable in the AWT event queue.
+         * Thus, our load worker returns to let those runnables execute. Then, we call it again. This
          * time, all images have finished loading and all scaling operations have started. All it does
          * now is wait for the scaled images to become available. It then constructs images for the
-         * entities, turns them into a KRendering, and terminates.
+         * entities and turns them into KRenderings. Each of these steps handles all entities at once.
+         * 
+         * Entities without editor icons are described in SVG, which has nothing to do with AWT. Those
+         * descriptions are turned into KRenderings in parallel while the event queue is busy. Since
+         * many actors share the same description, the resulting KRenderings are cached.
          */
         
-        imageLoadWorker.reset(entity)
-        while (imageLoadWorker.getResult() === null) {
-            EventQueue.invokeAndWait(imageLoadWorker)
+        imageLoadWorker.reset(entities)
+        EventQueue.invokeAndWait([imageLoadWorker.loadIcons()])
+        
+        val svgFigureCache = SvgFigureCache.getInstance()
+        val Map<String, CompletableFuture<KRendering>> svgRenderings = newHashMap
+        for (entry : imageLoadWorker.svgDescriptions.entrySet) {
+            val svgDescription = entry.value
+            svgRenderings.put(entry.key,
+                CompletableFuture.supplyAsync([svgFigureCache.getFigure(svgDescription)]))
+        }
+        
+        if (imageLoadWorker.hasIcons) {
+            EventQueue.invokeAndWait([imageLoadWorker.waitForUnscaledImages()])
+            EventQueue.invokeAndWait([imageLoadWorker.createIconRenderings()])
+            renderings.putAll(imageLoadWorker.iconRenderings)
+        }
+        
+        for (entry : svgRenderings.entrySet) {
+            val rendering = entry.value.join()
+            if (rendering !== null) {
+                renderings.put(entry.key, rendering)
+            }
         }
-        return imageLoadWorker.getResult()
+        
+        return renderings
     }
 }
 
 
 /**
- * Loads Ptolemy stuff. Set the Ptolemy entity to load icons for, run it in the AWT event queue thread,
- * and retrieve the result.
+ * Loads Ptolemy stuff. Set the Ptolemy entities to load icons for, run the loading steps in the AWT
+ * event queue thread one after another, and retrieve the results.
  */
-final class ImageLoadWorker implements Runnable {
+final class ImageLoadWorker {
     
     /** KRendering utility methods. */
     @Inject extension KRenderingExtensions
@@ -98,69 +145,95 @@ final class ImageLoadWorker implements Runnable {
     /** Factory used to instantiate KRendering classes. */
     val renderingFactory = KRenderingFactory::eINSTANCE
     
-    /** The entity whose icon to load. */
-    private Entity entity = null;
-    /** EditorIcons we have loaded for the entity. */
-    private List<EditorIcon> loadedIcons = null;
+    /** The entities whose icons to load, indexed by class name. */
+    private Map<String, Entity> entities = emptyMap
+    /** The first EditorIcon we have loaded for each entity that has any, indexed by class name. */
+    private val Map<String, EditorIcon> loadedIcons = newLinkedHashMap
+    /** SVG descriptions of the entities that have no EditorIcons, indexed by class name. */
+    private val Map<String, String> svgDescriptions = newLinkedHashMap
+    /** The renderings resulting from the loaded EditorIcons, indexed by class name. */
+    private val Map<String, KRendering> iconRenderings = newHashMap
+    
+    
     /**
-     * Whether we have already waited for the unscaled images to finish loading. If so, we only need
-     * to wait for the scaled images to finish loading the next time around.
+     * Sets the entities that this worker object is to load icons for.
+     * 
+     * @param newEntities the entities to load icons for, indexed by class name.
      */
-    private boolean unscaledImagesLoaded = false;
-    /** The rendering resulting from the loading operations. */
-    private KRendering result = null;
+    def void reset(Map<String, Entity> newEntities) {
+        entities = newEntities
+        loadedIcons.clear()
+        svgDescriptions.clear()
+        iconRenderings.clear()
+    }
     
+    /**
+     * Returns whether EditorIcons were loaded for any of the entities.
+     */
+    def boolean hasIcons() {
+        return !loadedIcons.empty
+    }
     
     /**
-     * Sets the entity that this worker object is to load icons for.
-     * 
-     * @param newEntity the entity to load icons for.
+     * Returns the SVG descriptions of the entities that have no EditorIcons, indexed by class name.
+     * Available once {@link #loadIcons()} has run.
      */
-    def void reset(Entity newEntity) {
-        entity = newEntity
-        loadedIcons = null
-        result = null
-        unscaledImagesLoaded = false;
+    def Map<String, String> getSvgDescriptions() {
+        return svgDescriptions
     }
     
     /**
-     * Returns the KRendering representation of the loaded entity icon.
-     * 
-     * @return the resulting KRednering representation.
+     * Returns the KRendering representations of the loaded EditorIcons, indexed by class name.
+     * Available once {@link #createIconRenderings()} has run.
      */
-    def KRendering getResult() {
-        return result
+    def Map<String, KRendering> getIconRenderings() {
+        return iconRenderings
     }
     
     
     /**
-     * Loads icons for the entity set previously. Must be executed in the AWT event queue thread.
+     * Loads the EditorIcons of the entities set previously. Entities without icons have their SVG
+     * description retrieved instead. Must be executed in the AWT event queue thread.
      */
-    override run() {
-        // Check if we have already tried to load our icons
-        if (loadedIcons === null) {
-            // We have not -- load them
-            loadedIcons = loadIconsForEntity(entity)
-            if (loadedIcons.empty) {
-                // We couldn't load any icons; try to load SVG description and turn it into a KRendering
-                val Document svgDocument = loadSvgForEntity(entity)
-                val figure = GraphicsUtils::createFigureFromSvg(svgDocument)
-                result = figure
+    def void loadIcons() {
+        for (entry : entities.entrySet) {
+            val icons = loadIconsForEntity(entry.value)
+            if (icons.nullOrEmpty) {
+                // We couldn't load any icons; the SVG description will have to do
+                val svgDescription = loadSvgForEntity(entry.value)
+                if (svgDescription !== null) {
+                    svgDescriptions.put(entry.key, svgDescription)
+                }
             } else {
-                // We have loaded the icons; give Ptolemy a chance now to prepare the scaled images
-                // by terminating and letting createPtolemyFigureRendering create us again
+                // We'll use the first icon
+                loadedIcons.put(entry.key, icons.get(0))
             }
-        } else {
-            // Icons have been loaded -- we'll use the first one. We will now be waiting for the regular
-            // images, then return, and on the next attempt wait for the scaled images
-            if (unscaledImagesLoaded) {
-                GraphicsUtils::waitForImages(loadedIcons.get(0), false);
+        }
+    }
+    
+    /**
+     * Waits for the regular images of the loaded EditorIcons. Ptolemy schedules the scaled images to
+     * be prepared afterwards. Must be executed in the AWT event queue thread.
+     */
+    def void waitForUnscaledImages() {
+        for (icon : loadedIcons.values) {
+            GraphicsUtils::waitForImages(icon, true)
+        }
+    }
+    
+    /**
+     * Waits for the scaled images of the loaded EditorIcons and turns the icons into renderings. Must
+     * be executed in the AWT event queue thread.
+     */
+    def void createIconRenderings() {
+        for (entry : loadedIcons.entrySet) {
+            try {
+                GraphicsUtils::waitForImages(entry.value, false)
                 
                 // We should now have all scaled images; create the rendering!
-                result = createRenderingFromIcon(loadedIcons.get(0))
-            } else {
-                GraphicsUtils::waitForImages(loadedIcons.get(0), true);
-                unscaledImagesLoaded = true;
+                iconRenderings.put(entry.key, createRenderingFromIcon(entry.value))
+            } catch (Exception e) {
+                // A broken icon only costs its own rendering
             }
         }
     }
@@ -223,26 +296,14 @@ final class ImageLoadWorker implements Runnable {
     }
     
     /**
-     * Loads an SVG description of the figure used to represent the given entity, if any.
+     * Loads the SVG description of the figure used to represent the given entity, if any.
      * 
      * @param entity the entity.
      * @return the SVG description, if any could be loaded without problems.
      */
-    def private Document loadSvgForEntity(Entity entity) {
-        var svgString = (entity.getAttribute("_iconDescription") as ConfigurableAttribute).configureText
-        var Document svgDocument = null
-        
+    def private String loadSvgForEntity(Entity entity) {
         try {
-            val xmlParser = new XMLParser()
-            
-            // Try to parse the XML (we're preemptively repairing the SVG string here; we originally did
-            // that only when a first initial parsing attempt failed, but that resulted in occasional
-            // error messages that we are unable to suppress)
-            svgString = GraphicsUtils::repairString(svgString)
-            svgDocument = xmlParser.parser(svgString)
-            svgDocument = GraphicsUtils::repairSvg(svgDocument)
-            
-            return svgDocument
+            return (entity.getAttribute("_iconDescription") as ConfigurableAttribute).configureText
         } catch (Exception e) {
             return null
         }
@@ -13,14 +13,27 @@
  */
 package de.cau.cs.kieler.ptolemy.klighd.transformation
 
+import com.google.common.cache.Cache
+import com.google.common.cache.CacheBuilder
 import com.google.inject.Inject
 import de.cau.cs.kieler.ptolemy.klighd.PluginConstants
+import de.cau.cs.kieler.ptolemy.klighd.SynthesisStatistics
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.AnnotationExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.LabelExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.PortSignatureCache
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.PortSignatureCache.AttributeSignature
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.PortSignatureCache.PortSignature
 import java.util.ArrayList
-import java.util.HashMap
+import java.util.HashSet
+import java.util.LinkedHashMap
 import java.util.List
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.FutureTask
+import java.util.concurrent.atomic.AtomicLong
 import org.eclipse.core.runtime.CoreException
 import org.eclipse.core.runtime.IStatus
 import org.eclipse.core.runtime.Status
@@ -28,14 +41,11 @@ import org.eclipse.elk.core.options.CoreOptions
 import org.eclipse.emf.ecore.EObject
 import org.ptolemy.moml.ClassType
 import org.ptolemy.moml.EntityType
-import ptolemy.actor.IOPort
+import org.ptolemy.moml.PropertyType
 import ptolemy.actor.TypedCompositeActor
-import ptolemy.actor.parameters.ParameterPort
 import ptolemy.kernel.CompositeEntity
 import ptolemy.kernel.Entity
-import ptolemy.kernel.util.Attribute
 import ptolemy.kernel.util.NamedObj
-import ptolemy.kernel.util.StringAttribute
 import ptolemy.moml.MoMLParser
 import ptolemy.moml.filter.BackwardCompatibility
 
@@ -61,18 +71,167 @@ class PtolemyInterface {
     @Inject extension LabelExtensions
     
     
+    /** Maximum number of entries kept in each of the caches. */
+    static val CACHE_SIZE = 1000
+    
     /**
      * A cache mapping qualified class names of Ptolemy actors to their actual instances. If an actor
      * was already instantiated, there's no need to instantiate it again since that's quite a bit of
      * work.
      */
-    static HashMap<String, Entity> entityCache = new HashMap<String, Entity>()
+    static val Cache<String, Entity> entityCache = CacheBuilder.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build()
+    
+    /**
+     * A cache mapping qualified class names of Ptolemy actors that could not be instantiated to the
+     * reason why. Models often contain many instances of custom actors that are not part of our
+     * Ptolemy installation, and trying to instantiate each of them again would be just as expensive
+     * as it would be futile.
+     */
+    static val Cache<String, Throwable> failureCache = CacheBuilder.newBuilder()
+        .maximumSize(CACHE_SIZE)
+        .build()
+    
+    /**
+     * Lock held while instantiating entities. Ptolemy's MoML parser keeps its filters in static
+     * fields, so instantiations from concurrent syntheses (such as batch exports) must not interleave.
+     */
+    static val instantiationLock = new Object()
+    
+    /**
+     * Lookups of port signatures scheduled by {@link #prefetchPortSignatures(EObject)}, indexed by the
+     * class name they are for. A lookup is removed once it has finished, at which point its result is
+     * in the {@link PortSignatureCache}.
+     */
+    static val pendingSignatures = new ConcurrentHashMap<String, FutureTask<List<PortSignature>>>()
+    
+    /** Executor that runs prefetched lookups of port signatures. */
+    static val ExecutorService prefetcher = Executors.newSingleThreadExecutor([ runnable |
+        val thread = new Thread(runnable, "Ptolemy Port Signature Prefetcher")
+        thread.daemon = true
+        return thread
+    ])
+    
+    /** Number of instantiation requests answered from one of the caches. */
+    static val hitCount = new AtomicLong()
+    /** Number of instantiation requests that required the entity to actually be instantiated. */
+    static val missCount = new AtomicLong()
+    /** Number of instantiation requests that failed, whether answered from the cache or not. */
+    static val failureCount = new AtomicLong()
+    
+    /** Statistics to record actor instantiations in, if any. */
+    var SynthesisStatistics statistics
     
     
+    /**
+     * Sets the statistics that actor instantiations should be recorded in. Only actors that are
+     * actually instantiated through Ptolemy are recorded, not requests answered from one of the caches.
+     * 
+     * @param statistics the statistics, or {@code null} if nothing should be recorded.
+     */
+    def void setStatistics(SynthesisStatistics statistics) {
+        this.statistics = statistics
+    }
+    
+    /**
+     * Starts looking up the port signatures of all actor classes used in the given model that are not
+     * in the {@link PortSignatureCache} yet. The actors are instantiated one after another in the
+     * background, in the order they appear in the model, while the transformation continues.
+     * Instances of classes defined in the model itself are not looked up since they are never
+     * instantiated through Ptolemy.
+     * 
+     * @param ptRoot the model about to be transformed.
+     */
+    def void prefetchPortSignatures(EObject ptRoot) {
+        val localClasses = new HashSet<String>()
+        val entityNames = new LinkedHashMap<String, String>()
+        
+        val contents = ptRoot.eAllContents
+        while (contents.hasNext()) {
+            val content = contents.next()
+            switch (content) {
+                PropertyType:
+                    // Properties never contain entities
+                    contents.prune()
+                ClassType: {
+                    localClasses += content.name
+                    if (content.^extends !== null) {
+                        entityNames.putIfAbsent(content.^extends, content.name)
+                    }
+                }
+                EntityType:
+                    if (content.class1 !== null) {
+                        entityNames.putIfAbsent(content.class1, content.name)
+                    }
+            }
+        }
+        
+        entityNames.forEach[className, entityName |
+            if (!localClasses.contains(className)
+                && PortSignatureCache.instance.get(className) === null) {
+                
+                val lookup = new FutureTask<List<PortSignature>>([|
+                    lookUpPortSignatures(className, entityName)
+                ])
+                if (pendingSignatures.putIfAbsent(className, lookup) === null) {
+                    prefetcher.execute(lookup)
+                }
+            }
+        ]
+    }
+    
+    /**
+     * Instantiates the given actor class and remembers its port signatures.
+     * 
+     * @param className the fully qualified class name of the actor to instantiate.
+     * @param entityName the name of an instance of the actor in the model. Useful for error messages.
+     * @return the port signatures.
+     * @throws CoreException if the actor couldn't be instantiated.
+     */
+    def private List<PortSignature> lookUpPortSignatures(String className, String entityName) {
+        try {
+            return PortSignatureCache.instance.put(className,
+                instantiatePtolemyEntityWithCache(className, entityName))
+        } finally {
+            pendingSignatures.remove(className)
+        }
+    }
+    
+    /**
+     * Returns the result of a prefetched lookup of the given class's port signatures. If the lookup
+     * has not been started yet, it is run right away on the calling thread instead of waiting for the
+     * lookups scheduled before it.
+     * 
+     * @param className the fully qualified class name of the actor.
+     * @return the port signatures, or {@code null} if no lookup was scheduled for the class or if the
+     *         lookup failed.
+     */
+    def private List<PortSignature> awaitPrefetchedPortSignatures(String className) {
+        val lookup = pendingSignatures.get(className)
+        if (lookup === null) {
+            return null
+        }
+        
+        // Does nothing if the prefetcher already runs or ran the lookup
+        lookup.run()
+        try {
+            return lookup.get()
+        } catch (ExecutionException e) {
+            // Instantiating the entity again reports the cached failure under the entity's own name
+            return null
+        }
+    }
+    
     /**
      * Tries to instantiate the given entity to return a list of its ports. The entity must either be
      * an {@code EntityType} or a {@code ClassType}. If the entity could not be instantiated, an empty
-     * list is returned.
+     * list is returned. The ports of each actor class are remembered in the {@link PortSignatureCache},
+     * so actor classes usually only have to be instantiated once, not once per session. Entities that
+     * do not name an implementing class are not instantiated and have no implementation ports.
+     * 
+     * <p>If the ports of the entity's class are being prefetched, this waits for the prefetched
+     * lookup. Otherwise, the entity is instantiated on the calling thread.</p>
      * 
      * @param entity description of the entity.
      * @return list of ports which will be empty if the entity could not be instantiated.
@@ -82,62 +241,64 @@ class PtolemyInterface {
         // Create an empty list of ports which we'll add to
         val result = new ArrayList<KPort>()
         
-        // Try to instantiate the actor (this is where an exception might be thrown which is propagated
-        // up to the calling method)
-        var Entity ptActor = null
-        ptActor = instantiatePtolemyEntity(entity)
+        // Find the port signatures of the entity's class, instantiating the actor if we don't know them
+        // yet (this is where an exception might be thrown which is propagated up to the calling method)
+        val className = getClassName(entity)
+        if (className === null) {
+            return result
+        }
+        
+        var signatures = PortSignatureCache.instance.get(className)
+        if (signatures === null) {
+            signatures = awaitPrefetchedPortSignatures(className)
+        }
+        if (signatures === null) {
+            val ptActor = instantiatePtolemyEntity(entity)
+            if (ptActor !== null) {
+                signatures = PortSignatureCache.instance.put(className, ptActor)
+            }
+        }
         
         // Add its ports
-        if (ptActor !== null) {
-            var index = 0
-            for (port : ptActor.portList) {
-                if (port instanceof IOPort) {
-                    val IOPort ptPort = port as IOPort
-                    val KPort kPort = KGraphUtil::createInitializedPort()
-                    
-                    // Set the index
-                    kPort.setProperty(CoreOptions::PORT_INDEX, index)
-                    
-                    // Set the name
-                    kPort.name = ptPort.name
-                    kPort.markAsPtolemyElement()
-                    
-                    // Turn attributes into properties
-                    for (attribute : ptPort.attributeList) {
-                        if (attribute instanceof Attribute) {
-                            turnAttributeIntoAnnotation(kPort, attribute as Attribute)
-                        }
-                    }
-                    
-                    // Find out whether it is an input or an output port (or even both)
-                    if (ptPort.input || kPort.hasAnnotation("input")
-                        || kPort.hasAnnotation("inputoutput")) {
-                        
-                        kPort.markAsInputPort(true)
-                    }
-                    
-                    if (ptPort.output || kPort.hasAnnotation("output")
-                        || kPort.hasAnnotation("inputoutput")) {
-                        
-                        kPort.markAsOutputPort(true)
-                    }
-                    
-                    // Remember if this is a multiport
-                    if (ptPort.multiport) {
-                        kPort.addAnnotation(IS_MULTIPORT)
-                    }
-                    
-                    // Annotate with the port type (we currently distinguish two port types)
-                    if (ptPort instanceof ParameterPort) {
-                        kPort.addAnnotation(IS_PARAMETER_PORT)
-                    } else {
-                        kPort.addAnnotation(IS_IO_PORT)
-                    }
-                    
-                    // Add the created port to our result list
-                    result.add(kPort)
+        if (signatures !== null) {
+            for (signature : signatures) {
+                val KPort kPort = KGraphUtil::createInitializedPort()
+                
+                // Set the index
+                kPort.setProperty(CoreOptions::PORT_INDEX, signature.index)
+                
+                // Set the name
+                kPort.name = signature.name
+                kPort.markAsPtolemyElement()
+                
+                // Turn attributes into properties
+                for (attribute : signature.attributes) {
+                    turnAttributeIntoAnnotation(kPort, attribute)
+                }
+                
+                // Find out whether it is an input or an output port (or even both)
+                if (signature.input) {
+                    kPort.markAsInputPort(true)
                 }
-                index = index + 1
+                
+                if (signature.output) {
+                    kPort.markAsOutputPort(true)
+                }
+                
+                // Remember if this is a multiport
+                if (signature.multiport) {
+                    kPort.addAnnotation(IS_MULTIPORT)
+                }
+                
+                // Annotate with the port type (we currently distinguish two port types)
+                if (signature.parameterPort) {
+                    kPort.addAnnotation(IS_PARAMETER_PORT)
+                } else {
+                    kPort.addAnnotation(IS_IO_PORT)
+                }
+                
+                // Add the created port to our result list
+                result.add(kPort)
             }
         }
         
@@ -146,29 +307,39 @@ class PtolemyInterface {
     }
     
     /**
-     * Makes an annotation out of the given attribute and attaches it to the given object.
+     * Returns the name of the class implementing the given entity.
+     * 
+     * @param entity an {@code EntityType} or a {@code ClassType}.
+     * @return the implementing class's name, or {@code null} if there is none.
+     */
+    def private String getClassName(EObject entity) {
+        switch (entity) {
+            EntityType: entity.class1
+            ClassType: entity.^extends
+        }
+    }
+    
+    /**
+     * Makes an annotation out of the given attribute signature and attaches it to the given object.
      * Recursively adds attributes of the attributes to the correspondingly created annotations.
      * 
      * @param element the KGraph element to annotate with the transformed attribute.
-     * @param ptAttribute the attribute to turn into an annotation.
+     * @param attribute signature of the attribute to turn into an annotation.
      */
-    def private void turnAttributeIntoAnnotation(EObject element, Attribute ptAttribute) {
-        val property = element.addAnnotation(ptAttribute.name, "", ptAttribute.className)
+    def private void turnAttributeIntoAnnotation(EObject element, AttributeSignature attribute) {
+        val property = element.addAnnotation(attribute.name, "", attribute.className)
         
         // Check if we have a string attribute
-        if (ptAttribute instanceof StringAttribute) {
-            property.value = (ptAttribute as StringAttribute).valueAsString
+        if (attribute.value !== null) {
+            property.value = attribute.value
         }
         
         // Recursively add further attributes
-        for (attribute : ptAttribute.attributeList) {
-            if (attribute instanceof Attribute) {
-                turnAttributeIntoAnnotation(property, attribute as Attribute)
-            }
+        for (childAttribute : attribute.attributes) {
+            turnAttributeIntoAnnotation(property, childAttribute)
         }
     }
     
-    
     ////////////////////////////////////////////////////////////////////////////////////////////////////
     // Actor Instantiation
     
@@ -207,7 +378,7 @@ class PtolemyInterface {
     
     /**
      * Instantiates the Ptolemy actor with the given class name. The entity name doesn't matter, but
-     * makes errors make more sense.
+     * makes errors make more sense. Both successful and failed instantiations are cached.
      * 
      * @param className the fully qualified class name of the actor to instantiate.
      * @param entityName the actor's name in the model. Useful for error messages.
@@ -215,37 +386,92 @@ class PtolemyInterface {
      * @throws CoreException if the actor couldn't be instantiated.
      */
     def private Entity instantiatePtolemyEntityWithCache(String className, String entityName) {
-        val cachedEntity = entityCache.get(className)
+        if (className === null) {
+            throw createInstantiationException(className, entityName, null)
+        }
+        
+        // Most requests are answered from the caches without having to wait for the lock
+        val cachedEntity = lookupCaches(className, entityName)
+        if (cachedEntity !== null) {
+            return cachedEntity
+        }
         
-        if (cachedEntity === null) {
+        synchronized (instantiationLock) {
+            // Another thread may have instantiated the entity while we were waiting for the lock
+            val entity = lookupCaches(className, entityName)
+            if (entity !== null) {
+                return entity
+            }
+            
             // The entity is not already in the cache, so try to instantiate it
+            missCount.incrementAndGet()
+            val instantiationStart = System.nanoTime()
             try {
-                if (className.equals("ptolemy.domains.modal.kernel.State")) {
-                    val entity = instantiatePtolemyState(className, entityName)
-                    entityCache.put(className, entity)
-                    return entity
-                } else {
-                    val entity = instantiatePtolemyActor(className, entityName)
-                    entityCache.put(className, entity)
-                    return entity
-                }
+                val newEntity =
+                    if (className.equals("ptolemy.domains.modal.kernel.State")) {
+                        instantiatePtolemyState(className, entityName)
+                    } else {
+                        instantiatePtolemyActor(className, entityName)
+                    }
+                entityCache.put(className, newEntity)
+                return newEntity
             } catch (Exception e) {
-                // An exception occurred: wrap it
-                throw new CoreException(new Status(
-                    IStatus::WARNING,
-                    PluginConstants::PLUGIN_ID,
-                    "Unable to instantiate actor %1 (class '%2')."
-                        .replace("%1", entityName)
-                        .replace("%2", className),
-                    e
-                ))
+                failureCache.put(className, e)
+                failureCount.incrementAndGet()
+                throw createInstantiationException(className, entityName, e)
+            } finally {
+                statistics?.recordActorInstantiation(System.nanoTime() - instantiationStart)
             }
-        } else {
-            // The entity is already in the cache, so just return that
-            cachedEntity
         }
     }
     
+    /**
+     * Looks up the given class in the entity cache and in the failure cache.
+     * 
+     * @param className the fully qualified class name of the actor to instantiate.
+     * @param entityName the actor's name in the model. Useful for error messages.
+     * @return the cached entity, or {@code null} if the class is in neither of the caches.
+     * @throws CoreException if the class is known to not be instantiable.
+     */
+    def private Entity lookupCaches(String className, String entityName) {
+        val cachedEntity = entityCache.getIfPresent(className)
+        if (cachedEntity !== null) {
+            hitCount.incrementAndGet()
+            return cachedEntity
+        }
+        
+        val cachedFailure = failureCache.getIfPresent(className)
+        if (cachedFailure !== null) {
+            hitCount.incrementAndGet()
+            failureCount.incrementAndGet()
+            throw createInstantiationException(className, entityName, cachedFailure)
+        }
+        
+        return null
+    }
+    
+    /**
+     * Creates the exception thrown if an actor could not be instantiated.
+     * 
+     * @param className the fully qualified class name of the actor.
+     * @param entityName the actor's name in the model.
+     * @param cause the reason why the actor could not be instantiated.
+     * @return the exception to be thrown.
+     */
+    def private CoreException createInstantiationException(String className, String entityName,
+        Throwable cause) {
+        
+        new CoreException(new Status(
+            IStatus::WARNING,
+            PluginConstants::PLUGIN_ID,
+            "Unable to instantiate actor %1 (class '%2')."
+                .replace("%1", String.valueOf(entityName))
+                .replace("%2", String.valueOf(className)),
+            cause
+        ))
+    }
+    
+    
     /**
      * Instantiates a Ptolemy actor of the given class with the given name.
      * 
@@ -303,4 +529,46 @@ class PtolemyInterface {
         val NamedObj parentElement = parser.parse(xml.toString())
         (parentElement as CompositeEntity).entityList().get(0) as Entity
     }
+    
+    
+    ////////////////////////////////////////////////////////////////////////////////////////////////////
+    // Cache Statistics
+    
+    /**
+     * Returns the number of instantiation requests answered from the caches, including requests for
+     * classes that are known to not be instantiable.
+     * 
+     * @return the number of cache hits.
+     */
+    def static long getCacheHits() {
+        hitCount.get()
+    }
+    
+    /**
+     * Returns the number of instantiation requests that required an entity to actually be
+     * instantiated.
+     * 
+     * @return the number of cache misses.
+     */
+    def static long getCacheMisses() {
+        missCount.get()
+    }
+    
+    /**
+     * Returns the number of instantiation requests that failed, whether they were answered from the
+     * caches or not.
+     * 
+     * @return the number of failed instantiation requests.
+     */
+    def static long getFailures() {
+        failureCount.get()
+    }
+    
+    /**
+     * Removes all entries from the caches. The statistics are not reset.
+     */
+    def static void clearCaches() {
+        entityCache.invalidateAll()
+        failureCache.invalidateAll()
+    }
 }
\ No newline at end of file
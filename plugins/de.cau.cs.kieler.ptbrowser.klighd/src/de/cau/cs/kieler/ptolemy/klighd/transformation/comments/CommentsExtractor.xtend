@@ -22,6 +22,8 @@ import de.cau.cs.kieler.klighd.kgraph.util.KGraphUtil
 import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.AnnotationExtensions
 import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MarkerExtensions
+import de.cau.cs.kieler.ptolemy.klighd.transformation.extensions.MiscellaneousExtensions
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.FusedTraversal
 import org.eclipse.elk.core.util.Pair
 import org.eclipse.emf.ecore.util.FeatureMap
 import org.eclipse.emf.ecore.xmi.XMLResource
@@ -131,19 +133,25 @@ class CommentsExtractor {
     @Inject extension AnnotationExtensions
     /** Marking nodes. */
     @Inject extension MarkerExtensions
+    /** Associating comment nodes with their annotations. */
+    @Inject extension MiscellaneousExtensions
     
     
     ////////////////////////////////////////////////////////////////////////////////////////////////////
     // Comment Extraction
     
     /**
-     * Extracts the comments attached as annotations to the given node and turns them into proper
-     * nodes that are children of the given node.
+     * Extracts the comments attached as annotations to the nodes of the model rooted at the given node
+     * and turns them into proper nodes that are children of the nodes they were attached to.
+     * 
+     * <p>The returned map contains the comment and title nodes of all compound nodes in the model.
+     * Earlier versions only returned those of the root node and discarded the ones found further
+     * down.</p>
      * 
      * @param root the root node.
      * @param diagramSynthesis the diagram synthesis that uses this class; used to map Ptolemy model
      *                         objects to the nodes created for them.
-     * @return extracted comment nodes, to be passed to the attachment heuristic later.
+     * @return extracted comment and title nodes, mapped to by their parents.
      */
     def Multimap<KNode, KNode> extractComments(KNode root,
         AbstractDiagramSynthesis<?> diagramSynthesis) {
@@ -151,6 +159,30 @@ class CommentsExtractor {
         // Maps nodes to those of their child nodes that represent comments
         val Multimap<KNode, KNode> createdCommentNodes =  ArrayListMultimap.create()
         
+        // Only compound nodes can contain comments
+        FusedTraversal.traverse(root, [node |
+            if (node == root || !node.children.empty) {
+                extractComments(node, diagramSynthesis, createdCommentNodes)
+            }
+        ])
+        
+        return createdCommentNodes
+    }
+    
+    /**
+     * Extracts the comments attached as annotations to the given node and turns them into proper
+     * nodes that are children of the given node. Does not look at the node's children. This allows
+     * the extraction to run as part of a {@link FusedTraversal}.
+     * 
+     * @param root the node.
+     * @param diagramSynthesis the diagram synthesis that uses this class; used to map Ptolemy model
+     *                         objects to the nodes created for them.
+     * @param createdCommentNodes map to put the created comment nodes and the node's title nodes in,
+     *                            keyed by the node.
+     */
+    def void extractComments(KNode root, AbstractDiagramSynthesis<?> diagramSynthesis,
+        Multimap<KNode, KNode> createdCommentNodes) {
+        
         // Iterate through the node's annotations looking for comments
         for (annotation : root.annotations) {
             if ((annotation.class_ ?: "").equals(ANNOTATION_TYPE_TEXT_ATTRIBUTE)) {
@@ -160,7 +192,7 @@ class CommentsExtractor {
                     annotation.getAnnotationValue(ANNOTATION_FONT_SIZE) ?: "14",
                     createdCommentNodes)
                 commentNode.annotations += annotation.annotations
-                diagramSynthesis.associateWith(commentNode, annotation)
+                diagramSynthesis.associateSafely(commentNode, annotation)
             } else if ((annotation.class_ ?: "").equals(ANNOTATION_TYPE_ATTRIBUTE)) {
                 // Check if there is an _iconDescription attribute
                 val iconDescription = annotation.getAnnotation("_iconDescription")
@@ -175,7 +207,7 @@ class CommentsExtractor {
                             extractFontSize(commentDetails.second),
                             createdCommentNodes)
                         commentNode.annotations += annotation.annotations
-                        diagramSynthesis.associateWith(commentNode, annotation)
+                        diagramSynthesis.associateSafely(commentNode, annotation)
                     }
                 }
             }
@@ -187,15 +219,6 @@ class CommentsExtractor {
                 createdCommentNodes.put(root,child) 
             }
         }
- 
-        // Recurse into child compound nodes
-        for (child : root.children) {
-            if (!child.children.empty) {
-                extractComments(child, diagramSynthesis)
-            }
-        }
-        
-        return createdCommentNodes
     }
     
     /**
@@ -14,6 +14,8 @@
 package de.cau.cs.kieler.ptolemy.klighd.transformation.extensions
 
 import de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.AnnotationIndexAdapter
+import de.cau.cs.kieler.ptolemy.klighd.transformation.util.AnnotationList
 import java.util.List
 import org.eclipse.emf.ecore.EObject
 import org.ptolemy.moml.ClassType
@@ -88,7 +90,12 @@ class AnnotationExtensions {
      * @return the annotation or {@code null} if there is none with the given key.
      */
     def PropertyType getAnnotation(EObject element, String key) {
-        return getAnnotations(element).findFirst([p | p.name.equals(key)])
+        val annotations = getAnnotations(element)
+        if (annotations instanceof AnnotationList) {
+            return annotations.findByName(key)
+        } else {
+            return AnnotationIndexAdapter.find(element, annotations, key)
+        }
     }
     
     /**
@@ -14,6 +14,7 @@
 package de.cau.cs.kieler.ptolemy.klighd.transformation.extensions
 
 import com.google.inject.Inject
+import de.cau.cs.kieler.ptolemy.klighd.PtolemyProperties
 import de.cau.cs.kieler.ptolemy.klighd.transformation.util.TransformationConstants
 import org.eclipse.elk.core.options.CoreOptions
 
@@ -24,7 +25,9 @@ import de.cau.cs.kieler.klighd.kgraph.KEdge
 import de.cau.cs.kieler.klighd.kgraph.KNode
 
 /**
- * Utility methods used to mark elements by the Ptolemy to KGraph transformation.
+ * Utility methods used to mark elements by the Ptolemy to KGraph transformation. Markers that only
+ * matter during the synthesis are kept as bits in a single property instead of as annotations, which
+ * are reserved for data that actually comes from the Ptolemy model.
  * 
  * @author cds
  * @kieler.rating yellow 2012-07-10 KI-15 cmot, grh
@@ -35,6 +38,98 @@ class MarkerExtensions {
     /** We make use of annotations to mark stuff. */
     @Inject extension AnnotationExtensions
     
+    /** Marker for edges whose direction has not been inferred yet. */
+    val static MARKER_UNDIRECTED = 1
+    /** Marker for input ports. */
+    val static MARKER_INPUT_PORT = 2
+    /** Marker for output ports. */
+    val static MARKER_OUTPUT_PORT = 4
+    /** Marker for nodes created from annotations. */
+    val static MARKER_FORMER_ANNOTATION_NODE = 8
+    /** Marker for nodes that contain a state machine. */
+    val static MARKER_STATE_MACHINE_CONTAINER = 16
+    /** Marker for director nodes. */
+    val static MARKER_DIRECTOR = 32
+    /** Marker for title nodes. */
+    val static MARKER_TITLE_NODE = 64
+    /** Marker for parameter nodes. */
+    val static MARKER_PARAMETER_NODE = 128
+    /** Marker for documentation nodes. */
+    val static MARKER_DOCUMENTATION_NODE = 256
+    /** Marker for junction nodes that replace wide relations. */
+    val static MARKER_JUNCTION = 512
+    /** Marker for elements that originate from a Ptolemy model. */
+    val static MARKER_PTOLEMY_ELEMENT = 1024
+    
+    /**
+     * The boxed values of all marker combinations. Setting a marker stores one of these instead of
+     * boxing the new value, which would allocate a new {@link Integer} for most combinations.
+     */
+    val static Integer[] MARKER_VALUES = createMarkerValues(2 * MARKER_PTOLEMY_ELEMENT)
+    
+    
+    /**
+     * Boxes all marker combinations up to the given number.
+     * 
+     * @param count the number of marker combinations.
+     * @return array that holds the boxed value of each combination at the combination's index.
+     */
+    def private static Integer[] createMarkerValues(int count) {
+        val Integer[] values = newArrayOfSize(count)
+        for (i : 0 ..< count) {
+            values.set(i, Integer.valueOf(i))
+        }
+        return values
+    }
+    
+    
+    /**
+     * Checks if the given element has the given marker set. Markers are bits in the element's
+     * {@link PtolemyProperties#MARKERS} property, which makes this cheap enough to be called over and
+     * over again.
+     * 
+     * @param element the element to check.
+     * @param marker the marker's bit.
+     * @return {@code true} if the marker is set.
+     */
+    def private boolean hasMarker(KGraphElement element, int marker) {
+        return element.getProperty(PtolemyProperties::MARKERS).intValue.bitwiseAnd(marker) != 0
+    }
+    
+    /**
+     * Sets or clears the given marker on the given element.
+     * 
+     * @param element the element to mark.
+     * @param marker the marker's bit.
+     * @param mark {@code true} if the marker should be set, {@code false} if it should be cleared.
+     */
+    def private void setMarker(KGraphElement element, int marker, boolean mark) {
+        val markers = element.getProperty(PtolemyProperties::MARKERS).intValue
+        val newMarkers =
+            if (mark)
+                markers.bitwiseOr(marker)
+            else
+                markers.bitwiseAnd(marker.bitwiseNot)
+        
+        if (newMarkers != markers) {
+            element.setProperty(PtolemyProperties::MARKERS, MARKER_VALUES.get(newMarkers))
+        }
+    }
+    
+    /**
+     * Sets all markers set on the source element on the target element as well. This is used when
+     * the annotations of one element are merged into another element's annotations.
+     * 
+     * @param source the element whose markers to copy.
+     * @param target the element to copy the markers to.
+     */
+    def void copyMarkers(KGraphElement source, KGraphElement target) {
+        val markers = source.getProperty(PtolemyProperties::MARKERS).intValue
+        if (markers != 0) {
+            target.setProperty(PtolemyProperties::MARKERS, MARKER_VALUES.get(
+                target.getProperty(PtolemyProperties::MARKERS).intValue.bitwiseOr(markers)))
+        }
+    }
     
     /**
      * Marks the given KGraph element as originating from a Ptolemy model.
@@ -42,7 +137,17 @@ class MarkerExtensions {
      * @param element the element to mark.
      */
     def void markAsPtolemyElement(KGraphElement element) {
-        addAnnotation(element, ANNOTATION_LANGUAGE, ANNOTATION_LANGUAGE_PTOLEMY)
+        element.setMarker(MARKER_PTOLEMY_ELEMENT, true)
+    }
+    
+    /**
+     * Checks if the given KGraph element is marked as originating from a Ptolemy model.
+     * 
+     * @param element the element to check.
+     * @return {@code true} if the element is marked, {@code false} otherwise.
+     */
+    def boolean isMarkedAsPtolemyElement(KGraphElement element) {
+        return element.hasMarker(MARKER_PTOLEMY_ELEMENT)
     }
     
     /**
@@ -55,9 +160,9 @@ class MarkerExtensions {
      */
     def void markAsUndirected(KEdge edge, boolean mark) {
         if (mark) {
-            edge.addAnnotation("_undirected")
+            edge.setMarker(MARKER_UNDIRECTED, true)
         } else {
-            edge.removeAnnotation("_undirected")
+            edge.setMarker(MARKER_UNDIRECTED, false)
         }
     }
     
@@ -68,7 +173,7 @@ class MarkerExtensions {
      * @return {@code true} if the edge is marked as undirected, {@code false} otherwise.
      */
     def boolean isMarkedAsUndirected(KEdge edge) {
-        return edge.hasAnnotation("_undirected")
+        return edge.hasMarker(MARKER_UNDIRECTED)
     }
     
     /**
@@ -80,9 +185,9 @@ class MarkerExtensions {
      */
     def void markAsInputPort(KGraphElement port, boolean mark) {
         if (mark) {
-            port.addAnnotation("_input")
+            port.setMarker(MARKER_INPUT_PORT, true)
         } else {
-            port.removeAnnotation("_input")
+            port.setMarker(MARKER_INPUT_PORT, false)
         }
     }
     
@@ -93,7 +198,7 @@ class MarkerExtensions {
      * @return {@code true} if the port is marked as being an input port, {@code false} otherwise.
      */
     def boolean isMarkedAsInputPort(KGraphElement port) {
-        return port.hasAnnotation("_input")
+        return port.hasMarker(MARKER_INPUT_PORT)
     }
     
     /**
@@ -105,9 +210,9 @@ class MarkerExtensions {
      */
     def void markAsOutputPort(KGraphElement port, boolean mark) {
         if (mark) {
-            port.addAnnotation("_output")
+            port.setMarker(MARKER_OUTPUT_PORT, true)
         } else {
-            port.removeAnnotation("_output")
+            port.setMarker(MARKER_OUTPUT_PORT, false)
         }
     }
     
@@ -118,7 +223,7 @@ class MarkerExtensions {
      * @return {@code true} if the port is marked as being an output port, {@code false} otherwise.
      */
     def boolean isMarkedAsOutputPort(KGraphElement port) {
-        return port.hasAnnotation("_output")
+        return port.hasMarker(MARKER_OUTPUT_PORT)
     }
     
     /**
@@ -130,7 +235,7 @@ class MarkerExtensions {
      * @param node the node to mark.
      */
     def void markAsFormerAnnotationNode(KNode node) {
-        node.addAnnotation("_annotationNode")
+        node.setMarker(MARKER_FORMER_ANNOTATION_NODE, true)
     }
     
     /**
@@ -140,7 +245,7 @@ class MarkerExtensions {
      * @return {@code true} if it is marked, {@code false} otherwise.
      */
     def boolean isMarkedAsFormerAnnotationNode(KNode node) {
-        return node.hasAnnotation("_annotationNode")
+        return node.hasMarker(MARKER_FORMER_ANNOTATION_NODE)
     }
     
     /**
@@ -162,6 +267,29 @@ class MarkerExtensions {
         return node.getProperty(CoreOptions::HYPERNODE)
     }
     
+    /**
+     * Marks the given node as being a junction node. A junction node is a hypernode that replaces
+     * relations with several sources and several targets when relations are not shown, or ports of
+     * flattened composite actors with several incoming and outgoing edges. The node is marked as
+     * being a hypernode as well.
+     * 
+     * @param node the node to be marked.
+     */
+    def void markAsJunction(KNode node) {
+        node.markAsHypernode()
+        node.setMarker(MARKER_JUNCTION, true)
+    }
+    
+    /**
+     * Checks if the given node is marked as being a junction node.
+     * 
+     * @param node the node to check.
+     * @return {@code true} if the node is marked as being a junction node, {@code false} otherwise.
+     */
+    def boolean isMarkedAsJunction(KNode node) {
+        return node.hasMarker(MARKER_JUNCTION)
+    }
+    
     /**
      * Marks the given node as being a comment node.
      * 
@@ -187,7 +315,7 @@ class MarkerExtensions {
      * @param node the node to be marked.
      */
     def void markAsStateMachineContainer(KNode node) {
-        node.addAnnotation("_stateMachineContainer")
+        node.setMarker(MARKER_STATE_MACHINE_CONTAINER, true)
     }
     
     /**
@@ -198,7 +326,7 @@ class MarkerExtensions {
      *         otherwise.
      */
     def boolean isMarkedAsStateMachineContainer(KNode node) {
-        return node.hasAnnotation("_stateMachineContainer")
+        return node.hasMarker(MARKER_STATE_MACHINE_CONTAINER)
     }
     
     /**
@@ -207,7 +335,7 @@ class MarkerExtensions {
      * @param node the node to be marked.
      */
     def void markAsDirector(KNode node) {
-        node.addAnnotation("_director")
+        node.setMarker(MARKER_DIRECTOR, true)
     }
     
     /**
@@ -217,7 +345,7 @@ class MarkerExtensions {
      * @return {@code true} if the node is a director node.
      */
     def boolean isMarkedAsDirector(KNode node) {
-        return node.hasAnnotation("_director")
+        return node.hasMarker(MARKER_DIRECTOR)
     }
     
     /**
@@ -227,7 +355,7 @@ class MarkerExtensions {
      * @param node the node to be marked
      */
     def void markAsTitleNode(KNode node){
-        node.addAnnotation("_titleNode")
+        node.setMarker(MARKER_TITLE_NODE, true)
     }
     
     /**
@@ -237,7 +365,7 @@ class MarkerExtensions {
      * @param node the node to check
      */ 
     def boolean isMarkedAsTitleNode(KNode node){
-        return node.hasAnnotation("_titleNode")
+        return node.hasMarker(MARKER_TITLE_NODE)
     }
     
     /**
@@ -246,7 +374,7 @@ class MarkerExtensions {
      * @param node the node to be marked.
      */
     def void markAsParameterNode(KNode node) {
-        node.addAnnotation("_parameters")
+        node.setMarker(MARKER_PARAMETER_NODE, true)
     }
     
     /**
@@ -256,7 +384,7 @@ class MarkerExtensions {
      * @return {@code true} if the node is a parameter node.
      */
     def boolean isMarkedAsParameterNode(KNode node) {
-        return node.hasAnnotation("_parameters")
+        return node.hasMarker(MARKER_PARAMETER_NODE)
     }
     
     /**
@@ -265,7 +393,7 @@ class MarkerExtensions {
      * @param node the node to be marked.
      */
     def void markAsDocumentationNode(KNode node) {
-        node.addAnnotation("_documentation")
+        node.setMarker(MARKER_DOCUMENTATION_NODE, true)
     }
     
      /**
@@ -275,7 +403,7 @@ class MarkerExtensions {
      * @return {@code true} if the node is a documentation attribute node.
      */
     def boolean isMarkedAsDocumentationNode(KNode node) {
-        return node.hasAnnotation("_documentation")
+        return node.hasMarker(MARKER_DOCUMENTATION_NODE)
     }
     
     /**
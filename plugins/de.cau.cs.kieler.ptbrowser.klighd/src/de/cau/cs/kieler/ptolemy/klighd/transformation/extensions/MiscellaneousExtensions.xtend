@@ -14,8 +14,10 @@
 package de.cau.cs.kieler.ptolemy.klighd.transformation.extensions
 
 import com.google.inject.Inject
+import de.cau.cs.kieler.klighd.kgraph.KGraphElement
 import de.cau.cs.kieler.klighd.krendering.KPosition
 import de.cau.cs.kieler.klighd.krendering.KRenderingFactory
+import de.cau.cs.kieler.klighd.syntheses.AbstractDiagramSynthesis
 import java.util.List
 import org.eclipse.emf.ecore.EObject
 import org.ptolemy.moml.ClassType
@@ -108,6 +110,23 @@ class MiscellaneousExtensions {
         return incidentEdges
     }
     
+    /**
+     * Associates the given element with the given model object through the given diagram synthesis.
+     * Parts of a model may be transformed and optimized in parallel, but diagram syntheses are not
+     * meant to be used concurrently. Associations are thus made one at a time.
+     * 
+     * @param synthesis the diagram synthesis.
+     * @param element the element created for the model object.
+     * @param source the model object, or {@code null} to remove the element's association.
+     */
+    def void associateSafely(AbstractDiagramSynthesis<?> synthesis, KGraphElement element,
+        Object source) {
+        
+        synchronized (synthesis) {
+            synthesis.associateWith(element, source)
+        }
+    }
+    
     /**
      * Given a modal model state, tries to find the entity that represents its refinement, if any.
      * 
@@ -0,0 +1,534 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.emf.common.util.TreeIterator;
+import org.eclipse.emf.ecore.EObject;
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.eclipse.emf.ecore.xmi.impl.XMIResourceImpl;
+import org.eclipse.elk.core.math.KVector;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.graphics.ImageData;
+import org.eclipse.swt.graphics.ImageLoader;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+import com.google.common.collect.Lists;
+
+import de.cau.cs.kieler.klighd.krendering.KAreaPlacementData;
+import de.cau.cs.kieler.klighd.krendering.KImage;
+import de.cau.cs.kieler.klighd.krendering.KRendering;
+import de.cau.cs.kieler.klighd.krendering.KRenderingPackage;
+import de.cau.cs.kieler.ptolemy.klighd.PluginConstants;
+import ptolemy.kernel.util.NamedObj;
+
+/**
+ * Caches the icons of Ptolemy actor classes across all diagrams. Creating an actor's icon requires
+ * the actor to be instantiated and its icon to be rendered through Ptolemy, which is the most
+ * expensive part of opening a model. Since icons only change if the Ptolemy library changes, they
+ * are persisted to our bundle's state location, in a directory stamped with the version of the
+ * Ptolemy bundle. Each icon is stored as a serialized KRendering, with the raster images it
+ * contains stored as PNG files next to it. Icons are loaded once they are first asked for, and new
+ * icons are written back in the background.
+ *
+ * <p>The size of each icon is remembered as well and loaded right away, which allows placeholders
+ * to be sized correctly while icons are loaded in the background.</p>
+ *
+ * <p>Each diagram adds the icons it uses to its own rendering library, so callers get a copy of the
+ * cached icon.</p>
+ *
+ * <p>If no state location is available, as is the case when running without a workspace, the cache
+ * works in memory only.</p>
+ *
+ * @author cds
+ */
+public final class ActorIconCache {
+
+    /** Name of the directory icons are persisted to. */
+    private static final String DIRECTORY_NAME = "actorIcons"; //$NON-NLS-1$
+    /** Version of the file format. Increment whenever the format changes. */
+    private static final int FORMAT_VERSION = 1;
+    /** Extension of the files renderings are serialized to. */
+    private static final String RENDERING_EXTENSION = ".krendering"; //$NON-NLS-1$
+    /** Extension of the files raster images are written to. */
+    private static final String IMAGE_EXTENSION = ".png"; //$NON-NLS-1$
+    /** Name of the file icon sizes are persisted to. */
+    private static final String SIZES_FILE_NAME = "iconSizes.bin"; //$NON-NLS-1$
+    /** Extension of files that are still being written. */
+    private static final String TEMP_EXTENSION = ".tmp"; //$NON-NLS-1$
+
+    /** The one and only instance. */
+    private static final ActorIconCache INSTANCE = new ActorIconCache();
+
+    /** Icons indexed by the qualified class name of the actor they belong to. */
+    private final Map<String, KRendering> icons = new ConcurrentHashMap<String, KRendering>();
+    /** Icon sizes indexed by the qualified class name of the actor they belong to. */
+    private final Map<String, KVector> sizes = new ConcurrentHashMap<String, KVector>();
+    /** Qualified class names of actors whose icons could not be created. */
+    private final Set<String> unavailableIcons =
+            Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    /** The directory icons are persisted to, or {@code null} if they are not persisted. */
+    private final File directory;
+    /** Executor that writes icons to disk. */
+    private final ExecutorService writer;
+    /** Whether a write is already scheduled that will pick up new icon sizes. */
+    private final AtomicBoolean sizesWritePending = new AtomicBoolean(false);
+
+
+    /**
+     * Creates the cache.
+     */
+    private ActorIconCache() {
+        // Deserializing renderings requires their package to be registered
+        KRenderingPackage.eINSTANCE.eClass();
+
+        final Bundle ourBundle = FrameworkUtil.getBundle(ActorIconCache.class);
+        final Bundle ptolemyBundle = FrameworkUtil.getBundle(NamedObj.class);
+
+        File stateDirectory = null;
+        if (ourBundle != null && ptolemyBundle != null) {
+            try {
+                stateDirectory = Platform.getStateLocation(ourBundle)
+                        .append(DIRECTORY_NAME)
+                        .append(FORMAT_VERSION + "_" + ptolemyBundle.getVersion()) //$NON-NLS-1$
+                        .toFile();
+            } catch (IllegalStateException e) {
+                // There is no instance location to store state in
+            }
+        }
+
+        directory = stateDirectory;
+
+        if (directory != null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable,
+                        "Ptolemy Actor Icon Writer"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            });
+            writer.execute(this::prepareDirectory);
+            loadSizes();
+        } else {
+            writer = null;
+        }
+    }
+
+    /**
+     * Returns the one and only instance of this class.
+     *
+     * @return the instance.
+     */
+    public static ActorIconCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Cache Access
+
+    /**
+     * Returns a copy of the icon of the given actor class.
+     *
+     * @param className qualified name of the actor's class.
+     * @return the icon, or {@code null} if it is not cached.
+     */
+    public KRendering get(final String className) {
+        final KRendering icon = lookup(className);
+        return icon == null ? null : EcoreUtil.copy(icon);
+    }
+
+    /**
+     * Checks whether the icon of the given actor class is cached, loading it into memory if it is
+     * only available on disk. Safe to call from several threads at once.
+     *
+     * @param className qualified name of the actor's class.
+     * @return {@code true} if the icon is cached.
+     */
+    public boolean contains(final String className) {
+        return lookup(className) != null;
+    }
+
+    /**
+     * Returns a copy of the icon of the given actor class if it is in memory already. Does not
+     * touch the disk.
+     *
+     * @param className qualified name of the actor's class.
+     * @return the icon, or {@code null} if it is not in memory.
+     */
+    public KRendering getIfLoaded(final String className) {
+        final KRendering icon = icons.get(className);
+        return icon == null ? null : EcoreUtil.copy(icon);
+    }
+
+    /**
+     * Returns the size of the icon of the given actor class, even if the icon itself is not loaded.
+     *
+     * @param className qualified name of the actor's class.
+     * @return the size, or {@code null} if it is unknown.
+     */
+    public KVector getSize(final String className) {
+        final KVector size = sizes.get(className);
+        return size == null ? null : new KVector(size);
+    }
+
+    /**
+     * Remembers the icon of the given actor class and schedules it to be persisted. The icon itself
+     * is not modified and can be used by the caller.
+     *
+     * @param className qualified name of the actor's class.
+     * @param icon the icon.
+     */
+    public void put(final String className, final KRendering icon) {
+        final KRendering cachedIcon = EcoreUtil.copy(icon);
+        if (icons.put(className, cachedIcon) == null && writer != null) {
+            writer.execute(() -> save(className, cachedIcon));
+        }
+        recordSize(className, cachedIcon);
+    }
+
+    /**
+     * Returns the cached icon of the given actor class itself, loading it from disk if it is not in
+     * memory yet.
+     *
+     * @param className qualified name of the actor's class.
+     * @return the icon, or {@code null} if it is not cached.
+     */
+    private KRendering lookup(final String className) {
+        KRendering icon = icons.get(className);
+
+        if (icon == null && directory != null) {
+            icon = load(className);
+            if (icon != null) {
+                final KRendering previous = icons.putIfAbsent(className, icon);
+                if (previous != null) {
+                    icon = previous;
+                } else {
+                    recordSize(className, icon);
+                }
+            }
+        }
+
+        return icon;
+    }
+
+    /**
+     * Checks whether creating the icon of the given actor class has failed before.
+     *
+     * @param className qualified name of the actor's class.
+     * @return {@code true} if no icon can be created for the actor class.
+     */
+    public boolean isUnavailable(final String className) {
+        return unavailableIcons.contains(className);
+    }
+
+    /**
+     * Remembers that no icon can be created for the given actor class. This is not persisted, since
+     * the failure may be due to a problem that goes away.
+     *
+     * @param className qualified name of the actor's class.
+     */
+    public void markUnavailable(final String className) {
+        unavailableIcons.add(className);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Sizes
+
+    /**
+     * Returns the size an icon is displayed in, which is given by its placement data.
+     *
+     * @param icon the icon.
+     * @return the size, or {@code null} if the icon is not given a concrete size.
+     */
+    public static KVector computeSize(final KRendering icon) {
+        if (icon.getPlacementData() instanceof KAreaPlacementData) {
+            final KAreaPlacementData placementData = (KAreaPlacementData) icon.getPlacementData();
+            return new KVector(
+                    placementData.getBottomRight().getX().getAbsolute(),
+                    placementData.getBottomRight().getY().getAbsolute());
+        }
+        return null;
+    }
+
+    /**
+     * Remembers the size of the given icon of the given actor class and schedules the sizes to be
+     * persisted if it has changed.
+     *
+     * @param className qualified name of the actor's class.
+     * @param icon the icon.
+     */
+    private void recordSize(final String className, final KRendering icon) {
+        final KVector size = computeSize(icon);
+        if (size != null && !size.equals(sizes.put(className, size))) {
+            scheduleSizesWrite();
+        }
+    }
+
+    /**
+     * Loads persisted icon sizes, if any.
+     */
+    private void loadSizes() {
+        final File file = new File(directory, SIZES_FILE_NAME);
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+
+            final int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                final String className = in.readUTF();
+                sizes.put(className, new KVector(in.readDouble(), in.readDouble()));
+            }
+        } catch (IOException e) {
+            // Broken sizes are as good as none
+            sizes.clear();
+        }
+    }
+
+    /**
+     * Schedules the icon sizes to be written to disk, unless a write is pending anyway.
+     */
+    private void scheduleSizesWrite() {
+        if (writer != null && sizesWritePending.compareAndSet(false, true)) {
+            writer.execute(() -> {
+                sizesWritePending.set(false);
+                saveSizes();
+            });
+        }
+    }
+
+    /**
+     * Writes the icon sizes to disk. The file is replaced atomically to not leave a broken file
+     * behind if anything goes wrong.
+     */
+    private void saveSizes() {
+        final File file = new File(directory, SIZES_FILE_NAME);
+        final File tempFile = new File(directory, SIZES_FILE_NAME + TEMP_EXTENSION);
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+                // The map may change while we write it, so take a snapshot first
+                final List<Map.Entry<String, KVector>> entries =
+                        Lists.newArrayList(sizes.entrySet());
+
+                out.writeInt(entries.size());
+                for (Map.Entry<String, KVector> entry : entries) {
+                    out.writeUTF(entry.getKey());
+                    out.writeDouble(entry.getValue().x);
+                    out.writeDouble(entry.getValue().y);
+                }
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tempFile.delete();
+            Platform.getLog(FrameworkUtil.getBundle(ActorIconCache.class)).log(new Status(
+                    IStatus.WARNING,
+                    PluginConstants.PLUGIN_ID,
+                    "Unable to save Ptolemy actor icon sizes.", //$NON-NLS-1$
+                    e));
+        }
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Persistence
+
+    /**
+     * Creates the directory icons are persisted to and deletes icons persisted for other versions
+     * of the Ptolemy bundle or the file format.
+     */
+    private void prepareDirectory() {
+        directory.mkdirs();
+
+        final File[] versionDirectories = directory.getParentFile().listFiles();
+        if (versionDirectories != null) {
+            for (File versionDirectory : versionDirectories) {
+                if (!versionDirectory.equals(directory)) {
+                    delete(versionDirectory);
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the persisted icon of the given actor class, if any.
+     *
+     * @param className qualified name of the actor's class.
+     * @return the icon, or {@code null} if none was persisted or it could not be loaded.
+     */
+    private KRendering load(final String className) {
+        final File renderingFile = new File(directory, className + RENDERING_EXTENSION);
+        if (!renderingFile.isFile()) {
+            return null;
+        }
+
+        try (InputStream in = new BufferedInputStream(new FileInputStream(renderingFile))) {
+            final XMIResourceImpl resource = new XMIResourceImpl();
+            resource.load(in, null);
+            final KRendering icon = (KRendering) resource.getContents().get(0);
+            resource.getContents().clear();
+
+            // Raster images are numbered in the order they appear in the rendering
+            final List<KImage> images = collectImages(icon);
+            for (int i = 0; i < images.size(); i++) {
+                final ImageLoader imageLoader = new ImageLoader();
+                imageLoader.load(imageFile(className, i).getPath());
+                images.get(i).setImageObject(imageLoader.data[0]);
+            }
+
+            return icon;
+        } catch (IOException | RuntimeException e) {
+            // A broken icon is as good as none
+            return null;
+        }
+    }
+
+    /**
+     * Writes the given icon of the given actor class to disk. The rendering is written last, so an
+     * icon is only picked up once its images have been written completely.
+     *
+     * @param className qualified name of the actor's class.
+     * @param icon the icon.
+     */
+    private void save(final String className, final KRendering icon) {
+        final KRendering copy = EcoreUtil.copy(icon);
+        final List<KImage> images = collectImages(copy);
+        final File renderingFile = new File(directory, className + RENDERING_EXTENSION);
+        final File tempFile = new File(directory, className + RENDERING_EXTENSION + TEMP_EXTENSION);
+
+        try {
+            for (int i = 0; i < images.size(); i++) {
+                final Object imageObject = images.get(i).getImageObject();
+                if (!(imageObject instanceof ImageData)) {
+                    // We don't know how to persist this icon
+                    return;
+                }
+
+                final File imageFile = imageFile(className, i);
+                final File tempImageFile =
+                        new File(directory, imageFile.getName() + TEMP_EXTENSION);
+                try (OutputStream out =
+                        new BufferedOutputStream(new FileOutputStream(tempImageFile))) {
+
+                    final ImageLoader imageLoader = new ImageLoader();
+                    imageLoader.data = new ImageData[] { (ImageData) imageObject };
+                    imageLoader.save(out, SWT.IMAGE_PNG);
+                }
+                Files.move(tempImageFile.toPath(), imageFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+                // The image is not serialized along with the rendering
+                images.get(i).setImageObject(null);
+            }
+
+            final XMIResourceImpl resource = new XMIResourceImpl();
+            resource.getContents().add(copy);
+            try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+                resource.save(out, null);
+            }
+            Files.move(tempFile.toPath(), renderingFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete();
+            Platform.getLog(FrameworkUtil.getBundle(ActorIconCache.class)).log(new Status(
+                    IStatus.WARNING,
+                    PluginConstants.PLUGIN_ID,
+                    "Unable to save the icon of " + className + ".", //$NON-NLS-1$ //$NON-NLS-2$
+                    e));
+        }
+    }
+
+    /**
+     * Returns the file the raster image with the given index of the given actor class's icon is
+     * persisted to.
+     *
+     * @param className qualified name of the actor's class.
+     * @param index index of the image in the order images appear in the icon.
+     * @return the file.
+     */
+    private File imageFile(final String className, final int index) {
+        return new File(directory, className + "." + index + IMAGE_EXTENSION); //$NON-NLS-1$
+    }
+
+    /**
+     * Returns the raster images of the given rendering, including the rendering itself, in the
+     * order they appear in the rendering.
+     *
+     * @param rendering the rendering.
+     * @return the images.
+     */
+    private static List<KImage> collectImages(final KRendering rendering) {
+        final List<KImage> images = Lists.newArrayList();
+        if (rendering instanceof KImage) {
+            images.add((KImage) rendering);
+        }
+
+        final TreeIterator<EObject> contents = rendering.eAllContents();
+        while (contents.hasNext()) {
+            final EObject object = contents.next();
+            if (object instanceof KImage) {
+                images.add((KImage) object);
+            }
+        }
+
+        return images;
+    }
+
+    /**
+     * Deletes the given file or directory along with its contents.
+     *
+     * @param file the file or directory.
+     */
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
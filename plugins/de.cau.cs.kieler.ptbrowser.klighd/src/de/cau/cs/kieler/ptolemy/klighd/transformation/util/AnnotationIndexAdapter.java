@@ -0,0 +1,114 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.emf.common.notify.Adapter;
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.eclipse.emf.ecore.EObject;
+import org.ptolemy.moml.PropertyType;
+
+/**
+ * Indexes the properties of a Ptolemy model object, such as an entity or a property, by their
+ * names. This is the counterpart of {@link AnnotationList} for annotation lists owned by the
+ * Ptolemy model, which we cannot replace. The adapter is attached to the owner of the list the
+ * first time a long enough list is searched, and drops its index whenever the owner notifies about
+ * a change or an annotation has been renamed.
+ *
+ * @author cds
+ */
+public final class AnnotationIndexAdapter extends AdapterImpl {
+
+    /** Maps annotation names to the first annotation of that name, or {@code null} if not built. */
+    private volatile Map<String, PropertyType> index;
+    /** The number of annotation renames the index was built after. */
+    private volatile long indexRenameCount;
+
+
+    /**
+     * Returns the first annotation with the given name in the given list owned by the given
+     * object.
+     *
+     * @param owner the object that owns the list of annotations.
+     * @param annotations the owner's list of annotations.
+     * @param name the annotation's name.
+     * @return the annotation or {@code null} if there is none with the given name.
+     */
+    public static PropertyType find(final EObject owner, final List<PropertyType> annotations,
+            final String name) {
+
+        if (annotations.size() < AnnotationList.INDEX_THRESHOLD) {
+            return AnnotationList.findLinearly(annotations, name);
+        }
+
+        // Sibling entities may be transformed in parallel, and some model objects are shared
+        final AnnotationIndexAdapter adapter;
+        synchronized (owner) {
+            adapter = getAdapter(owner);
+        }
+        return adapter.find(annotations, name);
+    }
+
+    /**
+     * Returns the adapter attached to the given object, attaching a new one if necessary.
+     *
+     * @param owner the object.
+     * @return the adapter.
+     */
+    private static AnnotationIndexAdapter getAdapter(final EObject owner) {
+        for (Adapter adapter : owner.eAdapters()) {
+            if (adapter instanceof AnnotationIndexAdapter) {
+                return (AnnotationIndexAdapter) adapter;
+            }
+        }
+
+        final AnnotationIndexAdapter adapter = new AnnotationIndexAdapter();
+        owner.eAdapters().add(adapter);
+        return adapter;
+    }
+
+    /**
+     * Returns the first annotation with the given name, building the index if necessary.
+     *
+     * @param annotations the owner's list of annotations.
+     * @param name the annotation's name.
+     * @return the annotation or {@code null} if there is none with the given name.
+     */
+    private PropertyType find(final List<PropertyType> annotations, final String name) {
+        Map<String, PropertyType> currentIndex = index;
+        final long renameCount = AnnotationNameListener.getRenameCount();
+        if (currentIndex == null || indexRenameCount != renameCount) {
+            currentIndex = AnnotationList.buildIndex(annotations);
+            indexRenameCount = renameCount;
+            index = currentIndex;
+        }
+        return currentIndex.get(name);
+    }
+
+    @Override
+    public void notifyChanged(final Notification notification) {
+        if (!notification.isTouch()) {
+            index = null;
+        }
+    }
+
+    @Override
+    public boolean isAdapterForType(final Object type) {
+        return type == AnnotationIndexAdapter.class;
+    }
+
+}
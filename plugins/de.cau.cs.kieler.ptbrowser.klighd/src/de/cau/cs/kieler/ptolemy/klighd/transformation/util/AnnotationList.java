@@ -0,0 +1,142 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.ptolemy.moml.PropertyType;
+
+import com.google.common.collect.Maps;
+
+/**
+ * The list of annotations attached to a KGraph element. Looking up an annotation by its name is
+ * backed by a hash index once the list is long enough for that to pay off. The index is built
+ * lazily on the first lookup and rebuilt on the first lookup after the list has been modified.
+ *
+ * <p>Annotations usually keep their names while they are part of the list. Should an annotation
+ * be renamed anyway, the index is rebuilt on the next lookup, so the annotation is found by its
+ * new name just as it would be by a linear search.</p>
+ *
+ * @author cds
+ */
+public final class AnnotationList extends ArrayList<PropertyType> {
+
+    /** Lists shorter than this are searched linearly, which is faster than maintaining an index. */
+    public static final int INDEX_THRESHOLD = 8;
+
+    /** Serial version UID. */
+    private static final long serialVersionUID = 2541396347213460715L;
+
+    /** Maps annotation names to the first annotation of that name, or {@code null} if not built. */
+    private transient Map<String, PropertyType> index;
+    /** The modification count the index was built for. */
+    private transient int indexModCount;
+    /** The number of annotation renames the index was built after. */
+    private transient long indexRenameCount;
+
+
+    /**
+     * Returns the first annotation with the given name.
+     *
+     * @param name the annotation's name.
+     * @return the annotation or {@code null} if there is none with the given name.
+     */
+    public PropertyType findByName(final String name) {
+        if (size() < INDEX_THRESHOLD) {
+            return findLinearly(this, name);
+        }
+
+        Map<String, PropertyType> currentIndex = index;
+        if (currentIndex == null || indexModCount != modCount
+                || indexRenameCount != AnnotationNameListener.getRenameCount()) {
+
+            currentIndex = rebuildIndex();
+        }
+        return currentIndex.get(name);
+    }
+
+    /**
+     * Rebuilds the index.
+     *
+     * @return the new index.
+     */
+    private Map<String, PropertyType> rebuildIndex() {
+        indexRenameCount = AnnotationNameListener.getRenameCount();
+        final Map<String, PropertyType> newIndex = buildIndex(this);
+        indexModCount = modCount;
+        index = newIndex;
+        return newIndex;
+    }
+
+    @Override
+    public PropertyType set(final int position, final PropertyType element) {
+        // Replacing an element does not count as a modification, so drop the index explicitly
+        index = null;
+        return super.set(position, element);
+    }
+
+    @Override
+    public AnnotationList clone() {
+        // Property defaults are cloned; the clone has to build its own index
+        final AnnotationList clone = (AnnotationList) super.clone();
+        clone.index = null;
+        return clone;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Utilities
+
+    /**
+     * Returns the first annotation in the given list with the given name.
+     *
+     * @param annotations the annotations to search.
+     * @param name the annotation's name.
+     * @return the annotation or {@code null} if there is none with the given name.
+     */
+    public static PropertyType findLinearly(final List<PropertyType> annotations,
+            final String name) {
+
+        for (PropertyType annotation : annotations) {
+            if (name.equals(annotation.getName())) {
+                return annotation;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Builds a map of the given annotations, keyed by their names. If several annotations have the
+     * same name, the first one is kept. Renames of the annotations are counted from now on by
+     * {@link AnnotationNameListener}.
+     *
+     * @param annotations the annotations to index.
+     * @return the index.
+     */
+    public static Map<String, PropertyType> buildIndex(final List<PropertyType> annotations) {
+        AnnotationNameListener.listenTo(annotations);
+
+        final Map<String, PropertyType> index =
+                Maps.newHashMapWithExpectedSize(annotations.size());
+        for (PropertyType annotation : annotations) {
+            if (annotation.getName() != null) {
+                index.putIfAbsent(annotation.getName(), annotation);
+            }
+        }
+        return index;
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.emf.common.notify.Notification;
+import org.eclipse.emf.common.notify.Notifier;
+import org.eclipse.emf.common.notify.impl.AdapterImpl;
+import org.ptolemy.moml.MomlPackage;
+import org.ptolemy.moml.PropertyType;
+
+/**
+ * Counts how often indexed annotations have been renamed. An index keyed by annotation names is
+ * stale once one of its annotations is renamed, whether the annotation is renamed away from a name
+ * or to a name that is about to be looked up. Indexes remember the count they were built at and
+ * are rebuilt once it has changed. Annotations are hardly ever renamed, so a single count for all
+ * of them suffices.
+ *
+ * <p>A single instance of this adapter is attached to each indexed annotation. Annotations are
+ * often shared by several lists, so the adapter does not reference any of them.</p>
+ *
+ * @author cds
+ * @see AnnotationList
+ * @see AnnotationIndexAdapter
+ */
+final class AnnotationNameListener extends AdapterImpl {
+
+    /** The one and only instance. */
+    private static final AnnotationNameListener INSTANCE = new AnnotationNameListener();
+
+    /** Number of times an annotation this adapter is attached to has been renamed. */
+    private static final AtomicLong RENAME_COUNT = new AtomicLong();
+
+
+    /**
+     * Creates the adapter.
+     */
+    private AnnotationNameListener() {
+    }
+
+    /**
+     * Returns how often indexed annotations have been renamed so far. Read this before indexing
+     * annotations, so that renames happening while the index is built are not missed.
+     *
+     * @return the number of renames.
+     */
+    static long getRenameCount() {
+        return RENAME_COUNT.get();
+    }
+
+    /**
+     * Starts counting renames of each of the given annotations, unless already counting them.
+     *
+     * @param annotations the annotations about to be indexed.
+     */
+    static void listenTo(final List<PropertyType> annotations) {
+        for (PropertyType annotation : annotations) {
+            // The same annotation may be indexed by lists on several threads at once
+            synchronized (annotation) {
+                if (!annotation.eAdapters().contains(INSTANCE)) {
+                    annotation.eAdapters().add(INSTANCE);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void notifyChanged(final Notification notification) {
+        if (notification.getFeature() == MomlPackage.Literals.PROPERTY_TYPE__NAME
+                && !notification.isTouch()) {
+
+            RENAME_COUNT.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void setTarget(final Notifier newTarget) {
+        // The adapter is shared by many annotations, so it has no single target
+    }
+
+    @Override
+    public boolean isAdapterForType(final Object type) {
+        return type == AnnotationNameListener.class;
+    }
+
+}
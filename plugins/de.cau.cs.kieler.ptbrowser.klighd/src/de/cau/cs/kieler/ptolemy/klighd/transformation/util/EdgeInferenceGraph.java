@@ -0,0 +1,678 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.util.BitSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import de.cau.cs.kieler.klighd.kgraph.KEdge;
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+import de.cau.cs.kieler.klighd.kgraph.KPort;
+
+/**
+ * Snapshot of the parts of a graph that the inference of edge directions looks at. Nodes, ports,
+ * relations and edges are identified by indices, and everything the inference needs to know about
+ * them is kept in arrays: the parent of each node, the node and type of each port, the incident
+ * edges of each port and relation, and the current end points of each edge. The inference runs on
+ * the snapshot without touching the graph. It neither walks EMF lists nor searches lists of
+ * children and does not allocate anything. Once it is done, the inferred port types and edge
+ * directions are written back to the graph.
+ *
+ * <p>Ports are indexed in the order of the list passed to the constructor, and so are relations.
+ * The incident edges of each port are kept in the order they were in when the snapshot was taken.
+ * The incident edges of a relation are kept as the relation's incoming edges followed by its
+ * outgoing edges. Edges are never moved between these lists, which is fine since an edge keeps its
+ * place in the graph's lists for as long as its direction is unknown.</p>
+ *
+ * @author cds
+ */
+public final class EdgeInferenceGraph {
+
+    /** Index of elements that are not part of the snapshot. */
+    public static final int NONE = -1;
+
+    /** Port type flag of input ports. */
+    private static final int INPUT = 1;
+    /** Port type flag of output ports. */
+    private static final int OUTPUT = 2;
+
+    /** Index of the parent of each node, or {@link #NONE} if it is not part of the snapshot. */
+    private final int[] nodeParents;
+    /** Index of the relation each node represents, or {@link #NONE}. */
+    private final int[] nodeRelations;
+
+    /** The ports. */
+    private final List<KPort> ports;
+    /** Index of the node of each port. */
+    private final int[] portNodes;
+    /** Type of each port as a combination of {@link #INPUT} and {@link #OUTPUT}. */
+    private final int[] portTypes;
+    /** Where the incident edges of each port start in {@link #portEdges}. */
+    private final int[] portEdgeOffsets;
+    /** Incident edges of all ports. */
+    private final int[] portEdges;
+
+    /** The relations. */
+    private final List<KNode> relations;
+    /** Index of the node of each relation. */
+    private final int[] relationNodes;
+    /** Where the incident edges of each relation start in {@link #relationEdges}. */
+    private final int[] relationEdgeOffsets;
+    /** Incident edges of all relations. */
+    private final int[] relationEdges;
+
+    /** The edges. */
+    private final List<KEdge> edges;
+    /** Index of the current source node of each edge. */
+    private final int[] edgeSources;
+    /** Index of the current target node of each edge. */
+    private final int[] edgeTargets;
+    /** Index of the current source port of each edge, or {@link #NONE}. */
+    private final int[] edgeSourcePorts;
+    /** Index of the current target port of each edge, or {@link #NONE}. */
+    private final int[] edgeTargetPorts;
+    /** Edges whose direction is still unknown. */
+    private final BitSet undirectedEdges;
+    /** Edges that have been reversed an odd number of times. */
+    private final BitSet reversedEdges;
+
+
+    /**
+     * Takes a snapshot of the given model elements.
+     *
+     * @param nodes the nodes of the graph, starting with its root.
+     * @param ports the ports whose types are to be inferred or used to infer edge directions.
+     * @param relations the relations.
+     * @param inputPort predicate that tells whether a port is marked as an input port.
+     * @param outputPort predicate that tells whether a port is marked as an output port.
+     * @param undirected predicate that tells whether an edge's direction is still unknown.
+     */
+    public EdgeInferenceGraph(final List<KNode> nodes, final List<KPort> ports,
+            final List<KNode> relations, final Predicate<KPort> inputPort,
+            final Predicate<KPort> outputPort, final Predicate<KEdge> undirected) {
+
+        // Index the nodes, including the root's parent. Edges may connect to nodes outside of the
+        // graph, which are indexed as well once the edges are, but can never be anyone's parent
+        final List<KNode> nodeList = Lists.newArrayList(nodes);
+        final Map<KNode, Integer> nodeIndices = Maps.newHashMapWithExpectedSize(nodes.size() + 1);
+        for (int i = 0; i < nodes.size(); i++) {
+            nodeIndices.put(nodes.get(i), i);
+        }
+        if (!nodes.isEmpty()) {
+            indexNode(nodes.get(0).getParent(), nodeIndices, nodeList);
+        }
+
+        final List<KEdge> edgeList = Lists.newArrayList();
+        final Map<KEdge, Integer> edgeIndices = Maps.newHashMap();
+
+        // Ports and their incident edges
+        this.ports = ports;
+        final Map<KPort, Integer> portIndices = Maps.newHashMapWithExpectedSize(ports.size());
+        portNodes = new int[ports.size()];
+        portTypes = new int[ports.size()];
+        portEdgeOffsets = new int[ports.size() + 1];
+        for (int i = 0; i < ports.size(); i++) {
+            final KPort port = ports.get(i);
+            portIndices.put(port, i);
+            portNodes[i] = nodeIndices.get(port.getNode());
+            portTypes[i] = (inputPort.test(port) ? INPUT : 0)
+                    | (outputPort.test(port) ? OUTPUT : 0);
+            portEdgeOffsets[i + 1] = portEdgeOffsets[i] + port.getEdges().size();
+        }
+
+        portEdges = new int[portEdgeOffsets[ports.size()]];
+        for (int i = 0; i < ports.size(); i++) {
+            int offset = portEdgeOffsets[i];
+            for (KEdge edge : ports.get(i).getEdges()) {
+                portEdges[offset++] = indexEdge(edge, edgeIndices, edgeList);
+            }
+        }
+
+        // Relations and their incident edges; self loops are incoming edges only
+        this.relations = relations;
+        relationNodes = new int[relations.size()];
+        relationEdgeOffsets = new int[relations.size() + 1];
+        for (int i = 0; i < relations.size(); i++) {
+            final KNode relation = relations.get(i);
+            relationNodes[i] = nodeIndices.get(relation);
+            relationEdgeOffsets[i + 1] =
+                    relationEdgeOffsets[i] + relation.getIncomingEdges().size();
+            for (KEdge edge : relation.getOutgoingEdges()) {
+                if (edge.getTarget() != relation) {
+                    relationEdgeOffsets[i + 1]++;
+                }
+            }
+        }
+
+        relationEdges = new int[relationEdgeOffsets[relations.size()]];
+        for (int i = 0; i < relations.size(); i++) {
+            final KNode relation = relations.get(i);
+            int offset = relationEdgeOffsets[i];
+            for (KEdge edge : relation.getIncomingEdges()) {
+                relationEdges[offset++] = indexEdge(edge, edgeIndices, edgeList);
+            }
+            for (KEdge edge : relation.getOutgoingEdges()) {
+                if (edge.getTarget() != relation) {
+                    relationEdges[offset++] = indexEdge(edge, edgeIndices, edgeList);
+                }
+            }
+        }
+
+        // The end points of the edges
+        edges = edgeList;
+        edgeSources = new int[edges.size()];
+        edgeTargets = new int[edges.size()];
+        edgeSourcePorts = new int[edges.size()];
+        edgeTargetPorts = new int[edges.size()];
+        undirectedEdges = new BitSet(edges.size());
+        reversedEdges = new BitSet(edges.size());
+        for (int i = 0; i < edges.size(); i++) {
+            final KEdge edge = edges.get(i);
+            edgeSources[i] = indexNode(edge.getSource(), nodeIndices, nodeList);
+            edgeTargets[i] = indexNode(edge.getTarget(), nodeIndices, nodeList);
+            edgeSourcePorts[i] = indexOf(edge.getSourcePort(), portIndices);
+            edgeTargetPorts[i] = indexOf(edge.getTargetPort(), portIndices);
+            undirectedEdges.set(i, undirected.test(edge));
+        }
+
+        // Now that all nodes are known, find their parents and relations
+        nodeParents = new int[nodeList.size()];
+        nodeRelations = new int[nodeList.size()];
+        for (int i = 0; i < nodeList.size(); i++) {
+            nodeParents[i] = indexOf(nodeList.get(i).getParent(), nodeIndices);
+            nodeRelations[i] = NONE;
+        }
+        for (int i = 0; i < relations.size(); i++) {
+            nodeRelations[relationNodes[i]] = i;
+        }
+    }
+
+    /**
+     * Returns the index of the given node, indexing it first if it has no index yet.
+     *
+     * @param node the node, possibly {@code null}.
+     * @param nodeIndices the indices of the nodes indexed so far.
+     * @param nodeList the nodes indexed so far.
+     * @return the node's index, or {@link #NONE} if the node is {@code null}.
+     */
+    private static int indexNode(final KNode node, final Map<KNode, Integer> nodeIndices,
+            final List<KNode> nodeList) {
+
+        if (node == null) {
+            return NONE;
+        }
+
+        Integer index = nodeIndices.get(node);
+        if (index == null) {
+            index = nodeList.size();
+            nodeIndices.put(node, index);
+            nodeList.add(node);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the given edge, indexing it first if it has no index yet.
+     *
+     * @param edge the edge.
+     * @param edgeIndices the indices of the edges indexed so far.
+     * @param edgeList the edges indexed so far.
+     * @return the edge's index.
+     */
+    private static int indexEdge(final KEdge edge, final Map<KEdge, Integer> edgeIndices,
+            final List<KEdge> edgeList) {
+
+        Integer index = edgeIndices.get(edge);
+        if (index == null) {
+            index = edgeList.size();
+            edgeIndices.put(edge, index);
+            edgeList.add(edge);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the given element.
+     *
+     * @param element the element, possibly {@code null}.
+     * @param indices the indices of the elements.
+     * @param <T> the type of elements.
+     * @return the element's index, or {@link #NONE} if it has none.
+     */
+    private static <T> int indexOf(final T element, final Map<T, Integer> indices) {
+        final Integer index = indices.get(element);
+        return index == null ? NONE : index;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Ports
+
+    /**
+     * @return the number of ports.
+     */
+    public int getPortCount() {
+        return ports.size();
+    }
+
+    /**
+     * Returns the port with the given index.
+     *
+     * @param port the port's index.
+     * @return the port.
+     */
+    public KPort getPort(final int port) {
+        return ports.get(port);
+    }
+
+    /**
+     * Checks whether the given port is marked as an input port.
+     *
+     * @param port the port's index.
+     * @return {@code true} if the port is an input port.
+     */
+    public boolean isInputPort(final int port) {
+        return (portTypes[port] & INPUT) != 0;
+    }
+
+    /**
+     * Checks whether the given port is marked as an output port.
+     *
+     * @param port the port's index.
+     * @return {@code true} if the port is an output port.
+     */
+    public boolean isOutputPort(final int port) {
+        return (portTypes[port] & OUTPUT) != 0;
+    }
+
+    /**
+     * Checks whether the given port is marked as an input port, an output port, or both.
+     *
+     * @param port the port's index.
+     * @return {@code true} if the port's type is known.
+     */
+    public boolean isTypeKnown(final int port) {
+        return portTypes[port] != 0;
+    }
+
+    /**
+     * Marks the given port as an input port.
+     *
+     * @param port the port's index.
+     */
+    public void markAsInputPort(final int port) {
+        portTypes[port] |= INPUT;
+    }
+
+    /**
+     * Marks the given port as an output port.
+     *
+     * @param port the port's index.
+     */
+    public void markAsOutputPort(final int port) {
+        portTypes[port] |= OUTPUT;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Relations
+
+    /**
+     * @return the number of relations.
+     */
+    public int getRelationCount() {
+        return relations.size();
+    }
+
+    /**
+     * Returns the relation with the given index.
+     *
+     * @param relation the relation's index.
+     * @return the relation.
+     */
+    public KNode getRelation(final int relation) {
+        return relations.get(relation);
+    }
+
+    /**
+     * Counts the edges incident to the given relation that are directed or undirected. A self loop
+     * counts twice, once as an incoming and once as an outgoing edge.
+     *
+     * @param relation the relation's index.
+     * @param undirected whether to count undirected instead of directed edges.
+     * @return the number of edges.
+     */
+    public int countIncidentEdges(final int relation, final boolean undirected) {
+        final int node = relationNodes[relation];
+        int count = 0;
+        for (int i = relationEdgeOffsets[relation]; i < relationEdgeOffsets[relation + 1]; i++) {
+            final int edge = relationEdges[i];
+            if (undirectedEdges.get(edge) == undirected) {
+                count += countEnds(edge, node);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many ends of the given edge are at the given node.
+     *
+     * @param edge the edge's index.
+     * @param node the node's index.
+     * @return {@code 0}, {@code 1}, or {@code 2} for self loops.
+     */
+    private int countEnds(final int edge, final int node) {
+        return (edgeSources[edge] == node ? 1 : 0) + (edgeTargets[edge] == node ? 1 : 0);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Edges
+
+    /**
+     * @return the number of edges.
+     */
+    public int getEdgeCount() {
+        return edges.size();
+    }
+
+    /**
+     * Returns the edge with the given index.
+     *
+     * @param edge the edge's index.
+     * @return the edge.
+     */
+    public KEdge getEdge(final int edge) {
+        return edges.get(edge);
+    }
+
+    /**
+     * Checks whether the given edge's direction is still unknown.
+     *
+     * @param edge the edge's index.
+     * @return {@code true} if the edge is undirected.
+     */
+    public boolean isUndirected(final int edge) {
+        return undirectedEdges.get(edge);
+    }
+
+    /**
+     * Checks whether the given edge has to be reversed in the graph.
+     *
+     * @param edge the edge's index.
+     * @return {@code true} if the edge has been reversed an odd number of times.
+     */
+    public boolean isReversed(final int edge) {
+        return reversedEdges.get(edge);
+    }
+
+    /**
+     * @param edge the edge's index.
+     * @return the index of the edge's current source port, or {@link #NONE}.
+     */
+    public int getSourcePort(final int edge) {
+        return edgeSourcePorts[edge];
+    }
+
+    /**
+     * @param edge the edge's index.
+     * @return the index of the edge's current target port, or {@link #NONE}.
+     */
+    public int getTargetPort(final int edge) {
+        return edgeTargetPorts[edge];
+    }
+
+    /**
+     * @param edge the edge's index.
+     * @return the index of the relation that is the edge's current source, or {@link #NONE}.
+     */
+    public int getSourceRelation(final int edge) {
+        return edgeSources[edge] == NONE ? NONE : nodeRelations[edgeSources[edge]];
+    }
+
+    /**
+     * @param edge the edge's index.
+     * @return the index of the relation that is the edge's current target, or {@link #NONE}.
+     */
+    public int getTargetRelation(final int edge) {
+        return edgeTargets[edge] == NONE ? NONE : nodeRelations[edgeTargets[edge]];
+    }
+
+    /**
+     * Reverses the given edge and reports that to the worklist.
+     *
+     * @param edge the edge's index.
+     * @param worklist the worklist, or {@code null}.
+     */
+    private void reverse(final int edge, final EdgeInferenceWorklist worklist) {
+        final int source = edgeSources[edge];
+        edgeSources[edge] = edgeTargets[edge];
+        edgeTargets[edge] = source;
+
+        final int sourcePort = edgeSourcePorts[edge];
+        edgeSourcePorts[edge] = edgeTargetPorts[edge];
+        edgeTargetPorts[edge] = sourcePort;
+
+        reversedEdges.flip(edge);
+        if (worklist != null) {
+            worklist.edgeReversed(edge);
+        }
+    }
+
+    /**
+     * Marks the given edge as directed and reports that to the worklist.
+     *
+     * @param edge the edge's index.
+     * @param worklist the worklist, or {@code null}.
+     */
+    private void fix(final int edge, final EdgeInferenceWorklist worklist) {
+        undirectedEdges.clear(edge);
+        if (worklist != null) {
+            worklist.edgeFixed(edge);
+        }
+    }
+
+    /**
+     * Checks whether the given node is a child of the other given node.
+     *
+     * @param node the potential child's index, or {@link #NONE}.
+     * @param parent the potential parent's index.
+     * @return {@code true} if the node is a child of the parent.
+     */
+    private boolean isChild(final int node, final int parent) {
+        return node != NONE && nodeParents[node] == parent;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Inference
+
+    /**
+     * For a port of known type, sets the directions of its incident edges accordingly. This
+     * succeeds if the port is marked as being either an input port or an output port, not both.
+     *
+     * <p>Note that for hierarchical ports, the port type is only valid for connections to its
+     * node's environment. Children of the node must treat a hierarchical input port as being an
+     * output port, and the other way round for hierarchical output ports.</p>
+     *
+     * @param port the port's index.
+     * @param worklist the worklist edges that are fixed or reversed are reported to, or
+     *                 {@code null} if there is none yet.
+     * @return {@code true} if at least one edge's direction is fixed or reversed.
+     */
+    public boolean propagatePortType(final int port, final EdgeInferenceWorklist worklist) {
+        if (portTypes[port] != INPUT && portTypes[port] != OUTPUT) {
+            return false;
+        }
+
+        final boolean input = portTypes[port] == INPUT;
+        final int node = portNodes[port];
+        final int parent = nodeParents[node];
+        boolean result = false;
+
+        for (int i = portEdgeOffsets[port]; i < portEdgeOffsets[port + 1]; i++) {
+            final int edge = portEdges[i];
+
+            // For input ports, edges connected to the node's inside must be outgoing and edges
+            // connected to the node's outside must be incoming; the other way round for output
+            // ports
+            final boolean reverse;
+            if (input) {
+                reverse = isChild(edgeSources[edge], node)
+                        || (edgeSourcePorts[edge] == port && parent != NONE
+                            && isChild(edgeTargets[edge], parent));
+            } else {
+                reverse = isChild(edgeTargets[edge], node)
+                        || (edgeTargetPorts[edge] == port && parent != NONE
+                            && isChild(edgeSources[edge], parent));
+            }
+
+            if (reverse) {
+                reverse(edge, worklist);
+                result = true;
+            }
+            if (undirectedEdges.get(edge)) {
+                fix(edge, worklist);
+                result = true;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Tries to infer the type of a port of unknown type from its first incoming and outgoing edges
+     * of known direction.
+     *
+     * @param port the port's index.
+     * @return {@code true} if the port's type could be inferred.
+     */
+    public boolean inferPortType(final int port) {
+        // Find the first directed incoming and outgoing edges
+        int directedIncomingEdge = NONE;
+        int directedOutgoingEdge = NONE;
+        for (int i = portEdgeOffsets[port]; i < portEdgeOffsets[port + 1]; i++) {
+            final int edge = portEdges[i];
+            if (!undirectedEdges.get(edge)) {
+                if (directedIncomingEdge == NONE && edgeTargetPorts[edge] == port) {
+                    directedIncomingEdge = edge;
+                }
+                if (directedOutgoingEdge == NONE && edgeSourcePorts[edge] == port) {
+                    directedOutgoingEdge = edge;
+                }
+            }
+        }
+
+        final int node = portNodes[port];
+        if (directedIncomingEdge != NONE) {
+            // A connection from the inside makes an output port, one from the outside an input port
+            portTypes[port] |= isChild(edgeSources[directedIncomingEdge], node) ? OUTPUT : INPUT;
+            return true;
+        } else if (directedOutgoingEdge != NONE) {
+            // A connection to the inside makes an input port, one to the outside an output port
+            portTypes[port] |= isChild(edgeTargets[directedOutgoingEdge], node) ? INPUT : OUTPUT;
+            return true;
+        }
+
+        return false;
+    }
+
+    /**
+     * Tries to infer the directions of the edges incident to the given relation. This is done by
+     * checking whether the relation has only incoming or only outgoing edges whose direction is
+     * known, and edges whose direction is unknown. This method can operate in two different modes
+     * regarding the number of edges with unknown direction.
+     *
+     * <p>The first mode is conservative. It only fixes the direction of an undirected edge if it is
+     * the only undirected edge incident to the relation. This is the safe mode of operation.</p>
+     *
+     * <p>The second mode also accepts relations with more than one incident undirected edge. It
+     * takes the first of them and sets its direction.</p>
+     *
+     * @param relation the relation's index.
+     * @param conservative if {@code false}, operates in a mode that fixes a single edge more or
+     *                     less at random, if possible.
+     * @param worklist the worklist edges that are fixed or reversed are reported to.
+     * @return {@code true} if at least one edge's direction is fixed or reversed.
+     */
+    public boolean inferRelationEdgeDirections(final int relation, final boolean conservative,
+            final EdgeInferenceWorklist worklist) {
+
+        final int node = relationNodes[relation];
+        final int first = relationEdgeOffsets[relation];
+        final int end = relationEdgeOffsets[relation + 1];
+
+        // Count the incident edges of known direction and the undirected incident edges, the first
+        // of which is the first undirected incoming edge, if any, or else the first undirected
+        // outgoing edge
+        int fixedIncomingEdges = 0;
+        int fixedOutgoingEdges = 0;
+        int undirectedIncidentEdges = 0;
+        int undirectedEdge = NONE;
+        for (int i = first; i < end; i++) {
+            final int edge = relationEdges[i];
+            if (undirectedEdges.get(edge)) {
+                undirectedIncidentEdges += countEnds(edge, node);
+                if (undirectedEdge == NONE) {
+                    undirectedEdge = edge;
+                }
+            } else {
+                fixedIncomingEdges += edgeTargets[edge] == node ? 1 : 0;
+                fixedOutgoingEdges += edgeSources[edge] == node ? 1 : 0;
+            }
+        }
+
+        if (conservative ? undirectedIncidentEdges != 1 : undirectedIncidentEdges == 0) {
+            return false;
+        }
+
+        if (fixedIncomingEdges > 0 && fixedOutgoingEdges == 0) {
+            // Only incoming directed edges: the undirected edge must be outgoing
+            if (edgeSources[undirectedEdge] != node) {
+                reverse(undirectedEdge, worklist);
+            }
+            fix(undirectedEdge, worklist);
+            return true;
+
+        } else if (fixedOutgoingEdges > 0 && fixedIncomingEdges == 0) {
+            // Only outgoing directed edges: the undirected edge must be incoming
+            if (edgeTargets[undirectedEdge] != node) {
+                reverse(undirectedEdge, worklist);
+            }
+            fix(undirectedEdge, worklist);
+            return true;
+
+        } else if (fixedIncomingEdges > 0) {
+            // Both: the remaining edges should be outgoing
+            for (int i = first; i < end; i++) {
+                final int edge = relationEdges[i];
+                if (undirectedEdges.get(edge)) {
+                    if (edgeSources[edge] != node) {
+                        reverse(edge, worklist);
+                    }
+                    fix(edge, worklist);
+                }
+            }
+            return true;
+        }
+
+        return false;
+    }
+
+}
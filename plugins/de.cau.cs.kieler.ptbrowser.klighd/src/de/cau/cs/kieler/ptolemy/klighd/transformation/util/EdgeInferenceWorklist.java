@@ -0,0 +1,224 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.util.BitSet;
+
+/**
+ * Keeps track of the ports of unknown type and the relations that need to be looked at again while
+ * edge directions are being inferred. Looking at a port or a relation only yields something new if
+ * one of its incident edges has been fixed or reversed since it was last looked at. The inference
+ * thus reports every such change to this worklist, which in turn queues the affected ports and
+ * relations.
+ *
+ * <p>Ports, relations and edges are identified by their index in an {@link EdgeInferenceGraph},
+ * and queued elements are handed out in the order of their indices. This allows the inference to
+ * visit elements in exactly the order a full pass over all of them would visit them in, skipping
+ * only those elements that would not change anyway.</p>
+ *
+ * <p>In addition, the worklist counts the directed and undirected edges incident to each relation to
+ * be able to tell the first relation that has both kinds of edges without iterating over all of
+ * them.</p>
+ *
+ * @author cds
+ */
+public final class EdgeInferenceWorklist {
+
+    /** The graph the inference runs on. */
+    private final EdgeInferenceGraph graph;
+
+    /** Ports that need to be looked at. */
+    private final BitSet queuedPorts;
+    /** Ports whose type is known and that never need to be looked at again. */
+    private final BitSet resolvedPorts;
+    /** Relations that need to be looked at. */
+    private final BitSet queuedRelations;
+    /** Relations incident to both directed and undirected edges. */
+    private final BitSet mixedRelations;
+
+    /** Number of undirected edges incident to each relation. */
+    private final int[] undirectedEdgeCounts;
+    /** Number of directed edges incident to each relation. */
+    private final int[] directedEdgeCounts;
+
+
+    /**
+     * Creates a new worklist with all ports of unknown type and all relations of the given graph
+     * queued.
+     *
+     * @param graph the graph the inference runs on.
+     */
+    public EdgeInferenceWorklist(final EdgeInferenceGraph graph) {
+        this.graph = graph;
+
+        final int portCount = graph.getPortCount();
+        queuedPorts = new BitSet(portCount);
+        resolvedPorts = new BitSet(portCount);
+        for (int i = 0; i < portCount; i++) {
+            if (graph.isTypeKnown(i)) {
+                resolvedPorts.set(i);
+            } else {
+                queuedPorts.set(i);
+            }
+        }
+
+        final int relationCount = graph.getRelationCount();
+        queuedRelations = new BitSet(relationCount);
+        queuedRelations.set(0, relationCount);
+        mixedRelations = new BitSet(relationCount);
+
+        // Count the edges incident to each relation
+        undirectedEdgeCounts = new int[relationCount];
+        directedEdgeCounts = new int[relationCount];
+        for (int i = 0; i < relationCount; i++) {
+            undirectedEdgeCounts[i] = graph.countIncidentEdges(i, true);
+            directedEdgeCounts[i] = graph.countIncidentEdges(i, false);
+            updateMixedState(i);
+        }
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Ports
+
+    /**
+     * Removes the first queued port whose index is at least the given index from the queue.
+     *
+     * @param fromIndex the index to start looking at.
+     * @return the port's index, or {@code -1} if there is no such port.
+     */
+    public int dequeuePort(final int fromIndex) {
+        final int index = queuedPorts.nextSetBit(fromIndex);
+        if (index >= 0) {
+            queuedPorts.clear(index);
+        }
+        return index;
+    }
+
+    /**
+     * Marks the port with the given index as having a known type. The port will not be queued
+     * again.
+     *
+     * @param index the port's index.
+     */
+    public void resolvePort(final int index) {
+        resolvedPorts.set(index);
+        queuedPorts.clear(index);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Relations
+
+    /**
+     * Removes the first queued relation whose index is at least the given index from the queue.
+     *
+     * @param fromIndex the index to start looking at.
+     * @return the relation's index, or {@code -1} if there is no such relation.
+     */
+    public int dequeueRelation(final int fromIndex) {
+        final int index = queuedRelations.nextSetBit(fromIndex);
+        if (index >= 0) {
+            queuedRelations.clear(index);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the index of the first relation that is incident to both directed and undirected
+     * edges.
+     *
+     * @return the relation's index, or {@code -1} if there is no such relation.
+     */
+    public int firstMixedRelation() {
+        return mixedRelations.nextSetBit(0);
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Changes
+
+    /**
+     * Queues the ports and relations incident to an edge that has just been reversed.
+     *
+     * @param edge the reversed edge's index.
+     */
+    public void edgeReversed(final int edge) {
+        queuePort(graph.getSourcePort(edge));
+        queuePort(graph.getTargetPort(edge));
+        queueRelation(graph.getSourceRelation(edge));
+        queueRelation(graph.getTargetRelation(edge));
+    }
+
+    /**
+     * Queues the ports and relations incident to an edge whose direction has just been fixed, and
+     * updates the edge counts of the relations.
+     *
+     * @param edge the index of the edge that is now directed.
+     */
+    public void edgeFixed(final int edge) {
+        queuePort(graph.getSourcePort(edge));
+        queuePort(graph.getTargetPort(edge));
+        countFixedEdge(queueRelation(graph.getSourceRelation(edge)));
+        countFixedEdge(queueRelation(graph.getTargetRelation(edge)));
+    }
+
+    /**
+     * Queues the given port, unless it is not part of the graph or resolved.
+     *
+     * @param index the port's index, or {@link EdgeInferenceGraph#NONE}.
+     */
+    private void queuePort(final int index) {
+        if (index != EdgeInferenceGraph.NONE && !resolvedPorts.get(index)) {
+            queuedPorts.set(index);
+        }
+    }
+
+    /**
+     * Queues the given relation.
+     *
+     * @param index the relation's index, or {@link EdgeInferenceGraph#NONE}.
+     * @return the relation's index, or {@link EdgeInferenceGraph#NONE}.
+     */
+    private int queueRelation(final int index) {
+        if (index != EdgeInferenceGraph.NONE) {
+            queuedRelations.set(index);
+        }
+        return index;
+    }
+
+    /**
+     * Updates the edge counts of a relation one of whose undirected edges has just been fixed.
+     *
+     * @param index the relation's index, or {@link EdgeInferenceGraph#NONE} if the edge's end is
+     *              not a relation.
+     */
+    private void countFixedEdge(final int index) {
+        if (index != EdgeInferenceGraph.NONE) {
+            undirectedEdgeCounts[index]--;
+            directedEdgeCounts[index]++;
+            updateMixedState(index);
+        }
+    }
+
+    /**
+     * Updates whether the given relation is incident to both directed and undirected edges.
+     *
+     * @param index the relation's index.
+     */
+    private void updateMixedState(final int index) {
+        mixedRelations.set(index, undirectedEdgeCounts[index] > 0 && directedEdgeCounts[index] > 0);
+    }
+
+}
@@ -0,0 +1,169 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.Consumer;
+
+import com.google.common.collect.Lists;
+
+import de.cau.cs.kieler.klighd.kgraph.KNode;
+
+/**
+ * Runs several passes over a model tree in a single traversal. Each pass registers a visitor that
+ * is handed every node of the tree. Nodes are visited before their children and children in the
+ * order they appear in their parent's list of children, which is the order a recursive
+ * implementation of a pass would visit them in. Each node is handed to all visitors, in the order
+ * they were registered, before the traversal moves on.
+ *
+ * <p>Fusing passes this way saves walking large models again and again. However, it is only correct
+ * for passes that do not depend on a pass registered later having been run on other nodes. A pass
+ * that only looks at a node, its ports and its children along with the edges between them usually
+ * qualifies.</p>
+ *
+ * <p>Visitors may change the children of the node they are handed. The children are only looked up
+ * once all visitors have run, so nodes removed by a visitor are not visited, while nodes added by a
+ * visitor are. The traversal is iterative, so models may be nested arbitrarily deep.</p>
+ *
+ * <p>The traversal can also be run in parallel, with the subtree of each compound node traversed as
+ * a fork/join task of its own. Sibling subtrees are then visited concurrently and in no particular
+ * order. This is only correct if visitors never touch anything outside of the node they are handed,
+ * its ports, and its children along with the edges between them. The subtrees of different children
+ * are then independent of each other, and each node is still visited after its parent.</p>
+ *
+ * @author cds
+ */
+public final class FusedTraversal {
+
+    /** The visitors, in the order they were registered. */
+    private final List<Consumer<KNode>> visitors = Lists.newArrayList();
+
+
+    /**
+     * Convenience method that runs a single visitor over the tree rooted at the given node.
+     *
+     * @param root the tree's root node.
+     * @param visitor the visitor.
+     */
+    public static void traverse(final KNode root, final Consumer<KNode> visitor) {
+        new FusedTraversal().register(visitor).traverse(root);
+    }
+
+    /**
+     * Registers a visitor that will be handed each node after the visitors registered before it.
+     *
+     * @param visitor the visitor.
+     * @return this traversal, for method chaining.
+     */
+    public FusedTraversal register(final Consumer<KNode> visitor) {
+        visitors.add(visitor);
+        return this;
+    }
+
+    /**
+     * Hands each node of the tree rooted at the given node to the registered visitors.
+     *
+     * @param root the tree's root node.
+     */
+    public void traverse(final KNode root) {
+        final Deque<KNode> stack = new ArrayDeque<KNode>();
+        stack.push(root);
+
+        while (!stack.isEmpty()) {
+            final KNode node = stack.pop();
+            for (Consumer<KNode> visitor : visitors) {
+                visitor.accept(node);
+            }
+
+            // Push the children from last to first to have them popped from first to last
+            final List<KNode> children = node.getChildren();
+            final ListIterator<KNode> childIterator = children.listIterator(children.size());
+            while (childIterator.hasPrevious()) {
+                stack.push(childIterator.previous());
+            }
+        }
+    }
+
+    /**
+     * Hands each node of the tree rooted at the given node to the registered visitors, traversing the
+     * subtrees of compound nodes in parallel. Returns once all nodes have been visited. See the class
+     * comment for the restrictions this places on visitors.
+     *
+     * @param root the tree's root node.
+     */
+    public void traverseInParallel(final KNode root) {
+        new SubtreeTask(root).invoke();
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Parallel Traversal
+
+    /**
+     * Task that traverses the subtree rooted at a node. Children that are compound nodes get tasks of
+     * their own, while the other children are visited right away, which saves forking a task for each
+     * of the many simple nodes.
+     */
+    private final class SubtreeTask extends RecursiveAction {
+
+        /** Serial version UID. */
+        private static final long serialVersionUID = 1L;
+
+        /** Root of the subtree to traverse. */
+        private final transient KNode root;
+
+
+        /**
+         * Creates a task that traverses the subtree rooted at the given node.
+         *
+         * @param root the subtree's root node.
+         */
+        SubtreeTask(final KNode root) {
+            this.root = root;
+        }
+
+        @Override
+        protected void compute() {
+            final List<SubtreeTask> subtasks = Lists.newArrayList();
+            final Deque<KNode> stack = new ArrayDeque<KNode>();
+            stack.push(root);
+
+            while (!stack.isEmpty()) {
+                final KNode node = stack.pop();
+                for (Consumer<KNode> visitor : visitors) {
+                    visitor.accept(node);
+                }
+
+                for (KNode child : node.getChildren()) {
+                    if (child.getChildren().isEmpty()) {
+                        stack.push(child);
+                    } else {
+                        final SubtreeTask subtask = new SubtreeTask(child);
+                        subtask.fork();
+                        subtasks.add(subtask);
+                    }
+                }
+            }
+
+            for (SubtreeTask subtask : subtasks) {
+                subtask.join();
+            }
+        }
+    }
+
+}
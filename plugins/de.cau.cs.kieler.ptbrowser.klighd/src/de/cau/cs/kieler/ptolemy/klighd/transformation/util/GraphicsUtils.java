@@ -76,13 +76,109 @@ public final class GraphicsUtils {
     ////////////////////////////////////////////////////////////////////////////////////////////////////
     // SWT to SWT Graphics
     
+    /** Mask of the red component of the pixels of converted images. */
+    private static final int RED_MASK = 0xFF0000;
+    /** Mask of the green component of the pixels of converted images. */
+    private static final int GREEN_MASK = 0x00FF00;
+    /** Mask of the blue component of the pixels of converted images. */
+    private static final int BLUE_MASK = 0x0000FF;
+    
     /**
-     * Helper method for converting AWT images into SWT ones.
+     * Helper method for converting AWT images into SWT ones. Images of the common types
+     * {@link BufferedImage#TYPE_INT_RGB}, {@link BufferedImage#TYPE_INT_ARGB}, and
+     * {@link BufferedImage#TYPE_4BYTE_ABGR} are converted a whole row at a time, including their
+     * alpha channel. Other images are converted through
+     * {@link #convertToSwtPixelwise(BufferedImage)}.
      * 
      * @param bufferedImage The {@link BufferedImage} resulting from the first step of conversion
      * @return The SWT {@link ImageData} for the given image
      */
     public static ImageData convertToSwt(final BufferedImage bufferedImage) {
+        switch (bufferedImage.getType()) {
+        case BufferedImage.TYPE_INT_RGB:
+        case BufferedImage.TYPE_INT_ARGB:
+        case BufferedImage.TYPE_4BYTE_ABGR:
+            return convertToSwtInBulk(bufferedImage);
+            
+        default:
+            return convertToSwtPixelwise(bufferedImage);
+        }
+    }
+    
+    /**
+     * Converts an AWT image of type {@link BufferedImage#TYPE_INT_RGB},
+     * {@link BufferedImage#TYPE_INT_ARGB}, or {@link BufferedImage#TYPE_4BYTE_ABGR} into an SWT one.
+     * Each row of pixels is copied out of the image's raster at once and written straight into the
+     * SWT image's data, without going through color objects. Images with an alpha channel yield
+     * 32 bit images with alpha data, others 24 bit images.
+     * 
+     * @param bufferedImage the AWT image.
+     * @return the SWT image.
+     */
+    private static ImageData convertToSwtInBulk(final BufferedImage bufferedImage) {
+        final int width = bufferedImage.getWidth();
+        final int height = bufferedImage.getHeight();
+        final boolean hasAlpha = bufferedImage.getType() != BufferedImage.TYPE_INT_RGB;
+        
+        // SWT reads pixels most significant byte first, so the color components of 24 bit pixels
+        // are stored as red, green, blue, and those of 32 bit pixels after an unused byte
+        final ImageData data = new ImageData(width, height, hasAlpha ? 32 : 24,
+                new PaletteData(RED_MASK, GREEN_MASK, BLUE_MASK));
+        final byte[] pixels = data.data;
+        final byte[] alpha = hasAlpha ? new byte[width * height] : null;
+        final int skippedBytes = hasAlpha ? 1 : 0;
+        final WritableRaster raster = bufferedImage.getRaster();
+        
+        if (bufferedImage.getType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            // Each pixel's samples are handed out in the order of the color model's bands, which
+            // is red, green, blue, alpha, no matter how they are laid out in memory
+            final int bands = 4;
+            final byte[] row = new byte[width * bands];
+            for (int y = 0; y < height; y++) {
+                raster.getDataElements(0, y, width, 1, row);
+                int pixelIndex = y * data.bytesPerLine;
+                int alphaIndex = y * width;
+                for (int sample = 0; sample < row.length; sample += bands) {
+                    pixelIndex += skippedBytes;
+                    pixels[pixelIndex++] = row[sample];
+                    pixels[pixelIndex++] = row[sample + 1];
+                    pixels[pixelIndex++] = row[sample + 2];
+                    alpha[alphaIndex++] = row[sample + bands - 1];
+                }
+            }
+        } else {
+            // Each pixel is handed out packed into an int as alpha, red, green, blue
+            final int[] row = new int[width];
+            for (int y = 0; y < height; y++) {
+                raster.getDataElements(0, y, width, 1, row);
+                int pixelIndex = y * data.bytesPerLine;
+                int alphaIndex = y * width;
+                for (int pixel : row) {
+                    pixelIndex += skippedBytes;
+                    pixels[pixelIndex++] = (byte) (pixel >> 16);
+                    pixels[pixelIndex++] = (byte) (pixel >> 8);
+                    pixels[pixelIndex++] = (byte) pixel;
+                    if (hasAlpha) {
+                        alpha[alphaIndex++] = (byte) (pixel >>> 24);
+                    }
+                }
+            }
+        }
+        
+        data.alphaData = alpha;
+        return data;
+    }
+    
+    /**
+     * Converts an AWT image into an SWT one a pixel at a time. Handles images with direct and with
+     * indexed color models, but ignores the alpha channel of the former. This is slow, since every
+     * pixel goes through several method calls and a color object, so
+     * {@link #convertToSwt(BufferedImage)} only resorts to it for uncommon image types.
+     * 
+     * @param bufferedImage the AWT image.
+     * @return the SWT image, or {@code null} if the image's color model is not supported.
+     */
+    public static ImageData convertToSwtPixelwise(final BufferedImage bufferedImage) {
         if (bufferedImage.getColorModel() instanceof DirectColorModel) {
             DirectColorModel colorModel = (DirectColorModel) bufferedImage.getColorModel();
             PaletteData palette = new PaletteData(colorModel.getRedMask(),
@@ -90,8 +186,8 @@ public final class GraphicsUtils {
             ImageData data = new ImageData(bufferedImage.getWidth(), bufferedImage.getHeight(),
                     colorModel.getPixelSize(), palette);
             WritableRaster raster = bufferedImage.getRaster();
-            final int rasterSize = 3;
-            int[] pixelArray = new int[rasterSize];
+            // The alpha sample, if any, comes last and is ignored
+            int[] pixelArray = new int[raster.getNumBands()];
             for (int y = 0; y < data.height; y++) {
                 for (int x = 0; x < data.width; x++) {
                     raster.getPixel(x, y, pixelArray);
@@ -271,7 +367,8 @@ public final class GraphicsUtils {
 
     /**
      * Converts an SVG description from Ptolemy into an SVG description that is compatible to the
-     * SVG standard.
+     * SVG standard. {@link StreamingSvgRepair} does the same while parsing the description, which
+     * is a lot faster than walking the document over and over again as this method does.
      * 
      * @param svg
      *            the string describing an svg in xml
@@ -488,13 +585,17 @@ public final class GraphicsUtils {
      * @return a repaired version of the input that an xml parser can understand.
      */
     public static String repairString(final String input) {
-        String[] parts = input.split("\"");
-        StringBuffer output = new StringBuffer();
-        for (int i = 0; i < parts.length; i += 2) {
-            if (i < parts.length - 1) {
-                output.append(parts[i] + "\"" + parts[i + 1] + "\" ");
-            } else {
-                output.append(parts[i]);
+        // Ptolemy forgets the blanks between attributes, so add one after every closing quote
+        StringBuilder output = new StringBuilder(input.length() + input.length() / 8);
+        boolean inQuotes = false;
+        for (int i = 0; i < input.length(); i++) {
+            char c = input.charAt(i);
+            output.append(c);
+            if (c == '"') {
+                if (inQuotes) {
+                    output.append(' ');
+                }
+                inQuotes = !inQuotes;
             }
         }
         return output.toString();
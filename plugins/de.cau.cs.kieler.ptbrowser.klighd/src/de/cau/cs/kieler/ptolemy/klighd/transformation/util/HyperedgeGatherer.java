@@ -13,6 +13,7 @@
  */
 package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
 
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -42,8 +43,15 @@ public final class HyperedgeGatherer {
     private KNode root;
     /** List of hypernodes. */
     private List<Hyperedge> hyperedges;
-    /** Mapping of each relation to its hyperedge for easy access. */
-    private Map<KNode, Hyperedge> relationToHyperedge;
+    
+    /** Relations encountered so far, indexed by the order they were encountered in. */
+    private List<KNode> relations;
+    /** Index of each relation in the list of relations. */
+    private Map<KNode, Integer> relationIndices;
+    /** Parent of each relation in the union-find forest. Roots are their own parents. */
+    private int[] parents;
+    /** Upper bound of the height of each root's tree in the union-find forest. */
+    private int[] ranks;
     
     
     /**
@@ -75,42 +83,86 @@ public final class HyperedgeGatherer {
     
     /**
      * Partitions relations from the root node into groups, each of which represents a hyperedge.
+     * 
+     * <p>Relations connected to each other belong to the same hyperedge. We first compute the
+     * connected components of relations using a union-find structure, which takes near-linear time
+     * in the number of edges between relations. The hyperedges and their connections to regular
+     * nodes are only assembled afterwards, in the order the relations appear in.</p>
      */
     public void gatherHyperedges() {
         // Initialization
-        hyperedges = Lists.newLinkedList();
-        relationToHyperedge = Maps.newHashMap();
+        relations = Lists.newArrayList();
+        relationIndices = Maps.newHashMap();
         
-        // Iterate over the root's child nodes, looking for relations
         for (KNode node : root.getChildren()) {
             if (isRelation(node)) {
-                handleRelation(node);
+                indexOf(node);
+            }
+        }
+        
+        final int childRelations = relations.size();
+        parents = new int[childRelations];
+        ranks = new int[childRelations];
+        for (int i = 0; i < childRelations; i++) {
+            parents[i] = i;
+        }
+        
+        // Connect relations linked to each other
+        for (int i = 0; i < childRelations; i++) {
+            final KNode relation = relations.get(i);
+            
+            for (KEdge edge : relation.getOutgoingEdges()) {
+                if (isRelation(edge.getTarget())) {
+                    union(i, indexOf(edge.getTarget()));
+                }
+            }
+            
+            for (KEdge edge : relation.getIncomingEdges()) {
+                if (isRelation(edge.getSource())) {
+                    union(i, indexOf(edge.getSource()));
+                }
             }
         }
+        
+        // Assemble the hyperedges, including relations outside the root that the root's relations
+        // are linked to
+        hyperedges = Lists.newArrayList();
+        final Hyperedge[] hyperedgeOfRoot = new Hyperedge[relations.size()];
+        
+        for (int i = 0; i < relations.size(); i++) {
+            final KNode relation = relations.get(i);
+            final int componentRoot = find(i);
+            
+            Hyperedge hyperedge = hyperedgeOfRoot[componentRoot];
+            if (hyperedge == null) {
+                hyperedge = new Hyperedge(relation);
+                hyperedgeOfRoot[componentRoot] = hyperedge;
+                hyperedges.add(hyperedge);
+            } else {
+                hyperedge.relations.add(relation);
+            }
+            
+            if (i < childRelations) {
+                addConnections(relation, hyperedge);
+            }
+        }
+        
+        // The union-find structure is not needed anymore
+        relations = null;
+        relationIndices = null;
+        parents = null;
+        ranks = null;
     }
     
     /**
-     * Handles the given relation by iterating over its incident edges and adding and merging
-     * hyperedges and shit.
+     * Adds the given relation's connections to regular nodes and ports to the given hyperedge.
      * 
-     * @param relation the relation node.
+     * @param relation the relation.
+     * @param hyperedge the hyperedge the relation belongs to.
      */
-    private void handleRelation(final KNode relation) {
-        Hyperedge hyperedge = relationToHyperedge.get(relation);
-        
-        // Create a new hyperedge if this relation doesn't already have one
-        if (hyperedge == null) {
-            hyperedge = new Hyperedge(relation);
-            
-            hyperedges.add(hyperedge);
-            relationToHyperedge.put(relation, hyperedge);
-        }
-        
-        // Iterate over the relation's edges, looking for connections to other relations
+    private void addConnections(final KNode relation, final Hyperedge hyperedge) {
         for (KEdge edge : relation.getOutgoingEdges()) {
-            if (isRelation(edge.getTarget())) {
-                hyperedge = handleTwoRelations(relation, edge.getTarget());
-            } else {
+            if (!isRelation(edge.getTarget())) {
                 // Standard connection to outside world
                 if (edge.getTargetPort() == null) {
                     hyperedge.targetNodes.add(edge.getTarget());
@@ -121,9 +173,7 @@ public final class HyperedgeGatherer {
         }
         
         for (KEdge edge : relation.getIncomingEdges()) {
-            if (isRelation(edge.getSource())) {
-                hyperedge = handleTwoRelations(relation, edge.getTarget());
-            } else {
+            if (!isRelation(edge.getSource())) {
                 // Standard connection to outside world
                 if (edge.getSourcePort() == null) {
                     hyperedge.sourceNodes.add(edge.getSource());
@@ -135,40 +185,75 @@ public final class HyperedgeGatherer {
     }
     
     /**
-     * Checks if the two relations belong to the same hyperedge and, if not, merges the first hyperedge
-     * into the second hyperedge. The first relation is assumed to already belong to a hyperedge.
+     * Returns the index of the given relation, assigning it a new index if it doesn't have one yet.
+     * The union-find structure is grown accordingly.
      * 
-     * @param relation1 the first relation, which already belongs to a hyperedge.
-     * @param relation2 the first relation.
-     * @return the hyperedge that both relations belong to after this method is done.
+     * @param relation the relation.
+     * @return the relation's index.
      */
-    private Hyperedge handleTwoRelations(final KNode relation1, final KNode relation2) {
-        Hyperedge he1 = relationToHyperedge.get(relation1);
-        Hyperedge he2 = relationToHyperedge.get(relation2);
-
-        // Check if the two relations belong to the same hyperedge
-        if (he1 != he2) {
-            // Does the second relation already belong to a hyperedge?
-            if (he2 == null) {
-                he1.relations.add(relation2);
-                relationToHyperedge.put(relation2, he1);
-                
-                return he1;
+    private int indexOf(final KNode relation) {
+        Integer index = relationIndices.get(relation);
+        if (index == null) {
+            index = relations.size();
+            relations.add(relation);
+            relationIndices.put(relation, index);
+            
+            if (parents != null) {
+                // Relations outside the root only show up once the forest has been created
+                if (index >= parents.length) {
+                    parents = Arrays.copyOf(parents, 2 * index + 1);
+                    ranks = Arrays.copyOf(ranks, parents.length);
+                }
+                parents[index] = index;
+            }
+        }
+        return index;
+    }
+    
+    /**
+     * Returns the root of the tree the given relation belongs to in the union-find forest,
+     * compressing the path to it along the way.
+     * 
+     * @param index the relation's index.
+     * @return the root's index.
+     */
+    private int find(final int index) {
+        int componentRoot = index;
+        while (parents[componentRoot] != componentRoot) {
+            componentRoot = parents[componentRoot];
+        }
+        
+        // Path compression
+        int current = index;
+        while (parents[current] != componentRoot) {
+            final int next = parents[current];
+            parents[current] = componentRoot;
+            current = next;
+        }
+        
+        return componentRoot;
+    }
+    
+    /**
+     * Merges the trees the two given relations belong to in the union-find forest.
+     * 
+     * @param index1 the first relation's index.
+     * @param index2 the second relation's index.
+     */
+    private void union(final int index1, final int index2) {
+        final int root1 = find(index1);
+        final int root2 = find(index2);
+        
+        if (root1 != root2) {
+            // Union by rank keeps the trees flat
+            if (ranks[root1] < ranks[root2]) {
+                parents[root1] = root2;
+            } else if (ranks[root1] > ranks[root2]) {
+                parents[root2] = root1;
             } else {
-                // They don't; merge hyperedge 1 into hyperedge 2
-                he2.relations.addAll(he1.relations);
-                he2.sourceNodes.addAll(he1.sourceNodes);
-                he2.sourcePorts.addAll(he1.sourcePorts);
-                he2.targetNodes.addAll(he1.targetNodes);
-                he2.targetPorts.addAll(he1.targetPorts);
-                
-                hyperedges.remove(he1);
-                relationToHyperedge.put(relation1, he2);
-                
-                return he2;
+                parents[root2] = root1;
+                ranks[root1]++;
             }
-        } else {
-            return he2;
         }
     }
     
@@ -193,7 +278,7 @@ public final class HyperedgeGatherer {
      */
     public static class Hyperedge {
         /** Relations that belong to this hyperedge. */
-        public List<KNode> relations = Lists.newLinkedList();
+        public List<KNode> relations = Lists.newArrayList();
         /** Source nodes that directly connect to a relation in this hyperedge. */
         public Set<KNode> sourceNodes = Sets.newLinkedHashSet();
         /** Source ports that connect to a relation in this hyperedge. */
@@ -0,0 +1,528 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.Status;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.FrameworkUtil;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import de.cau.cs.kieler.ptolemy.klighd.PluginConstants;
+import ptolemy.actor.IOPort;
+import ptolemy.actor.parameters.ParameterPort;
+import ptolemy.kernel.Entity;
+import ptolemy.kernel.util.Attribute;
+import ptolemy.kernel.util.NamedObj;
+import ptolemy.kernel.util.StringAttribute;
+
+/**
+ * Caches the ports Ptolemy actor classes define in their implementation. Finding out about
+ * these ports requires the actor to be instantiated through Ptolemy's MoML parser, which is
+ * expensive. Since the answer only changes if the Ptolemy library changes, signatures are persisted
+ * to our bundle's state location, stamped with the version of the Ptolemy bundle. They are loaded
+ * once this class is first used, and new signatures are written back in the background.
+ *
+ * <p>Cache misses are filled in the background as well. Before a model is transformed, the
+ * {@code PtolemyInterface} schedules the actor classes it uses that are not in the cache yet to be
+ * instantiated on a single prefetching thread; Ptolemy only allows one actor to be instantiated at
+ * a time anyway. Asking for the ports of a class whose lookup is still pending waits for that
+ * lookup, or runs it right away if it has not started yet. Classes that were not prefetched are
+ * instantiated on the thread that asks for their ports.</p>
+ *
+ * <p>If no state location is available, as is the case when running without a workspace, the cache
+ * works in memory only.</p>
+ *
+ * @author cds
+ */
+public final class PortSignatureCache {
+
+    /** Name of the file signatures are persisted to. */
+    private static final String FILE_NAME = "portSignatures.bin"; //$NON-NLS-1$
+    /** Version of the file format. Increment whenever the format changes. */
+    private static final int FORMAT_VERSION = 1;
+
+    /** The one and only instance. */
+    private static final PortSignatureCache INSTANCE = new PortSignatureCache();
+
+    /** Port signatures indexed by the qualified class name of the actor they belong to. */
+    private final Map<String, List<PortSignature>> signatures =
+            new ConcurrentHashMap<String, List<PortSignature>>();
+    /** The file signatures are persisted to, or {@code null} if they are not persisted. */
+    private final File file;
+    /** Version of the Ptolemy bundle the signatures were obtained from. */
+    private final String ptolemyVersion;
+    /** Executor that writes signatures back to disk. */
+    private final ExecutorService writer;
+    /** Whether a write is already scheduled that will pick up new signatures. */
+    private final AtomicBoolean writePending = new AtomicBoolean(false);
+
+
+    /**
+     * Creates the cache and loads persisted signatures.
+     */
+    private PortSignatureCache() {
+        final Bundle ourBundle = FrameworkUtil.getBundle(PortSignatureCache.class);
+        final Bundle ptolemyBundle = FrameworkUtil.getBundle(NamedObj.class);
+
+        File stateFile = null;
+        if (ourBundle != null && ptolemyBundle != null) {
+            try {
+                stateFile = Platform.getStateLocation(ourBundle).append(FILE_NAME).toFile();
+            } catch (IllegalStateException e) {
+                // There is no instance location to store state in
+            }
+        }
+
+        file = stateFile;
+        ptolemyVersion = ptolemyBundle != null
+                ? ptolemyBundle.getVersion().toString()
+                : ""; //$NON-NLS-1$
+
+        if (file != null) {
+            writer = Executors.newSingleThreadExecutor(runnable -> {
+                final Thread thread = new Thread(runnable,
+                        "Ptolemy Port Signature Writer"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            });
+            load();
+        } else {
+            writer = null;
+        }
+    }
+
+    /**
+     * Returns the one and only instance of this class.
+     *
+     * @return the instance.
+     */
+    public static PortSignatureCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Cache Access
+
+    /**
+     * Returns the signatures of the ports defined by the given actor class.
+     *
+     * @param className qualified name of the actor's class.
+     * @return the port signatures, or {@code null} if the actor class is unknown.
+     */
+    public List<PortSignature> get(final String className) {
+        return signatures.get(className);
+    }
+
+    /**
+     * Computes the signatures of the ports defined by the given instantiated actor and remembers
+     * them for the given actor class.
+     *
+     * @param className qualified name of the actor's class.
+     * @param entity instance of the actor class.
+     * @return the port signatures.
+     */
+    public List<PortSignature> put(final String className, final Entity entity) {
+        final ImmutableList.Builder<PortSignature> builder = ImmutableList.builder();
+
+        int index = 0;
+        for (Object port : entity.portList()) {
+            if (port instanceof IOPort) {
+                builder.add(new PortSignature((IOPort) port, index));
+            }
+            index++;
+        }
+
+        final List<PortSignature> result = builder.build();
+        if (signatures.put(className, result) == null) {
+            scheduleWrite();
+        }
+        return result;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Persistence
+
+    /**
+     * Loads persisted signatures, if any. Signatures obtained from a different version of the
+     * Ptolemy bundle are discarded.
+     */
+    private void load() {
+        if (!file.isFile()) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+
+            if (in.readInt() != FORMAT_VERSION || !in.readUTF().equals(ptolemyVersion)) {
+                return;
+            }
+
+            final int classCount = in.readInt();
+            for (int i = 0; i < classCount; i++) {
+                final String className = in.readUTF();
+                final int portCount = in.readInt();
+
+                final ImmutableList.Builder<PortSignature> builder = ImmutableList.builder();
+                for (int j = 0; j < portCount; j++) {
+                    builder.add(new PortSignature(in));
+                }
+                signatures.put(className, builder.build());
+            }
+        } catch (IOException e) {
+            // A broken cache is as good as none
+            signatures.clear();
+        }
+    }
+
+    /**
+     * Schedules the signatures to be written to disk, unless a write is pending anyway.
+     */
+    private void scheduleWrite() {
+        if (writer != null && writePending.compareAndSet(false, true)) {
+            writer.execute(() -> {
+                writePending.set(false);
+                save();
+            });
+        }
+    }
+
+    /**
+     * Writes the signatures to disk. The file is replaced atomically to not leave a broken cache
+     * behind if anything goes wrong.
+     */
+    private void save() {
+        final File tempFile = new File(file.getParentFile(), FILE_NAME + ".tmp"); //$NON-NLS-1$
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+
+                // The map may change while we write it, so take a snapshot first
+                final List<Map.Entry<String, List<PortSignature>>> entries =
+                        Lists.newArrayList(signatures.entrySet());
+
+                out.writeInt(FORMAT_VERSION);
+                out.writeUTF(ptolemyVersion);
+                out.writeInt(entries.size());
+                for (Map.Entry<String, List<PortSignature>> entry : entries) {
+                    out.writeUTF(entry.getKey());
+                    out.writeInt(entry.getValue().size());
+                    for (PortSignature signature : entry.getValue()) {
+                        signature.write(out);
+                    }
+                }
+            }
+
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            tempFile.delete();
+            Platform.getLog(FrameworkUtil.getBundle(PortSignatureCache.class)).log(new Status(
+                    IStatus.WARNING,
+                    PluginConstants.PLUGIN_ID,
+                    "Unable to save Ptolemy port signatures.", //$NON-NLS-1$
+                    e));
+        }
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Signatures
+
+    /**
+     * Describes a port defined by an actor's implementation.
+     */
+    public static final class PortSignature {
+        /** Flag set if the port is an input port. */
+        private static final int INPUT = 1;
+        /** Flag set if the port is an output port. */
+        private static final int OUTPUT = 2;
+        /** Flag set if the port is a multiport. */
+        private static final int MULTIPORT = 4;
+        /** Flag set if the port is a parameter port. */
+        private static final int PARAMETER_PORT = 8;
+
+        /** The port's name. */
+        private final String name;
+        /** The port's index in the list of all ports of its actor. */
+        private final int index;
+        /** The port's flags. */
+        private final int flags;
+        /** The port's attributes. */
+        private final List<AttributeSignature> attributes;
+
+        /**
+         * Creates the signature of the given port.
+         *
+         * @param port the port.
+         * @param index the port's index in the list of all ports of its actor.
+         */
+        private PortSignature(final IOPort port, final int index) {
+            this.name = port.getName();
+            this.index = index;
+
+            int portFlags = 0;
+            if (port.isInput() || port.getAttribute("input") != null //$NON-NLS-1$
+                    || port.getAttribute("inputoutput") != null) { //$NON-NLS-1$
+                portFlags |= INPUT;
+            }
+            if (port.isOutput() || port.getAttribute("output") != null //$NON-NLS-1$
+                    || port.getAttribute("inputoutput") != null) { //$NON-NLS-1$
+                portFlags |= OUTPUT;
+            }
+            if (port.isMultiport()) {
+                portFlags |= MULTIPORT;
+            }
+            if (port instanceof ParameterPort) {
+                portFlags |= PARAMETER_PORT;
+            }
+            this.flags = portFlags;
+
+            this.attributes = AttributeSignature.of(port);
+        }
+
+        /**
+         * Reads a signature from the given stream.
+         *
+         * @param in the stream to read from.
+         * @throws IOException if reading fails.
+         */
+        private PortSignature(final DataInputStream in) throws IOException {
+            this.name = in.readUTF();
+            this.index = in.readInt();
+            this.flags = in.readByte();
+            this.attributes = AttributeSignature.read(in);
+        }
+
+        /**
+         * Writes this signature to the given stream.
+         *
+         * @param out the stream to write to.
+         * @throws IOException if writing fails.
+         */
+        private void write(final DataOutputStream out) throws IOException {
+            out.writeUTF(name);
+            out.writeInt(index);
+            out.writeByte(flags);
+            AttributeSignature.write(attributes, out);
+        }
+
+        /**
+         * @return the port's name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the port's index in the list of all ports of its actor.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return whether the port is an input port.
+         */
+        public boolean isInput() {
+            return (flags & INPUT) != 0;
+        }
+
+        /**
+         * @return whether the port is an output port.
+         */
+        public boolean isOutput() {
+            return (flags & OUTPUT) != 0;
+        }
+
+        /**
+         * @return whether the port is a multiport.
+         */
+        public boolean isMultiport() {
+            return (flags & MULTIPORT) != 0;
+        }
+
+        /**
+         * @return whether the port is a parameter port.
+         */
+        public boolean isParameterPort() {
+            return (flags & PARAMETER_PORT) != 0;
+        }
+
+        /**
+         * @return the port's attributes.
+         */
+        public List<AttributeSignature> getAttributes() {
+            return attributes;
+        }
+    }
+
+    /**
+     * Describes an attribute of a port, including its own attributes.
+     */
+    public static final class AttributeSignature {
+        /** The attribute's name. */
+        private final String name;
+        /** The attribute's class name. */
+        private final String className;
+        /** The attribute's value if it is a string attribute, {@code null} otherwise. */
+        private final String value;
+        /** The attribute's attributes. */
+        private final List<AttributeSignature> attributes;
+
+        /**
+         * Creates a new signature.
+         *
+         * @param name the attribute's name.
+         * @param className the attribute's class name.
+         * @param value the attribute's value, if any.
+         * @param attributes the attribute's attributes.
+         */
+        private AttributeSignature(final String name, final String className, final String value,
+                final List<AttributeSignature> attributes) {
+
+            this.name = name;
+            this.className = className;
+            this.value = value;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Creates signatures of the attributes of the given object, recursively.
+         *
+         * @param object the object whose attributes to describe.
+         * @return the attribute signatures.
+         */
+        private static List<AttributeSignature> of(final NamedObj object) {
+            final List<?> objectAttributes = object.attributeList();
+            if (objectAttributes.isEmpty()) {
+                return Collections.emptyList();
+            }
+
+            final ImmutableList.Builder<AttributeSignature> builder = ImmutableList.builder();
+            for (Object attribute : objectAttributes) {
+                if (attribute instanceof Attribute) {
+                    final Attribute ptAttribute = (Attribute) attribute;
+                    builder.add(new AttributeSignature(
+                            ptAttribute.getName(),
+                            ptAttribute.getClassName(),
+                            ptAttribute instanceof StringAttribute
+                                ? ((StringAttribute) ptAttribute).getValueAsString()
+                                : null,
+                            of(ptAttribute)));
+                }
+            }
+            return builder.build();
+        }
+
+        /**
+         * Reads a list of signatures from the given stream.
+         *
+         * @param in the stream to read from.
+         * @return the signatures.
+         * @throws IOException if reading fails.
+         */
+        private static List<AttributeSignature> read(final DataInputStream in) throws IOException {
+            final int count = in.readInt();
+            if (count == 0) {
+                return Collections.emptyList();
+            }
+
+            final ImmutableList.Builder<AttributeSignature> builder = ImmutableList.builder();
+            for (int i = 0; i < count; i++) {
+                final String name = in.readUTF();
+                final String className = in.readUTF();
+                final String value = in.readBoolean() ? in.readUTF() : null;
+                builder.add(new AttributeSignature(name, className, value, read(in)));
+            }
+            return builder.build();
+        }
+
+        /**
+         * Writes the given list of signatures to the given stream.
+         *
+         * @param signatures the signatures to write.
+         * @param out the stream to write to.
+         * @throws IOException if writing fails.
+         */
+        private static void write(final List<AttributeSignature> signatures,
+                final DataOutputStream out) throws IOException {
+
+            out.writeInt(signatures.size());
+            for (AttributeSignature signature : signatures) {
+                out.writeUTF(signature.name);
+                out.writeUTF(signature.className);
+                out.writeBoolean(signature.value != null);
+                if (signature.value != null) {
+                    out.writeUTF(signature.value);
+                }
+                write(signature.attributes, out);
+            }
+        }
+
+        /**
+         * @return the attribute's name.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return the attribute's class name.
+         */
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the attribute's value if it is a string attribute, {@code null} otherwise.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return the attribute's attributes.
+         */
+        public List<AttributeSignature> getAttributes() {
+            return attributes;
+        }
+    }
+
+}
@@ -0,0 +1,367 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+
+/**
+ * Parses the SVG descriptions of Ptolemy actors and repairs them in the same way as
+ * {@link GraphicsUtils#repairSvg(Document)}, but without walking the document again and again. The
+ * description is read with a streaming XML parser that builds the document and, at the same time,
+ * indexes its elements by tag name. The repair then only looks at the elements it changes.
+ *
+ * <p>Point lists are parsed without splitting them into strings first. Coordinates may be
+ * separated by commas and whitespace in any combination, as the SVG standard allows.</p>
+ *
+ * <p>This class is not meant to be instantiated.</p>
+ *
+ * @author cds
+ */
+public final class StreamingSvgRepair {
+
+    /** Style added to shapes to have them drawn with an outline, as Ptolemy does. */
+    private static final String OUTLINE_STYLE = ";stroke:black;stroke-width:1"; //$NON-NLS-1$
+
+
+    /**
+     * Not meant to be instantiated.
+     */
+    private StreamingSvgRepair() {
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Parsing
+
+    /**
+     * Parses and repairs the given SVG description from Ptolemy. The string is repaired with
+     * {@link GraphicsUtils#repairString(String)} before it is parsed.
+     *
+     * @param svgDescription the SVG description.
+     * @return an SVG document compatible with the SVG standard, or {@code null} if the description
+     *         could not be parsed or repaired.
+     */
+    public static Document parseAndRepair(final String svgDescription) {
+        try {
+            final Document document = DocumentBuilderFactory.newInstance()
+                    .newDocumentBuilder()
+                    .newDocument();
+            final ListMultimap<String, Element> elementsByTag =
+                    read(GraphicsUtils.repairString(svgDescription), document);
+            repair(elementsByTag);
+            return document;
+        } catch (ParserConfigurationException | XMLStreamException | RuntimeException e) {
+            // Something went wrong
+            return null;
+        }
+    }
+
+    /**
+     * Reads the given SVG description into the given document.
+     *
+     * @param svg the SVG description.
+     * @param document the document to add the description's elements to.
+     * @return the document's elements indexed by tag name, in document order.
+     * @throws XMLStreamException if the description cannot be parsed.
+     */
+    private static ListMultimap<String, Element> read(final String svg, final Document document)
+            throws XMLStreamException {
+
+        // Never try to load DTDs; tag names are taken as they are, just like the DOM parser did
+        final XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.FALSE);
+        factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+
+        final ListMultimap<String, Element> elementsByTag = ArrayListMultimap.create();
+        final XMLStreamReader reader = factory.createXMLStreamReader(new StringReader(svg));
+        try {
+            Node parent = document;
+            while (reader.hasNext()) {
+                switch (reader.next()) {
+                case XMLStreamConstants.START_ELEMENT:
+                    final Element element = document.createElement(reader.getLocalName());
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        element.setAttribute(
+                                reader.getAttributeLocalName(i), reader.getAttributeValue(i));
+                    }
+                    parent.appendChild(element);
+                    elementsByTag.put(element.getTagName(), element);
+                    parent = element;
+                    break;
+
+                case XMLStreamConstants.END_ELEMENT:
+                    parent = parent.getParentNode();
+                    break;
+
+                case XMLStreamConstants.CHARACTERS:
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.SPACE:
+                    // Text outside of the root element cannot be added to the document
+                    if (parent != document) {
+                        parent.appendChild(document.createTextNode(reader.getText()));
+                    }
+                    break;
+
+                default:
+                    // Comments and processing instructions don't make it into the figure anyway
+                }
+            }
+        } finally {
+            reader.close();
+        }
+
+        return elementsByTag;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Repair
+
+    /**
+     * Sets the size of the SVG description's root element and shifts its elements such that the
+     * top left corner lies at the origin, which Ptolemy puts at the center.
+     *
+     * @param elementsByTag the description's elements indexed by tag name, in document order.
+     */
+    private static void repair(final ListMultimap<String, Element> elementsByTag) {
+        final Element svgElement = elementsByTag.get("svg").get(0); //$NON-NLS-1$
+        int xoffset = 0;
+        int yoffset = 0;
+
+        // The size of the whole thing is easy to find if there is a rectangle; otherwise, look at
+        // the topmost element
+        final List<Element> rects = elementsByTag.get("rect"); //$NON-NLS-1$
+        if (!rects.isEmpty()) {
+            final Element rectElement = rects.get(0);
+            svgElement.setAttribute("height", String.valueOf( //$NON-NLS-1$
+                    Integer.parseInt(rectElement.getAttribute("height")) + 1)); //$NON-NLS-1$
+            svgElement.setAttribute("width", String.valueOf( //$NON-NLS-1$
+                    Integer.parseInt(rectElement.getAttribute("width")) + 1)); //$NON-NLS-1$
+            xoffset = (int) Math.abs(Float.parseFloat(rectElement.getAttribute("x"))); //$NON-NLS-1$
+            yoffset = (int) Math.abs(Float.parseFloat(rectElement.getAttribute("y"))); //$NON-NLS-1$
+        } else {
+            final Element firstElement = firstChildElement(svgElement);
+            if (firstElement != null && firstElement.hasAttribute("points")) { //$NON-NLS-1$
+                final float[] points =
+                        parsePoints(firstElement.getAttribute("points")); //$NON-NLS-1$
+                float minX = Float.POSITIVE_INFINITY;
+                float minY = Float.POSITIVE_INFINITY;
+                float maxX = Float.NEGATIVE_INFINITY;
+                float maxY = Float.NEGATIVE_INFINITY;
+                for (int i = 0; i < points.length; i += 2) {
+                    minX = Math.min(minX, points[i]);
+                    minY = Math.min(minY, points[i + 1]);
+                    maxX = Math.max(maxX, points[i]);
+                    maxY = Math.max(maxY, points[i + 1]);
+                }
+                xoffset = (int) Math.abs(minX);
+                yoffset = (int) Math.abs(minY);
+                svgElement.setAttribute("width", String.valueOf(maxX + xoffset + 1)); //$NON-NLS-1$
+                svgElement.setAttribute("height", String.valueOf(maxY + yoffset + 1)); //$NON-NLS-1$
+            } else if (firstElement != null && firstElement.hasAttribute("r")) { //$NON-NLS-1$
+                final int r = (int) Math.abs(
+                        Float.parseFloat(firstElement.getAttribute("r"))); //$NON-NLS-1$
+                xoffset = r;
+                yoffset = r;
+                svgElement.setAttribute("height", String.valueOf(r * 2)); //$NON-NLS-1$
+                svgElement.setAttribute("width", String.valueOf(r * 2)); //$NON-NLS-1$
+            }
+        }
+
+        // Rectangles keep their coordinates as doubles
+        for (Element e : rects) {
+            if (e.hasAttribute("x") && e.hasAttribute("y") //$NON-NLS-1$ //$NON-NLS-2$
+                    && e.hasAttribute("style")) { //$NON-NLS-1$
+                e.setAttribute("x", //$NON-NLS-1$
+                        String.valueOf(Double.parseDouble(e.getAttribute("x")) + xoffset));
+                e.setAttribute("y", //$NON-NLS-1$
+                        String.valueOf(Double.parseDouble(e.getAttribute("y")) + yoffset));
+                addOutline(e);
+            }
+        }
+
+        for (Element e : elementsByTag.get("circle")) { //$NON-NLS-1$
+            shift(e, "cx", "cy", xoffset, yoffset); //$NON-NLS-1$ //$NON-NLS-2$
+            addOutline(e);
+        }
+
+        for (Element e : elementsByTag.get("polygon")) { //$NON-NLS-1$
+            if (e.hasAttribute("points")) { //$NON-NLS-1$
+                shiftPoints(e, xoffset, yoffset);
+                addOutline(e);
+            }
+        }
+
+        for (Element e : elementsByTag.get("polyline")) { //$NON-NLS-1$
+            if (e.hasAttribute("points")) { //$NON-NLS-1$
+                shiftPoints(e, xoffset, yoffset);
+            }
+        }
+
+        for (Element e : elementsByTag.get("line")) { //$NON-NLS-1$
+            if (e.hasAttribute("x2") && e.hasAttribute("y2")) { //$NON-NLS-1$ //$NON-NLS-2$
+                shift(e, "x1", "y1", xoffset, yoffset); //$NON-NLS-1$ //$NON-NLS-2$
+                shift(e, "x2", "y2", xoffset, yoffset); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            addOutline(e);
+        }
+
+        for (Element e : elementsByTag.get("image")) { //$NON-NLS-1$
+            shift(e, "x", "y", xoffset, yoffset); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        for (Element e : elementsByTag.get("ellipse")) { //$NON-NLS-1$
+            shift(e, "cx", "cy", xoffset, yoffset); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        for (Element e : elementsByTag.get("text")) { //$NON-NLS-1$
+            shift(e, "x", "y", xoffset, yoffset); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * Returns the first child of the given element that is an element itself.
+     *
+     * @param element the element.
+     * @return the first child element, or {@code null} if there is none.
+     */
+    private static Element firstChildElement(final Element element) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child instanceof Element) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shifts the given coordinate attributes of the given element by the given offsets, provided
+     * the element has both of them.
+     *
+     * @param e the element.
+     * @param xAttribute name of the x coordinate attribute.
+     * @param yAttribute name of the y coordinate attribute.
+     * @param xoffset the horizontal offset.
+     * @param yoffset the vertical offset.
+     */
+    private static void shift(final Element e, final String xAttribute, final String yAttribute,
+            final int xoffset, final int yoffset) {
+
+        if (e.hasAttribute(xAttribute) && e.hasAttribute(yAttribute)) {
+            e.setAttribute(xAttribute,
+                    String.valueOf(Float.parseFloat(e.getAttribute(xAttribute)) + xoffset));
+            e.setAttribute(yAttribute,
+                    String.valueOf(Float.parseFloat(e.getAttribute(yAttribute)) + yoffset));
+        }
+    }
+
+    /**
+     * Shifts the points of the given element by the given offsets.
+     *
+     * @param e the element, which must have a {@code points} attribute.
+     * @param xoffset the horizontal offset.
+     * @param yoffset the vertical offset.
+     */
+    private static void shiftPoints(final Element e, final int xoffset, final int yoffset) {
+        final float[] points = parsePoints(e.getAttribute("points")); //$NON-NLS-1$
+        final StringBuilder shiftedPoints = new StringBuilder(points.length * 8);
+        for (int i = 0; i < points.length; i += 2) {
+            shiftedPoints.append(points[i] + xoffset)
+                    .append(',')
+                    .append(points[i + 1] + yoffset)
+                    .append(' ');
+        }
+        e.setAttribute("points", shiftedPoints.toString()); //$NON-NLS-1$
+    }
+
+    /**
+     * Adds an outline to the style of the given element.
+     *
+     * @param e the element.
+     */
+    private static void addOutline(final Element e) {
+        final String style = "style"; //$NON-NLS-1$
+        e.setAttribute(style, e.getAttribute(style) + OUTLINE_STYLE);
+    }
+
+    /**
+     * Parses a list of points. Coordinates are separated by commas, whitespace, or both.
+     *
+     * @param points the list of points.
+     * @return the coordinates, alternating between x and y coordinates.
+     * @throws NumberFormatException if a coordinate is not a number or there is not a whole
+     *                               number of points, or none at all.
+     */
+    private static float[] parsePoints(final String points) {
+        float[] coordinates = new float[16];
+        int count = 0;
+
+        final int length = points.length();
+        int start = 0;
+        while (start < length) {
+            // Skip separators
+            while (start < length && isSeparator(points.charAt(start))) {
+                start++;
+            }
+            if (start == length) {
+                break;
+            }
+
+            int end = start;
+            while (end < length && !isSeparator(points.charAt(end))) {
+                end++;
+            }
+
+            if (count == coordinates.length) {
+                coordinates = Arrays.copyOf(coordinates, count * 2);
+            }
+            coordinates[count++] = Float.parseFloat(points.substring(start, end));
+            start = end;
+        }
+
+        if (count == 0 || count % 2 != 0) {
+            throw new NumberFormatException("Not a list of points: " + points); //$NON-NLS-1$
+        }
+        return Arrays.copyOf(coordinates, count);
+    }
+
+    /**
+     * Checks whether the given character separates coordinates in a list of points.
+     *
+     * @param c the character.
+     * @return {@code true} if it is a comma or whitespace.
+     */
+    private static boolean isSeparator(final char c) {
+        return c == ',' || Character.isWhitespace(c);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * KIELER - Kiel Integrated Environment for Layout Eclipse RichClient
+ *
+ * http://rtsys.informatik.uni-kiel.de/kieler
+ *
+ * Copyright 2026 by
+ * + Kiel University
+ *   + Department of Computer Science
+ *     + Real-Time and Embedded Systems Group
+ *
+ * This code is provided under the terms of the Eclipse Public License (EPL).
+ * See the file epl-v10.html for the license text.
+ */
+package de.cau.cs.kieler.ptolemy.klighd.transformation.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.emf.ecore.util.EcoreUtil;
+import org.w3c.dom.Document;
+
+import com.google.common.base.Optional;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+import de.cau.cs.kieler.klighd.krendering.KRendering;
+
+/**
+ * Caches the figures created from the SVG descriptions of Ptolemy actors. Many actor classes share
+ * the same SVG description, which only has to be parsed, repaired, and turned into a figure once.
+ * Figures are indexed by a cryptographic hash of the raw SVG description, so the descriptions
+ * themselves need not be kept around. Descriptions that cannot be turned into a figure are
+ * remembered as well.
+ *
+ * <p>Figures end up in the rendering libraries of diagrams, so callers get a copy of the cached
+ * figure. The cache may be used by several threads at once. A description asked for by several
+ * threads at once is only turned into a figure by one of them.</p>
+ *
+ * @author cds
+ * @see ActorIconCache
+ */
+public final class SvgFigureCache {
+
+    /** Maximum number of figures kept in the cache. */
+    private static final int MAX_FIGURES = 1000;
+
+    /** The one and only instance. */
+    private static final SvgFigureCache INSTANCE = new SvgFigureCache();
+
+    /** Hash function applied to SVG descriptions. */
+    private final HashFunction hashFunction = Hashing.sha256();
+    /** Figures indexed by the hash of their SVG description; absent if there is no figure. */
+    private final Cache<HashCode, Optional<KRendering>> figures = CacheBuilder.newBuilder()
+            .maximumSize(MAX_FIGURES)
+            .build();
+
+
+    /**
+     * Creates the cache.
+     */
+    private SvgFigureCache() {
+    }
+
+    /**
+     * Returns the one and only instance of this class.
+     *
+     * @return the instance.
+     */
+    public static SvgFigureCache getInstance() {
+        return INSTANCE;
+    }
+
+
+    /////////////////////////////////////////////////////////////////////////////////////////////
+    // Cache Access
+
+    /**
+     * Returns a copy of the figure created from the given SVG description from Ptolemy, creating
+     * and caching the figure if it is not cached yet.
+     *
+     * @param svgDescription the SVG description, as configured for the actor.
+     * @return the figure, or {@code null} if the description cannot be turned into one.
+     */
+    public KRendering getFigure(final String svgDescription) {
+        final HashCode hash = hashFunction.hashString(svgDescription, StandardCharsets.UTF_8);
+
+        try {
+            final Optional<KRendering> figure =
+                    figures.get(hash, () -> Optional.fromNullable(createFigure(svgDescription)));
+            return figure.isPresent() ? EcoreUtil.copy(figure.get()) : null;
+        } catch (ExecutionException e) {
+            // Creating figures does not throw checked exceptions
+            return null;
+        }
+    }
+
+    /**
+     * Parses and repairs the given SVG description and turns it into a figure.
+     *
+     * @param svgDescription the SVG description.
+     * @return the figure, or {@code null} if the description cannot be turned into one.
+     */
+    private static KRendering createFigure(final String svgDescription) {
+        final Document svgDocument = StreamingSvgRepair.parseAndRepair(svgDescription);
+        if (svgDocument == null) {
+            return null;
+        }
+
+        try {
+            return GraphicsUtils.createFigureFromSvg(svgDocument);
+        } catch (RuntimeException e) {
+            // The repaired description may still lack attributes the figure needs
+            return null;
+        }
+    }
+
+}
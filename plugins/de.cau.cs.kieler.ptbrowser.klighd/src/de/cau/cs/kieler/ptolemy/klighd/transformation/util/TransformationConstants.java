@@ -170,18 +170,6 @@ public final class TransformationConstants {
     
     // ANNOTATION NAMES
     
-    /**
-     * Name for an annotation describing where a model element originally came from if it was
-     * transformed from another model.
-     */
-    public static final String ANNOTATION_LANGUAGE = "_language";
-    
-    /**
-     * Value of the {@link #ANNOTATION_LANGUAGE} annotation identifying elements transformed from a
-     * Ptolemy model.
-     */
-    public static final String ANNOTATION_LANGUAGE_PTOLEMY = "ptolemy";
-    
     /**
      * Name for an annotation describing the original class name of an element imported from a
      * Ptolemy model.